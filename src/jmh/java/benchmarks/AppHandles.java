@@ -0,0 +1,91 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+// JMH не разрешает бенчмарки в пакете по умолчанию, а классы бота лежат именно там
+// и не могут быть импортированы из именованного пакета. Поэтому методы приложения
+// вызываются через MethodHandle: хэндлы в static final полях JIT сворачивает в прямой вызов,
+// и на результаты измерений это не влияет. Типы бота в сигнатурах заменены на Object.
+final class AppHandles {
+
+    static final Class<?> DATABASE_MANAGER = load("DatabaseManager");
+    static final Class<?> HABIT = load("Habit");
+    static final Class<?> BOT = load("HabitTrackerBot");
+
+    // (String dbUrl) -> DatabaseManager
+    static final MethodHandle NEW_DATABASE_MANAGER = constructor(DATABASE_MANAGER, String.class);
+
+    static final MethodHandle ADD_HABIT =
+            virtual(DATABASE_MANAGER, "addHabit", boolean.class, long.class, String.class, String.class);
+    // (db, habitId, userId) -> CompletionResult
+    static final MethodHandle COMPLETE_HABIT =
+            virtual(DATABASE_MANAGER, "completeHabit", load("CompletionResult"), int.class, long.class);
+    static final MethodHandle GET_USER_HABITS =
+            virtual(DATABASE_MANAGER, "getUserHabits", List.class, long.class);
+    static final MethodHandle GET_USER_STATS =
+            virtual(DATABASE_MANAGER, "getUserStats", String.class, long.class);
+    static final MethodHandle REBUILD_USER_STATS =
+            virtual(DATABASE_MANAGER, "rebuildUserStats", boolean.class);
+    static final MethodHandle CLOSE =
+            virtual(DATABASE_MANAGER, "close", void.class);
+
+    // (id, userId, name, description, createdDate, completedDays, totalDays,
+    //  currentStreak, bestStreak, lastCompletedDay, reminderMinute) -> Habit
+    static final MethodHandle NEW_HABIT = constructor(HABIT, int.class, long.class, String.class, String.class,
+            String.class, int.class, int.class, int.class, int.class, long.class, int.class);
+
+    // Построители списков из HabitTrackerBot: (List<Habit>) -> String
+    static final MethodHandle BUILD_HABITS_TEXT = staticMethod(BOT, "buildHabitsText");
+    static final MethodHandle BUILD_COMPLETE_LIST = staticMethod(BOT, "buildCompleteList");
+    static final MethodHandle BUILD_DELETE_LIST = staticMethod(BOT, "buildDeleteList");
+    static final MethodHandle BUILD_DESCRIPTION_LIST = staticMethod(BOT, "buildDescriptionList");
+
+    private AppHandles() {
+    }
+
+    private static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Класс бота не найден: " + name, e);
+        }
+    }
+
+    private static MethodHandles.Lookup lookup(Class<?> target) throws IllegalAccessException {
+        // Бенчмарки и бот находятся в одном безымянном модуле, поэтому доступ к package-private открыт
+        return MethodHandles.privateLookupIn(target, MethodHandles.lookup());
+    }
+
+    private static MethodHandle virtual(Class<?> owner, String name, Class<?> returnType, Class<?>... params) {
+        try {
+            MethodHandle handle = lookup(owner).findVirtual(owner, name, MethodType.methodType(returnType, params));
+            return handle.asType(MethodType.methodType(erase(returnType), Object.class, params));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Метод не найден: " + owner.getName() + "." + name, e);
+        }
+    }
+
+    private static MethodHandle constructor(Class<?> owner, Class<?>... params) {
+        try {
+            MethodHandle handle = lookup(owner).findConstructor(owner, MethodType.methodType(void.class, params));
+            return handle.asType(MethodType.methodType(Object.class, params));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Конструктор не найден: " + owner.getName(), e);
+        }
+    }
+
+    private static MethodHandle staticMethod(Class<?> owner, String name) {
+        try {
+            return lookup(owner).findStatic(owner, name, MethodType.methodType(String.class, List.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Метод не найден: " + owner.getName() + "." + name, e);
+        }
+    }
+
+    private static Class<?> erase(Class<?> type) {
+        return type.isPrimitive() || type.getName().startsWith("java.") ? type : Object.class;
+    }
+}
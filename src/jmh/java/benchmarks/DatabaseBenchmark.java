@@ -0,0 +1,158 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Горячие пути DatabaseManager на временном файле SQLite заданного размера.
+// Заполненная база строится один раз на размер (в java.io.tmpdir) и копируется перед каждым прогоном.
+// 10 млн строк: java -jar target/benchmarks.jar DatabaseBenchmark -p rows=10000000
+// Запись под конкуренцией (group commit): добавьте -t 8
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseBenchmark {
+
+    private static final int HABITS_PER_USER = 20;
+    private static final int INSERT_BATCH = 10_000;
+
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    // false - кэш списков привычек выключен, getUserHabits всегда идет в SQLite
+    @Param({"true", "false"})
+    public boolean cache;
+
+    private Path dbFile;
+    private Object db;
+    private long users;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        if (!cache) {
+            System.setProperty("HABIT_CACHE_MAX_HABITS", "0");
+        }
+        users = Math.max(1, rows / HABITS_PER_USER);
+
+        Path template = Paths.get(System.getProperty("java.io.tmpdir"), "habit-bench-" + rows + ".db");
+        if (!Files.exists(template)) {
+            createTemplate(template);
+        }
+        dbFile = Files.createTempFile("habit-bench-", ".db");
+        Files.copy(template, dbFile, StandardCopyOption.REPLACE_EXISTING);
+        db = AppHandles.NEW_DATABASE_MANAGER.invokeExact("jdbc:sqlite:" + dbFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Throwable {
+        AppHandles.CLOSE.invokeExact(db);
+        Files.deleteIfExists(dbFile);
+        Files.deleteIfExists(Paths.get(dbFile + "-wal"));
+        Files.deleteIfExists(Paths.get(dbFile + "-shm"));
+    }
+
+    @Benchmark
+    public boolean addHabit() throws Throwable {
+        return (boolean) AppHandles.ADD_HABIT.invokeExact(db, randomUser(), "Бег", "Каждое утро 3 км");
+    }
+
+    // Отметка идемпотентна в пределах дня: после первого прохода по привычке
+    // измеряется путь "уже отмечено", как при повторных нажатиях
+    @Benchmark
+    public Object completeHabit() throws Throwable {
+        int habitId = ThreadLocalRandom.current().nextInt(rows) + 1;
+        long userId = (habitId - 1) / HABITS_PER_USER;
+        return AppHandles.COMPLETE_HABIT.invokeExact(db, habitId, userId);
+    }
+
+    @Benchmark
+    public List<?> getUserHabits() throws Throwable {
+        return (List<?>) AppHandles.GET_USER_HABITS.invokeExact(db, randomUser());
+    }
+
+    @Benchmark
+    public String getUserStats() throws Throwable {
+        return (String) AppHandles.GET_USER_STATS.invokeExact(db, randomUser());
+    }
+
+    private long randomUser() {
+        return ThreadLocalRandom.current().nextLong(users);
+    }
+
+    // Схему создает сам DatabaseManager (миграции), строки вставляются напрямую большими транзакциями
+    private void createTemplate(Path template) throws Throwable {
+        Path building = Paths.get(template + ".tmp");
+        Files.deleteIfExists(building);
+        String url = "jdbc:sqlite:" + building;
+
+        Object manager = AppHandles.NEW_DATABASE_MANAGER.invokeExact(url);
+        AppHandles.CLOSE.invokeExact(manager);
+
+        try (Connection connection = DriverManager.getConnection(url)) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("PRAGMA synchronous=OFF");
+            }
+            connection.setAutoCommit(false);
+            String sql = "INSERT INTO habits (id, user_id, name, description, created_date, " +
+                    "completed_days, total_days) VALUES (?, ?, ?, ?, datetime('now', ?), ?, ?)";
+            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < rows; i++) {
+                    int totalDays = random.nextInt(365);
+                    pstmt.setInt(1, i + 1);
+                    pstmt.setLong(2, i / HABITS_PER_USER);
+                    pstmt.setString(3, "Привычка " + i);
+                    pstmt.setString(4, i % 3 == 0 ? "" : "Описание привычки номер " + i);
+                    pstmt.setString(5, "-" + totalDays + " days");
+                    pstmt.setInt(6, totalDays == 0 ? 0 : random.nextInt(totalDays));
+                    pstmt.setInt(7, totalDays);
+                    pstmt.addBatch();
+                    if ((i + 1) % INSERT_BATCH == 0) {
+                        pstmt.executeBatch();
+                        connection.commit();
+                    }
+                }
+                pstmt.executeBatch();
+                connection.commit();
+            }
+        }
+
+        manager = AppHandles.NEW_DATABASE_MANAGER.invokeExact(url);
+        boolean rebuilt = (boolean) AppHandles.REBUILD_USER_STATS.invokeExact(manager);
+        AppHandles.CLOSE.invokeExact(manager);
+        if (!rebuilt) {
+            throw new IllegalStateException("Не удалось пересчитать user_stats");
+        }
+        try (Connection connection = DriverManager.getConnection(url);
+             Statement stmt = connection.createStatement()) {
+            // Переносим WAL в основной файл, чтобы копия базы была полной
+            stmt.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+        }
+        Files.move(building, template, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
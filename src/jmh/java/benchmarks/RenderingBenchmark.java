@@ -0,0 +1,79 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Построение текстов ответов: Habit.toString и списки выбора привычки из HabitTrackerBot.
+// Фрагменты запоминаются в объекте Habit, поэтому повторные вызовы меряют путь через кэш,
+// а habitToStringUncached - отрисовку по шаблону для только что прочитанной привычки.
+// Для оценки мусора запускайте с профилировщиком аллокаций: -prof gc
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderingBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int habitsPerUser;
+
+    private Object habit;
+    private List<Object> habits;
+
+    @Setup
+    public void setUp() throws Throwable {
+        habits = new ArrayList<>(habitsPerUser);
+        for (int i = 0; i < habitsPerUser; i++) {
+            String description = i % 3 == 0 ? "" : "Каждый день по 20 минут, номер " + i;
+            habits.add(AppHandles.NEW_HABIT.invokeExact(i + 1, 42L, "Привычка " + i, description,
+                    "2025-01-15 08:30:00", i % 30, 30, i % 7, 10, 20000L, i % 2 == 0 ? 480 : -1));
+        }
+        habit = habits.get(0);
+    }
+
+    @Benchmark
+    public String habitToString() {
+        return habit.toString();
+    }
+
+    @Benchmark
+    public String habitToStringUncached() throws Throwable {
+        Object fresh = AppHandles.NEW_HABIT.invokeExact(1, 42L, "Привычка 0", "Каждый день по 20 минут",
+                "2025-01-15 08:30:00", 12, 30, 3, 10, 20000L, 480);
+        return fresh.toString();
+    }
+
+    @Benchmark
+    public String buildHabitsText() throws Throwable {
+        return (String) AppHandles.BUILD_HABITS_TEXT.invokeExact((List) habits);
+    }
+
+    @Benchmark
+    public String buildCompleteList() throws Throwable {
+        return (String) AppHandles.BUILD_COMPLETE_LIST.invokeExact((List) habits);
+    }
+
+    @Benchmark
+    public String buildDeleteList() throws Throwable {
+        return (String) AppHandles.BUILD_DELETE_LIST.invokeExact((List) habits);
+    }
+
+    @Benchmark
+    public String buildDescriptionList() throws Throwable {
+        return (String) AppHandles.BUILD_DESCRIPTION_LIST.invokeExact((List) habits);
+    }
+}
@@ -0,0 +1,227 @@
+// Настройки бота: читаются из системных свойств (-DKEY=...) или переменных окружения
+public final class BotConfig {
+
+    private BotConfig() {
+    }
+
+    // Количество потоков-шардов для обработки входящих обновлений
+    public static int dispatcherShards() {
+        return getInt("HABIT_DISPATCHER_SHARDS", Runtime.getRuntime().availableProcessors());
+    }
+
+    // Размер очереди каждого шарда; при переполнении обновления отбрасываются
+    public static int dispatcherQueueCapacity() {
+        return getInt("HABIT_DISPATCHER_QUEUE", 1000);
+    }
+
+    // Глобальный лимит Telegram на исходящие сообщения в секунду
+    public static double globalRatePerSecond() {
+        return getInt("HABIT_GLOBAL_RATE", 30);
+    }
+
+    // Лимит сообщений в секунду для одного личного чата
+    public static double chatRatePerSecond() {
+        return getInt("HABIT_CHAT_RATE", 1);
+    }
+
+    // Сколько сообщений подряд можно отправить в чат без ожидания
+    public static int chatBurst() {
+        return getInt("HABIT_CHAT_BURST", 3);
+    }
+
+    // Сколько последних update_id помнится для отбрасывания повторных доставок
+    public static int dedupWindow() {
+        return getInt("HABIT_DEDUP_WINDOW", 65536);
+    }
+
+    // Сколько обновлений одного пользователя может ждать обработки; остальные отклоняются
+    public static int maxInFlightPerUser() {
+        return Math.max(1, getInt("HABIT_MAX_INFLIGHT_PER_USER", 5));
+    }
+
+    // Сколько обновлений всего может ждать обработки; сверх этого бот отвечает отказом
+    public static int maxInFlight() {
+        return Math.max(1, getInt("HABIT_MAX_INFLIGHT", 2000));
+    }
+
+    // Максимальное количество исходящих сообщений, ожидающих отправки
+    public static int senderQueueCapacity() {
+        return getInt("HABIT_SENDER_QUEUE", 10000);
+    }
+
+    // Максимальное число изменений, фиксируемых одной транзакцией
+    public static int dbWriteBatchSize() {
+        return getInt("HABIT_DB_BATCH_SIZE", 256);
+    }
+
+    // Сколько миллисекунд поток записи ждет, чтобы добрать пачку.
+    // По умолчанию 0: пачка набирается из записей, пришедших во время предыдущего commit
+    public static long dbWriteBatchDelayMillis() {
+        return getInt("HABIT_DB_BATCH_DELAY_MS", 0);
+    }
+
+    public static int dbWriteQueueCapacity() {
+        return getInt("HABIT_DB_WRITE_QUEUE", 10000);
+    }
+
+    // Количество соединений только для чтения
+    public static int dbReadPoolSize() {
+        return getInt("HABIT_DB_READ_POOL", Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+
+    // Размер страничного кэша SQLite на одно соединение, в килобайтах
+    public static int dbCacheSizeKb() {
+        return getInt("HABIT_DB_CACHE_KB", 16384);
+    }
+
+    // Сколько байт файла базы отображать в память (mmap)
+    public static long dbMmapSizeBytes() {
+        return getInt("HABIT_DB_MMAP_MB", 256) * 1024L * 1024L;
+    }
+
+    // Сколько привычек суммарно может храниться в кэше списков
+    public static int habitCacheMaxHabits() {
+        return getInt("HABIT_CACHE_MAX_HABITS", 100000);
+    }
+
+    // Время жизни закэшированного списка привычек
+    public static long habitCacheTtlSeconds() {
+        return getInt("HABIT_CACHE_TTL_SECONDS", 300);
+    }
+
+    // Сверять user_stats с таблицей habits при запуске (полный проход по таблице)
+    public static boolean verifyStatsOnStart() {
+        return Boolean.parseBoolean(get("HABIT_VERIFY_STATS_ON_START", "false"));
+    }
+
+    // Через сколько минут бездействия незавершенный диалог забывается
+    public static long conversationTtlMillis() {
+        return getInt("HABIT_CONVERSATION_TTL_MINUTES", 30) * 60_000L;
+    }
+
+    // Сохранять состояния диалогов в базе, чтобы они переживали перезапуск
+    public static boolean persistConversations() {
+        return Boolean.parseBoolean(get("HABIT_PERSIST_CONVERSATIONS", "true"));
+    }
+
+    // Способ получения обновлений: polling (по умолчанию) или webhook
+    public static String receiveMode() {
+        return get("HABIT_RECEIVE_MODE", "polling");
+    }
+
+    public static int webhookPort() {
+        return getInt("HABIT_WEBHOOK_PORT", 8443);
+    }
+
+    public static String webhookPath() {
+        return get("HABIT_WEBHOOK_PATH", "/webhook");
+    }
+
+    // Публичный https-адрес, который регистрируется в Telegram через setWebhook
+    public static String webhookPublicUrl() {
+        return get("HABIT_WEBHOOK_URL", null);
+    }
+
+    // Секрет, который Telegram передает в заголовке X-Telegram-Bot-Api-Secret-Token.
+    // Если не задан при HABIT_WEBHOOK_URL, генерируется случайный; без обоих webhook слушает только 127.0.0.1
+    public static String webhookSecret() {
+        return get("HABIT_WEBHOOK_SECRET", null);
+    }
+
+    // Сколько привычек показывается на одной странице /myhabits
+    public static int habitsPageSize() {
+        return Math.max(1, getInt("HABIT_PAGE_SIZE", 10));
+    }
+
+    // Сколько привычек вставляется одной транзакцией при импорте
+    public static int importChunkSize() {
+        return Math.max(1, getInt("HABIT_IMPORT_CHUNK", 1000));
+    }
+
+    // Максимальный размер файла для импорта через бота (Telegram отдает ботам файлы до 20 МБ)
+    public static int importMaxBytes() {
+        return getInt("HABIT_IMPORT_MAX_BYTES", 20 * 1024 * 1024);
+    }
+
+    // Порт локального эндпоинта /metrics; 0 отключает сбор метрик по HTTP
+    public static int metricsPort() {
+        return getInt("HABIT_METRICS_PORT", 9091);
+    }
+
+    // Хранилище: sqlite (по умолчанию) или memory - без базы, данные теряются при остановке
+    public static String dbBackend() {
+        return get("HABIT_DB_BACKEND", "sqlite");
+    }
+
+    // Число файлов SQLite, по которым пользователи распределяются по хэшу userId; 1 - один habits.db
+    public static int dbShards() {
+        return Math.max(1, getInt("HABIT_DB_SHARDS", 1));
+    }
+
+    // Префикс путей файлов шардов: habits-0.db, habits-1.db, ...
+    public static String dbShardPathPrefix() {
+        return get("HABIT_DB_SHARD_PREFIX", "habits");
+    }
+
+    // Сколько привычек переводит на новый день одна транзакция DayRollover
+    public static int rolloverChunkSize() {
+        return Math.max(1, getInt("HABIT_ROLLOVER_CHUNK", 2000));
+    }
+
+    // Минимальная пауза между пачками перевода дня, мс (пауза не короче времени самой пачки)
+    public static int rolloverPauseMillis() {
+        return Math.max(0, getInt("HABIT_ROLLOVER_PAUSE_MS", 20));
+    }
+
+    // Как часто статистика сообщества (/top) сохраняется снимком в базу, секунды
+    public static int communityCheckpointSeconds() {
+        return Math.max(1, getInt("HABIT_COMMUNITY_CHECKPOINT_SECONDS", 300));
+    }
+
+    // Сколько дней журнал выполнений хранит отметки; более старые удаляются (история остается
+    // в битовой habit_history). Не меньше 62 дней: отметка дня и счетчики недели для /top читают журнал
+    public static int retentionDays() {
+        return Math.max(62, getInt("HABIT_RETENTION_DAYS", 400));
+    }
+
+    // Сколько привычек очищает одна транзакция HistoryRetention
+    public static int retentionChunkSize() {
+        return Math.max(1, getInt("HABIT_RETENTION_CHUNK", 200));
+    }
+
+    // Окно обслуживания базы (очистка журнала и возврат свободных страниц), часы UTC [from, to).
+    // from > to - окно через полночь, from == to - круглые сутки
+    public static int maintenanceFromHour() {
+        return Math.floorMod(getInt("HABIT_MAINTENANCE_FROM_HOUR", 3), 24);
+    }
+
+    public static int maintenanceToHour() {
+        return Math.floorMod(getInt("HABIT_MAINTENANCE_TO_HOUR", 6), 24);
+    }
+
+    // Сколько свободных страниц возвращает системе один шаг PRAGMA incremental_vacuum
+    public static int vacuumPagesPerStep() {
+        return Math.max(1, getInt("HABIT_VACUUM_PAGES", 1000));
+    }
+
+    static String get(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null || value.isEmpty()) {
+            value = System.getenv(key);
+        }
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+    static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Некорректное значение " + key + "=" + value + ", используется " + defaultValue);
+            return defaultValue;
+        }
+    }
+}
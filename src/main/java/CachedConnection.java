@@ -0,0 +1,93 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Соединение SQLite с кэшем подготовленных запросов.
+// SQL разбирается один раз, дальше используется готовый PreparedStatement.
+// Объект не потокобезопасен: им одновременно пользуется только один поток
+// (поток записи или поток, взявший соединение из пула чтения).
+public class CachedConnection implements AutoCloseable {
+
+    private static final int MAX_CACHED_STATEMENTS = 64;
+
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements =
+            new LinkedHashMap<>(MAX_CACHED_STATEMENTS * 2, 0.75f, true);
+
+    public CachedConnection(Connection connection) {
+        this.connection = connection;
+    }
+
+    // Открывает соединение и настраивает его. readOnly - для соединений из пула чтения
+    public static CachedConnection open(String url, boolean readOnly) throws SQLException {
+        Connection connection = DriverManager.getConnection(url);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA busy_timeout=5000");
+            // Отрицательное значение cache_size задается в килобайтах
+            stmt.execute("PRAGMA cache_size=-" + BotConfig.dbCacheSizeKb());
+            stmt.execute("PRAGMA mmap_size=" + BotConfig.dbMmapSizeBytes());
+            stmt.execute("PRAGMA temp_store=MEMORY");
+            if (readOnly) {
+                stmt.execute("PRAGMA query_only=1");
+            } else {
+                // Действует только для новой базы и только до первой записи в файл (переключение WAL
+                // уже пишет заголовок). Существующую базу переводит HabitTransferTool vacuum
+                stmt.execute("PRAGMA auto_vacuum=INCREMENTAL");
+                // WAL позволяет читать параллельно с записью, NORMAL - fsync только при checkpoint
+                stmt.execute("PRAGMA journal_mode=WAL");
+                stmt.execute("PRAGMA synchronous=NORMAL");
+            }
+        }
+        return new CachedConnection(connection);
+    }
+
+    // Возвращает закэшированный запрос. Закрывать его не нужно, только ResultSet
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement pstmt = statements.get(sql);
+        if (pstmt == null) {
+            pstmt = connection.prepareStatement(sql);
+            statements.put(sql, pstmt);
+            evictIfNeeded();
+        }
+        return pstmt;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    private void evictIfNeeded() {
+        if (statements.size() <= MAX_CACHED_STATEMENTS) {
+            return;
+        }
+        Iterator<PreparedStatement> iterator = statements.values().iterator();
+        closeQuietly(iterator.next());
+        iterator.remove();
+    }
+
+    private void closeQuietly(PreparedStatement pstmt) {
+        try {
+            pstmt.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (PreparedStatement pstmt : statements.values()) {
+            closeQuietly(pstmt);
+        }
+        statements.clear();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,345 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Общая статистика для /top: лучшие серии привычек, больше всего отметок за неделю, число
+// привычек и отметок за сегодня у всех пользователей. Поддерживается из пути записи хранилища
+// (ChangeListener) и читается из памяти за O(k), без запросов к базе.
+// Раз в HABIT_COMMUNITY_CHECKPOINT_SECONDS и при остановке состояние сохраняется снимком в базу.
+// При старте снимок восстанавливается; если остановка была аварийной (или снимка нет), таблица
+// habits один раз читается целиком в фоне, а /top до конца чтения отвечает по снимку.
+// Та же пересборка запускается, когда в таблице лидеров после удалений не хватает верных записей.
+public class CommunityStats implements HabitRepository.ChangeListener {
+
+    static final int TOP_SIZE = 10;
+    // Запас записей сверх TOP_SIZE: удаления из топа не требуют пересборки сразу
+    private static final int CAPACITY = TOP_SIZE * 4;
+    private static final String SNAPSHOT_NAME = "community";
+    private static final String SNAPSHOT_VERSION = "v1";
+
+    // Пересборка, которая идет прямо сейчас. События во время чтения таблицы применяются и к
+    // новым таблицам лидеров; строки чтения по уже измененным ключам пропускаются как устаревшие
+    private static final class Rebuild {
+        final long day;
+        final long week;
+        final TopK streaks = new TopK(CAPACITY);
+        final TopK weekCompletions = new TopK(CAPACITY);
+        final Set<Long> touchedHabits = new HashSet<>();
+        final Set<Long> touchedUsers = new HashSet<>();
+        long habitsDelta;
+        long completionsDelta;
+
+        Rebuild(long day) {
+            this.day = day;
+            this.week = weekStart(day);
+        }
+    }
+
+    private final HabitRepository dbManager;
+    private final int checkpointSeconds;
+    private final ScheduledExecutorService executor;
+
+    // Поля ниже - под монитором this
+    private TopK streaks = new TopK(CAPACITY);
+    private TopK weekCompletions = new TopK(CAPACITY);
+    private long day = Habit.currentDay();
+    private long week = weekStart(day);
+    private long totalHabits;
+    private long completionsToday;
+    private Rebuild rebuild;
+    private boolean rebuildScheduled;
+    // Счетчики и таблицы соответствуют базе: восстановлены из чистого снимка или пересобраны
+    private boolean exact;
+
+    public CommunityStats(HabitRepository dbManager, int checkpointSeconds) {
+        this.dbManager = dbManager;
+        this.checkpointSeconds = checkpointSeconds;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "community-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Понедельник недели дня day (дни UTC от начала эпохи; 1970-01-01 - четверг)
+    static long weekStart(long day) {
+        return day - Math.floorMod(day + 3, 7);
+    }
+
+    public void start() {
+        executor.execute(() -> {
+            if (restore(dbManager.loadSnapshot(SNAPSHOT_NAME))) {
+                // Снимок больше не чистый: до следующей штатной остановки верна только база
+                checkpoint(false);
+                synchronized (this) {
+                    exact = true;
+                    if (!streaks.isComplete(TOP_SIZE) || !weekCompletions.isComplete(TOP_SIZE)) {
+                        scheduleRebuild();
+                    }
+                }
+            } else {
+                rebuild(true);
+            }
+        });
+        executor.scheduleWithFixedDelay(() -> checkpoint(false), checkpointSeconds, checkpointSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    // Вызывается после остановки обработки обновлений, до закрытия хранилища
+    public void shutdown() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkpoint(true);
+    }
+
+    @Override
+    public synchronized void habitAdded(int habitId, long userId, int bestStreak) {
+        totalHabits++;
+        streaks.put(habitId, userId, bestStreak);
+        if (rebuild != null) {
+            rebuild.habitsDelta++;
+            rebuild.touchedHabits.add((long) habitId);
+            rebuild.streaks.put(habitId, userId, bestStreak);
+        }
+    }
+
+    @Override
+    public synchronized void habitCompleted(int habitId, long userId, int bestStreak, int weekCount, long completedDay) {
+        advanceTo(completedDay);
+        if (completedDay == day) {
+            completionsToday++;
+        }
+        streaks.put(habitId, userId, bestStreak);
+        if (weekStart(completedDay) == week) {
+            weekCompletions.put(userId, userId, weekCount);
+        }
+        if (rebuild != null) {
+            if (completedDay == rebuild.day) {
+                rebuild.completionsDelta++;
+            }
+            rebuild.touchedHabits.add((long) habitId);
+            rebuild.streaks.put(habitId, userId, bestStreak);
+            if (weekStart(completedDay) == rebuild.week) {
+                rebuild.touchedUsers.add(userId);
+                rebuild.weekCompletions.put(userId, userId, weekCount);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void habitDeleted(int habitId, long userId, int weekCount, boolean completedToday) {
+        advanceTo(Habit.currentDay());
+        totalHabits--;
+        if (completedToday) {
+            completionsToday--;
+        }
+        streaks.remove(habitId);
+        weekCompletions.put(userId, userId, weekCount);
+        if (rebuild != null) {
+            rebuild.habitsDelta--;
+            if (completedToday) {
+                rebuild.completionsDelta--;
+            }
+            rebuild.touchedHabits.add((long) habitId);
+            rebuild.touchedUsers.add(userId);
+            rebuild.streaks.remove(habitId);
+            rebuild.weekCompletions.put(userId, userId, weekCount);
+        }
+        if (!streaks.isComplete(TOP_SIZE) || !weekCompletions.isComplete(TOP_SIZE)) {
+            scheduleRebuild();
+        }
+    }
+
+    // Новый день обнуляет отметки за сегодня, новая неделя - таблицу отметок за неделю
+    private void advanceTo(long today) {
+        if (today <= day) {
+            return;
+        }
+        day = today;
+        completionsToday = 0;
+        if (weekStart(today) != week) {
+            week = weekStart(today);
+            weekCompletions.clear();
+        }
+    }
+
+    private void scheduleRebuild() {
+        if (rebuild != null || rebuildScheduled) {
+            return;
+        }
+        rebuildScheduled = true;
+        try {
+            executor.execute(() -> rebuild(false));
+        } catch (RejectedExecutionException e) {
+            // Остановка
+        }
+    }
+
+    public String formatTop(long userId) {
+        List<TopK.Entry> topStreaks;
+        List<TopK.Entry> topWeek;
+        long habits;
+        long completions;
+        synchronized (this) {
+            advanceTo(Habit.currentDay());
+            topStreaks = streaks.top(TOP_SIZE);
+            topWeek = weekCompletions.top(TOP_SIZE);
+            habits = totalHabits;
+            completions = completionsToday;
+        }
+
+        StringBuilder text = new StringBuilder("🏆 Топ сообщества\n\n🔥 Лучшие серии:\n");
+        appendBoard(text, topStreaks, userId, " дн.");
+        text.append("\n✅ Больше всего отметок за неделю:\n");
+        appendBoard(text, topWeek, userId, "");
+        text.append("\n📝 Привычек у всех: ").append(habits)
+                .append("\n🎯 Отметок сегодня: ").append(completions);
+        return text.toString();
+    }
+
+    private static void appendBoard(StringBuilder text, List<TopK.Entry> board, long userId, String unit) {
+        if (board.isEmpty()) {
+            text.append("пока пусто\n");
+            return;
+        }
+        for (int i = 0; i < board.size(); i++) {
+            TopK.Entry entry = board.get(i);
+            text.append(i + 1).append(". ").append(entry.score).append(unit);
+            if (entry.owner == userId) {
+                text.append(" — вы");
+            }
+            text.append('\n');
+        }
+    }
+
+    // Читает таблицу habits один раз. counters - пересчитать и счетчики (после аварийной остановки);
+    // при пересборке из-за удалений счетчики верны и не трогаются
+    private void rebuild(boolean counters) {
+        long start = System.currentTimeMillis();
+        Rebuild current;
+        synchronized (this) {
+            current = new Rebuild(Habit.currentDay());
+            rebuild = current;
+        }
+        long[] scanned = new long[2];
+        long[] user = {Long.MIN_VALUE, 0};
+        boolean completed = dbManager.scanHabitScores((habitId, userId, bestStreak, history) -> {
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            if (userId != user[0]) {
+                offerWeek(current, user[0], user[1]);
+                user[0] = userId;
+                user[1] = 0;
+            }
+            scanned[0]++;
+            if (history != null) {
+                user[1] += history.count(current.week, current.day);
+                if (history.get(current.day)) {
+                    scanned[1]++;
+                }
+            }
+            synchronized (this) {
+                if (bestStreak > 0 && !current.touchedHabits.contains((long) habitId)) {
+                    current.streaks.put(habitId, userId, bestStreak);
+                }
+            }
+            return true;
+        });
+        offerWeek(current, user[0], user[1]);
+
+        synchronized (this) {
+            rebuild = null;
+            rebuildScheduled = false;
+            if (!completed) {
+                return;
+            }
+            streaks = current.streaks;
+            if (current.week == week) {
+                weekCompletions = current.weekCompletions;
+            }
+            if (counters) {
+                totalHabits = scanned[0] + current.habitsDelta;
+                if (current.day == day) {
+                    completionsToday = scanned[1] + current.completionsDelta;
+                }
+                exact = true;
+            }
+        }
+        Metrics.counter("habit_community_rebuilds_total", "").increment();
+        System.out.println("Статистика сообщества пересобрана: " + scanned[0] + " привычек за " +
+                (System.currentTimeMillis() - start) + " мс");
+    }
+
+    private synchronized void offerWeek(Rebuild current, long userId, long count) {
+        if (userId != Long.MIN_VALUE && !current.touchedUsers.contains(userId)) {
+            current.weekCompletions.put(userId, userId, count);
+        }
+    }
+
+    // Строка заголовка: версия, чистая ли остановка, день, неделя, счетчики и границы таблиц;
+    // затем строки "s|w ключ владелец очки"
+    private void checkpoint(boolean clean) {
+        StringBuilder snapshot = new StringBuilder();
+        synchronized (this) {
+            snapshot.append(SNAPSHOT_VERSION).append(' ').append(clean && exact ? 1 : 0)
+                    .append(' ').append(day).append(' ').append(week)
+                    .append(' ').append(totalHabits).append(' ').append(completionsToday)
+                    .append(' ').append(streaks.getFloor()).append(' ').append(weekCompletions.getFloor());
+            appendEntries(snapshot, 's', streaks);
+            appendEntries(snapshot, 'w', weekCompletions);
+        }
+        dbManager.saveSnapshot(SNAPSHOT_NAME, snapshot.toString());
+    }
+
+    private static void appendEntries(StringBuilder snapshot, char board, TopK top) {
+        for (TopK.Entry entry : top.entries()) {
+            snapshot.append('\n').append(board).append(' ').append(entry.key)
+                    .append(' ').append(entry.owner).append(' ').append(entry.score);
+        }
+    }
+
+    // Восстанавливает состояние из снимка; true, если снимок сделан при штатной остановке
+    private boolean restore(String snapshot) {
+        if (snapshot == null) {
+            return false;
+        }
+        try {
+            String[] lines = snapshot.split("\n");
+            String[] header = lines[0].split(" ");
+            if (!SNAPSHOT_VERSION.equals(header[0])) {
+                return false;
+            }
+            List<TopK.Entry> savedStreaks = new ArrayList<>();
+            List<TopK.Entry> savedWeek = new ArrayList<>();
+            for (int i = 1; i < lines.length; i++) {
+                String[] fields = lines[i].split(" ");
+                TopK.Entry entry = new TopK.Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                        Long.parseLong(fields[3]));
+                (fields[0].equals("s") ? savedStreaks : savedWeek).add(entry);
+            }
+            synchronized (this) {
+                day = Long.parseLong(header[2]);
+                week = Long.parseLong(header[3]);
+                totalHabits = Long.parseLong(header[4]);
+                completionsToday = Long.parseLong(header[5]);
+                streaks.restore(savedStreaks, Long.parseLong(header[6]));
+                weekCompletions.restore(savedWeek, Long.parseLong(header[7]));
+                advanceTo(Habit.currentDay());
+            }
+            return "1".equals(header[1]);
+        } catch (RuntimeException e) {
+            System.out.println("Снимок статистики сообщества поврежден, будет пересборка");
+            return false;
+        }
+    }
+}
@@ -0,0 +1,7 @@
+// Результат отметки выполнения привычки
+public enum CompletionResult {
+    COMPLETED,
+    ALREADY_COMPLETED,
+    NOT_FOUND,
+    ERROR
+}
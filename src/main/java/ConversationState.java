@@ -0,0 +1,12 @@
+// Шаг диалога, на котором бот ждет ввод от пользователя
+public enum ConversationState {
+    WAITING_FOR_HABIT_NAME,
+    WAITING_FOR_HABIT_DESCRIPTION,
+    WAITING_FOR_COMPLETE_ID,
+    WAITING_FOR_DELETE_ID,
+    WAITING_FOR_DESCRIPTION_HABIT_ID,
+    WAITING_FOR_DESCRIPTION_TEXT,
+    WAITING_FOR_REMINDER_HABIT_ID,
+    WAITING_FOR_REMINDER_TIME,
+    WAITING_FOR_SEARCH_QUERY
+}
@@ -1,190 +1,1261 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class DatabaseManager {
+public class DatabaseManager implements HabitRepository {
 
     private static final String DB_URL = "jdbc:sqlite:habits.db";
-    private Connection connection;
+
+    private static final Map<String, String> OP_LABELS = new ConcurrentHashMap<>();
+
+    static final int MAX_SEARCH_TERMS = 8;
+
+    // Пересчет user_stats из таблицы habits (источник истины)
+    static final String REBUILD_USER_STATS_SQL = "INSERT INTO user_stats " +
+            "(user_id, total_habits, total_completed, total_days) " +
+            "SELECT user_id, COUNT(*), COALESCE(SUM(completed_days), 0), COALESCE(SUM(total_days), 0) " +
+            "FROM habits WHERE true GROUP BY user_id " +
+            "ON CONFLICT(user_id) DO UPDATE SET total_habits = excluded.total_habits, " +
+            "total_completed = excluded.total_completed, total_days = excluded.total_days";
+
+    private static final String ADJUST_USER_STATS_SQL = "INSERT INTO user_stats " +
+            "(user_id, total_habits, total_completed, total_days) VALUES (?, ?, ?, ?) " +
+            "ON CONFLICT(user_id) DO UPDATE SET total_habits = total_habits + excluded.total_habits, " +
+            "total_completed = total_completed + excluded.total_completed, " +
+            "total_days = total_days + excluded.total_days";
+
+    // Отметки пользователя с начала недели; по первичному ключу habit_completions для каждой его привычки
+    private static final String WEEK_COMPLETIONS_SQL = "SELECT COUNT(*) FROM habit_completions " +
+            "WHERE habit_id IN (SELECT id FROM habits WHERE user_id = ?) AND day >= ?";
+
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private static final long[] NO_DAYS = new long[0];
+
+    // Соединение для записи принадлежит потоку DatabaseWriter, чтения идут через пул соединений
+    private CachedConnection writeConnection;
+    private ReadConnectionPool readPool;
+    private DatabaseWriter writer;
+    private HabitListCache habitCache;
+    private boolean incrementalVacuum;
+    private volatile ChangeListener changeListener = new ChangeListener() {
+    };
 
     public DatabaseManager() {
+        this(DB_URL);
+    }
+
+    // dbUrl - JDBC-адрес файла базы, например jdbc:sqlite:/tmp/bench.db
+    public DatabaseManager(String dbUrl) {
+        this(dbUrl, 0, BotConfig.habitCacheMaxHabits());
+    }
+
+    // Файл одного шарда ShardedHabitRepository. idBase - нижняя граница id новых привычек:
+    // у каждого шарда свой диапазон, поэтому id уникальны во всех файлах и курсор (минута, id)
+    // при обходе напоминаний однозначен. cacheMaxHabits - доля общего лимита кэша на этот файл
+    public DatabaseManager(String dbUrl, int idBase, int cacheMaxHabits) {
+        habitCache = new HabitListCache(cacheMaxHabits, BotConfig.habitCacheTtlSeconds());
         try {
             Class.forName("org.sqlite.JDBC");
-            connection = DriverManager.getConnection(DB_URL);
-            createTable();
+            writeConnection = CachedConnection.open(dbUrl, false);
+            SchemaMigrations.migrate(writeConnection.getConnection());
+            if (idBase > 0) {
+                reserveIdRange(writeConnection.getConnection(), idBase);
+            }
+            incrementalVacuum = pragma(writeConnection.getConnection(), "auto_vacuum") == AUTO_VACUUM_INCREMENTAL;
+            if (!incrementalVacuum) {
+                System.out.println("В базе " + dbUrl + " не включен auto_vacuum=INCREMENTAL: место после очистки " +
+                        "журнала останется в файле. Перевести базу: HabitTransferTool vacuum <файл базы>");
+            }
+            readPool = new ReadConnectionPool(dbUrl, BotConfig.dbReadPoolSize());
+            writer = new DatabaseWriter(writeConnection, BotConfig.dbWriteBatchSize(),
+                    BotConfig.dbWriteBatchDelayMillis(), BotConfig.dbWriteQueueCapacity());
             System.out.println("База данных подключена успешно");
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
-    // Метод для создания таблицы привычек
-    private void createTable() {
-        String sql = "CREATE TABLE IF NOT EXISTS habits (" +
-                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                "user_id INTEGER NOT NULL, " +
-                "name TEXT NOT NULL, " +
-                "description TEXT, " +
-                "created_date TEXT NOT NULL, " +
-                "completed_days INTEGER DEFAULT 0, " +
-                "total_days INTEGER DEFAULT 0)";
+    // Поднимает счетчик AUTOINCREMENT таблицы habits до idBase, если он еще ниже
+    private static void reserveIdRange(Connection connection, int idBase) throws SQLException {
+        try (PreparedStatement update = connection.prepareStatement(
+                     "UPDATE sqlite_sequence SET seq = ? WHERE name = 'habits' AND seq < ?");
+             PreparedStatement insert = connection.prepareStatement(
+                     "INSERT INTO sqlite_sequence (name, seq) SELECT 'habits', ? " +
+                             "WHERE NOT EXISTS (SELECT 1 FROM sqlite_sequence WHERE name = 'habits')")) {
+            update.setInt(1, idBase);
+            update.setInt(2, idBase);
+            update.executeUpdate();
+            insert.setInt(1, idBase);
+            insert.executeUpdate();
+        }
+    }
 
-        try (Statement stmt = connection.createStatement()) {
-            stmt.execute(sql);
+    private static long pragma(Connection connection, String name) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA " + name)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    // Выполняет изменение в потоке записи и ждет фиксации транзакции.
+    // op - имя операции для метрик habit_db_duration_seconds / habit_db_errors_total
+    private <T> T write(String op, DatabaseWriter.WriteTask<T> task, T fallback) {
+        long start = System.nanoTime();
+        try {
+            return writer.submit(task).join();
+        } catch (CompletionException e) {
+            Metrics.counter("habit_db_errors_total", opLabel(op)).increment();
+            e.getCause().printStackTrace();
+            return fallback;
+        } finally {
+            Metrics.timer("habit_db_duration_seconds", opLabel(op)).recordSince(start);
+        }
+    }
+
+    // Ставит изменение в очередь без ожидания; ошибки только логируются
+    private <T> void writeAsync(String op, DatabaseWriter.WriteTask<T> task) {
+        long start = System.nanoTime();
+        writer.submit(task).whenComplete((result, error) -> {
+            Metrics.timer("habit_db_duration_seconds", opLabel(op)).recordSince(start);
+            if (error != null) {
+                Metrics.counter("habit_db_errors_total", opLabel(op)).increment();
+                error.printStackTrace();
+            }
+        });
+    }
+
+    // Выполняет чтение на свободном соединении из пула
+    private <T> T read(String op, ReadConnectionPool.ReadTask<T> task, T fallback) {
+        long start = System.nanoTime();
+        try {
+            return readPool.withConnection(task);
         } catch (SQLException e) {
+            Metrics.counter("habit_db_errors_total", opLabel(op)).increment();
             e.printStackTrace();
+            return fallback;
+        } finally {
+            Metrics.timer("habit_db_duration_seconds", opLabel(op)).recordSince(start);
+        }
+    }
+
+    private static String opLabel(String op) {
+        return OP_LABELS.computeIfAbsent(op, key -> Metrics.label("op", key));
+    }
+
+    public void registerMetrics() {
+        registerMetrics("");
+    }
+
+    // shardLabel - дополнительная метка шарда (например shard="1") или пустая строка
+    void registerMetrics(String shardLabel) {
+        String suffix = shardLabel.isEmpty() ? "" : "," + shardLabel;
+        Metrics.gauge("habit_queue_depth", Metrics.label("queue", "db_writer") + suffix, writer::getQueueDepth);
+        Metrics.gauge("habit_db_read_pool_idle", shardLabel, readPool::getIdleCount);
+        Metrics.gauge("habit_cache_hits", shardLabel, habitCache::getHitCount);
+        Metrics.gauge("habit_cache_misses", shardLabel, habitCache::getMissCount);
+        Metrics.gauge("habit_cache_evictions", shardLabel, habitCache::getEvictionCount);
+        Metrics.gauge("habit_cache_habits", shardLabel, habitCache::getHabitCount);
+    }
+
+    public DatabaseWriter getWriter() {
+        return writer;
+    }
+
+    public ReadConnectionPool getReadPool() {
+        return readPool;
+    }
+
+    public HabitListCache getHabitCache() {
+        return habitCache;
+    }
+
+    // Выполняет изменение и сбрасывает закэшированный список привычек пользователя
+    private <T> T writeAndInvalidate(String op, long userId, DatabaseWriter.WriteTask<T> task, T fallback) {
+        try {
+            return write(op, task, fallback);
+        } finally {
+            habitCache.invalidate(userId);
         }
     }
 
     public boolean addHabit(long userId, String name, String description) {
-        String sql = "INSERT INTO habits (user_id, name, description, created_date) VALUES (?, ?, ?, datetime('now'))";
+        // День создания сразу входит в total_days, следующие дни добавляет DayRollover
+        String sql = "INSERT INTO habits (user_id, name, description, created_date, total_days) " +
+                "VALUES (?, ?, ?, datetime('now'), 1)";
 
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        long[] addedId = new long[1];
+        boolean added = writeAndInvalidate("addHabit", userId, conn -> {
+            PreparedStatement pstmt = conn.prepare(sql);
             pstmt.setLong(1, userId);
             pstmt.setString(2, name);
             pstmt.setString(3, description);
             pstmt.executeUpdate();
+            long habitId;
+            try (ResultSet rs = conn.prepare("SELECT last_insert_rowid()").executeQuery()) {
+                rs.next();
+                habitId = rs.getLong(1);
+            }
+            indexHabit(conn, habitId, userId, name, description);
+            adjustUserStats(conn, userId, 1, 0, 1);
+            addedId[0] = habitId;
             return true;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return false;
+        }, false);
+        if (added) {
+            changeListener.habitAdded((int) addedId[0], userId, 0);
+        }
+        return added;
+    }
+
+    // Отмечает день в битовой истории привычки (в транзакции отметки)
+    private void markHistory(CachedConnection conn, long habitId, long day) throws SQLException {
+        PreparedStatement select = conn.prepare("SELECT start_day, bits FROM habit_history WHERE habit_id = ?");
+        select.setLong(1, habitId);
+        HabitHistory history;
+        try (ResultSet rs = select.executeQuery()) {
+            history = rs.next() ? HabitHistory.fromBytes(rs.getLong(1), rs.getBytes(2)) : new HabitHistory(day);
+        }
+        if (history.set(day)) {
+            saveHistory(conn, habitId, history);
+        }
+    }
+
+    private void saveHistory(CachedConnection conn, long habitId, HabitHistory history) throws SQLException {
+        PreparedStatement upsert = conn.prepare("INSERT INTO habit_history (habit_id, start_day, bits) " +
+                "VALUES (?, ?, ?) ON CONFLICT(habit_id) DO UPDATE SET start_day = excluded.start_day, " +
+                "bits = excluded.bits");
+        upsert.setLong(1, habitId);
+        upsert.setLong(2, history.getStartDay());
+        upsert.setBytes(3, history.toBytes());
+        upsert.executeUpdate();
+    }
+
+    // История выполнений привычки пользователя; null, если привычка не найдена.
+    // Одна строка по первичному ключу, независимо от возраста привычки
+    public HabitHistory getHabitHistory(int habitId, long userId) {
+        String sql = "SELECT h.id, hh.start_day, hh.bits FROM habits h " +
+                "LEFT JOIN habit_history hh ON hh.habit_id = h.id WHERE h.id = ? AND h.user_id = ?";
+
+        return read("getHabitHistory", conn -> {
+            PreparedStatement pstmt = conn.prepare(sql);
+            pstmt.setInt(1, habitId);
+            pstmt.setLong(2, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                return HabitHistory.fromBytes(rs.getLong(2), rs.getBytes(3));
+            }
+        }, null);
+    }
+
+    // Поиск по названию и описанию привычек пользователя: каждое слово запроса ищется как префикс,
+    // результаты упорядочены по bm25. offset/limit - страница результатов, читается limit + 1 строка.
+    // Термы индекса имеют вид u<user_id>x<слово>, поэтому запрос затрагивает только слова этого
+    // пользователя и время не зависит от общего числа привычек в базе
+    public HabitPage searchHabits(long userId, String query, int offset, int limit) {
+        String sql = "SELECT h.* FROM habits_fts JOIN habits h ON h.id = habits_fts.rowid " +
+                "WHERE habits_fts MATCH ? AND h.user_id = ? ORDER BY habits_fts.rank LIMIT ? OFFSET ?";
+        List<String> terms = searchTerms(query);
+        if (terms.isEmpty()) {
+            return new HabitPage(new ArrayList<>(), false, false);
+        }
+
+        HabitPage page = read("searchHabits", conn -> {
+            List<Habit> habits = new ArrayList<>(limit + 1);
+            PreparedStatement pstmt = conn.prepare(sql);
+            pstmt.setString(1, matchExpression(userId, terms));
+            pstmt.setLong(2, userId);
+            pstmt.setInt(3, limit + 1);
+            pstmt.setInt(4, offset);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    habits.add(mapHabit(rs));
+                }
+            }
+            boolean more = habits.size() > limit;
+            if (more) {
+                habits.remove(habits.size() - 1);
+            }
+            return new HabitPage(habits, offset > 0, more);
+        }, null);
+
+        return page != null ? page : new HabitPage(new ArrayList<>(), false, false);
+    }
+
+    // Слова запроса: буквы и цифры, не больше MAX_SEARCH_TERMS. Все остальное (кавычки, *, операторы
+    // FTS5) отбрасывается, поэтому пользовательский ввод не может изменить синтаксис запроса
+    static List<String> searchTerms(String query) {
+        List<String> terms = new ArrayList<>();
+        if (query == null) {
+            return terms;
+        }
+        for (String term : query.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (!term.isEmpty() && terms.size() < MAX_SEARCH_TERMS) {
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+
+    // "u123xслово1"* AND "u123xслово2"* ...
+    private static String matchExpression(long userId, List<String> terms) {
+        String owner = ownerPrefix(userId);
+        StringBuilder match = new StringBuilder(terms.size() * (owner.length() + 16));
+        for (String term : terms) {
+            if (match.length() > 0) {
+                match.append(" AND ");
+            }
+            match.append('"').append(owner).append(term).append("\"*");
+        }
+        return match.toString();
+    }
+
+    // Буква x отделяет число от слова, поэтому u12x3бег и u123xбег - разные термы
+    private static String ownerPrefix(long userId) {
+        return userId < 0 ? "n" + -userId + "x" : "u" + userId + "x";
+    }
+
+    // Текст колонки индекса: слова с префиксом владельца через пробел
+    static String searchText(long userId, String text) {
+        if (text == null || text.isEmpty()) {
+            return "";
+        }
+        String owner = ownerPrefix(userId);
+        StringBuilder indexed = new StringBuilder(text.length() * 2);
+        for (String word : text.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                indexed.append(owner).append(word).append(' ');
+            }
         }
+        return indexed.toString();
+    }
+
+    private static void indexHabit(CachedConnection conn, long habitId, long userId, String name,
+                                   String description) throws SQLException {
+        PreparedStatement insert = conn.prepare("INSERT INTO habits_fts (rowid, name, description) VALUES (?, ?, ?)");
+        insert.setLong(1, habitId);
+        insert.setString(2, searchText(userId, name));
+        insert.setString(3, searchText(userId, description));
+        insert.executeUpdate();
+    }
+
+    // Индекс не хранит текст, поэтому для удаления передаются те же значения, что были проиндексированы
+    private static void unindexHabit(CachedConnection conn, long habitId, long userId, String name,
+                                     String description) throws SQLException {
+        PreparedStatement delete = conn.prepare("INSERT INTO habits_fts (habits_fts, rowid, name, description) " +
+                "VALUES ('delete', ?, ?, ?)");
+        delete.setLong(1, habitId);
+        delete.setString(2, searchText(userId, name));
+        delete.setString(3, searchText(userId, description));
+        delete.executeUpdate();
+    }
+
+    // Заполняет поисковый индекс заново по таблице habits (миграция и перестроение)
+    static void fillSearchIndex(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             PreparedStatement insert = connection.prepareStatement(
+                     "INSERT INTO habits_fts (rowid, name, description) VALUES (?, ?, ?)")) {
+            stmt.execute("INSERT INTO habits_fts (habits_fts) VALUES ('delete-all')");
+            int batched = 0;
+            try (ResultSet rs = stmt.executeQuery("SELECT id, user_id, name, description FROM habits")) {
+                while (rs.next()) {
+                    long userId = rs.getLong(2);
+                    insert.setLong(1, rs.getLong(1));
+                    insert.setString(2, searchText(userId, rs.getString(3)));
+                    insert.setString(3, searchText(userId, rs.getString(4)));
+                    insert.addBatch();
+                    if (++batched % 1000 == 0) {
+                        insert.executeBatch();
+                    }
+                }
+            }
+            insert.executeBatch();
+        }
+    }
+
+    // Полностью перестраивает поисковый индекс по таблице habits одной транзакцией
+    public boolean rebuildSearchIndex() {
+        return write("rebuildSearchIndex", conn -> {
+            fillSearchIndex(conn.getConnection());
+            return true;
+        }, false);
+    }
+
+    // Изменяет счетчики user_stats в той же транзакции, что и изменение привычки
+    private void adjustUserStats(CachedConnection conn, long userId, int habits, int completed, int days)
+            throws SQLException {
+        PreparedStatement pstmt = conn.prepare(ADJUST_USER_STATS_SQL);
+        pstmt.setLong(1, userId);
+        pstmt.setInt(2, habits);
+        pstmt.setInt(3, completed);
+        pstmt.setInt(4, days);
+        pstmt.executeUpdate();
     }
 
     public List<Habit> getUserHabits(long userId) {
-        List<Habit> habits = new ArrayList<>();
-        String sql = "SELECT * FROM habits WHERE user_id = ?";
+        return habitCache.get(userId, this::loadUserHabits);
+    }
+
+    // Страница привычек с id больше anchorId (forward) или меньше него (backward).
+    // Читается pageSize + 1 строка по индексу (user_id, id), поэтому стоимость не зависит
+    // от общего числа привычек пользователя
+    public HabitPage getHabitPage(long userId, int anchorId, boolean forward, int pageSize) {
+        String sql = forward
+                ? "SELECT * FROM habits WHERE user_id = ? AND id > ? ORDER BY id LIMIT ?"
+                : "SELECT * FROM habits WHERE user_id = ? AND id < ? ORDER BY id DESC LIMIT ?";
 
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        HabitPage page = read("getHabitPage", conn -> {
+            List<Habit> habits = new ArrayList<>(pageSize + 1);
+            PreparedStatement pstmt = conn.prepare(sql);
             pstmt.setLong(1, userId);
-            ResultSet rs = pstmt.executeQuery();
-
-            while (rs.next()) {
-                Habit habit = new Habit(
-                        rs.getInt("id"),
-                        rs.getLong("user_id"),
-                        rs.getString("name"),
-                        rs.getString("description"),
-                        rs.getString("created_date"),
-                        rs.getInt("completed_days"),
-                        rs.getInt("total_days")
-                );
-                habits.add(habit);
+            pstmt.setInt(2, anchorId);
+            pstmt.setInt(3, pageSize + 1);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    habits.add(mapHabit(rs));
+                }
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+            boolean more = habits.size() > pageSize;
+            if (more) {
+                habits.remove(habits.size() - 1);
+            }
+            if (forward) {
+                return new HabitPage(habits, anchorId > 0, more);
+            }
+            Collections.reverse(habits);
+            return new HabitPage(habits, more, true);
+        }, null);
+
+        if (page == null) {
+            return new HabitPage(new ArrayList<>(), false, false);
+        }
+        // Соседняя страница могла опустеть после удалений - тогда показываем первую
+        if (page.isEmpty() && anchorId > 0) {
+            return getHabitPage(userId, 0, true, pageSize);
         }
-        return habits;
+        return page;
+    }
+
+    private List<Habit> loadUserHabits(long userId) {
+        String sql = "SELECT * FROM habits WHERE user_id = ?";
+
+        return read("getUserHabits", conn -> {
+            List<Habit> habits = new ArrayList<>();
+            PreparedStatement pstmt = conn.prepare(sql);
+            pstmt.setLong(1, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    habits.add(mapHabit(rs));
+                }
+            }
+            return habits;
+        }, new ArrayList<>());
     }
 
-    public boolean completeHabit(int habitId, long userId) {
-        String sql = "UPDATE habits SET completed_days = completed_days + 1, total_days = total_days + 1 " +
+    // Отмечает выполнение за сегодня (total_days не меняется: день уже учтен при создании
+    // привычки или переводом дня). Повторная отметка в тот же день ничего не меняет,
+    // серии пересчитываются по последнему дню выполнения без просмотра истории
+    public CompletionResult completeHabit(int habitId, long userId) {
+        String selectSql = "SELECT current_streak, best_streak, last_completed_day FROM habits " +
                 "WHERE id = ? AND user_id = ?";
+        String insertSql = "INSERT OR IGNORE INTO habit_completions (habit_id, day) VALUES (?, ?)";
+        String updateSql = "UPDATE habits SET completed_days = completed_days + 1, " +
+                "current_streak = ?, best_streak = ?, last_completed_day = ? WHERE id = ?";
+        long today = Habit.currentDay();
+        int[] scores = new int[2];
 
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, habitId);
-            pstmt.setLong(2, userId);
-            int rowsUpdated = pstmt.executeUpdate();
-            return rowsUpdated > 0;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return false;
+        CompletionResult result = writeAndInvalidate("completeHabit", userId, conn -> {
+            int currentStreak;
+            int bestStreak;
+            long lastDay;
+            PreparedStatement select = conn.prepare(selectSql);
+            select.setInt(1, habitId);
+            select.setLong(2, userId);
+            try (ResultSet rs = select.executeQuery()) {
+                if (!rs.next()) {
+                    return CompletionResult.NOT_FOUND;
+                }
+                currentStreak = rs.getInt("current_streak");
+                bestStreak = rs.getInt("best_streak");
+                lastDay = rs.getLong("last_completed_day");
+            }
+
+            PreparedStatement insert = conn.prepare(insertSql);
+            insert.setInt(1, habitId);
+            insert.setLong(2, today);
+            if (insert.executeUpdate() == 0) {
+                return CompletionResult.ALREADY_COMPLETED;
+            }
+
+            int newStreak = lastDay == today - 1 ? currentStreak + 1 : 1;
+            PreparedStatement update = conn.prepare(updateSql);
+            update.setInt(1, newStreak);
+            update.setInt(2, Math.max(bestStreak, newStreak));
+            update.setLong(3, Math.max(lastDay, today));
+            update.setInt(4, habitId);
+            update.executeUpdate();
+            markHistory(conn, habitId, today);
+            adjustUserStats(conn, userId, 0, 1, 0);
+            scores[0] = Math.max(bestStreak, newStreak);
+            scores[1] = weekCompletions(conn, userId, today);
+            return CompletionResult.COMPLETED;
+        }, CompletionResult.ERROR);
+        if (result == CompletionResult.COMPLETED) {
+            changeListener.habitCompleted(habitId, userId, scores[0], scores[1], today);
+        }
+        return result;
+    }
+
+    private static int weekCompletions(CachedConnection conn, long userId, long today) throws SQLException {
+        PreparedStatement select = conn.prepare(WEEK_COMPLETIONS_SQL);
+        select.setLong(1, userId);
+        select.setLong(2, CommunityStats.weekStart(today));
+        try (ResultSet rs = select.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
         }
     }
 
     public boolean deleteHabit(int habitId, long userId) {
+        String selectSql = "SELECT name, description, completed_days, total_days FROM habits " +
+                "WHERE id = ? AND user_id = ?";
+        String completedTodaySql = "SELECT 1 FROM habit_completions WHERE habit_id = ? AND day = ?";
         String sql = "DELETE FROM habits WHERE id = ? AND user_id = ?";
+        String completionsSql = "DELETE FROM habit_completions WHERE habit_id = ?";
+        String historySql = "DELETE FROM habit_history WHERE habit_id = ?";
 
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        long today = Habit.currentDay();
+        int[] weekCompletions = new int[1];
+        boolean[] completedToday = new boolean[1];
+
+        boolean deleted = writeAndInvalidate("deleteHabit", userId, conn -> {
+            String name;
+            String description;
+            int completedDays;
+            int totalDays;
+            PreparedStatement select = conn.prepare(selectSql);
+            select.setInt(1, habitId);
+            select.setLong(2, userId);
+            try (ResultSet rs = select.executeQuery()) {
+                if (!rs.next()) {
+                    return false;
+                }
+                name = rs.getString("name");
+                description = rs.getString("description");
+                completedDays = rs.getInt("completed_days");
+                totalDays = rs.getInt("total_days");
+            }
+
+            PreparedStatement completed = conn.prepare(completedTodaySql);
+            completed.setInt(1, habitId);
+            completed.setLong(2, today);
+            try (ResultSet rs = completed.executeQuery()) {
+                completedToday[0] = rs.next();
+            }
+
+            PreparedStatement pstmt = conn.prepare(sql);
             pstmt.setInt(1, habitId);
             pstmt.setLong(2, userId);
-            int rowsDeleted = pstmt.executeUpdate();
-            return rowsDeleted > 0;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return false;
+            pstmt.executeUpdate();
+
+            PreparedStatement completions = conn.prepare(completionsSql);
+            completions.setInt(1, habitId);
+            completions.executeUpdate();
+
+            PreparedStatement history = conn.prepare(historySql);
+            history.setInt(1, habitId);
+            history.executeUpdate();
+
+            unindexHabit(conn, habitId, userId, name, description);
+
+            adjustUserStats(conn, userId, -1, -completedDays, -totalDays);
+            weekCompletions[0] = weekCompletions(conn, userId, today);
+            return true;
+        }, false);
+        if (deleted) {
+            changeListener.habitDeleted(habitId, userId, weekCompletions[0], completedToday[0]);
         }
+        return deleted;
     }
 
+    public long getRolledOverDay() {
+        return read("getRolledOverDay", conn -> {
+            try (ResultSet rs = conn.prepare("SELECT rolled_day FROM day_rollover WHERE id = 1").executeQuery()) {
+                return rs.next() ? rs.getLong(1) : Long.MIN_VALUE;
+            }
+        }, Long.MIN_VALUE);
+    }
+
+    // Курсор в day_rollover: total_days учтен по rolled_day у всех привычек; если target_day > rolled_day,
+    // идет проход до target_day и привычки с id <= last_id уже его получили.
+    // Привычка, созданная в день c, учитывает его с момента создания, поэтому ей добавляется
+    // target_day - max(rolled_day, c) дней. Пачка, поправка user_stats и курсор фиксируются одной
+    // транзакцией: после сбоя проход продолжается с курсора и ни одна привычка не получит день дважды
+    public int rollOverChunk(long toDay, int limit) {
+        String stateSql = "SELECT rolled_day, target_day, last_id FROM day_rollover WHERE id = 1";
+        String selectSql = "SELECT id, user_id, " +
+                "CAST(julianday(substr(created_date, 1, 10)) - 2440587.5 AS INTEGER) AS created_day " +
+                "FROM habits WHERE id > ? ORDER BY id LIMIT ?";
+        String updateSql = "UPDATE habits SET total_days = total_days + ? WHERE id = ?";
+        String cursorSql = "UPDATE day_rollover SET rolled_day = ?, target_day = ?, last_id = ? WHERE id = 1";
+        Set<Long> touchedUsers = new HashSet<>();
+
+        try {
+            return write("rollOverChunk", conn -> {
+                long rolledDay;
+                long targetDay;
+                int lastId;
+                try (ResultSet rs = conn.prepare(stateSql).executeQuery()) {
+                    if (!rs.next()) {
+                        throw new SQLException("Нет курсора перевода дня в day_rollover");
+                    }
+                    rolledDay = rs.getLong(1);
+                    targetDay = rs.getLong(2);
+                    lastId = rs.getInt(3);
+                }
+                if (targetDay <= rolledDay) {
+                    if (toDay <= rolledDay) {
+                        return 0;
+                    }
+                    targetDay = toDay;
+                    lastId = 0;
+                }
+
+                Map<Long, Integer> userDays = new HashMap<>();
+                PreparedStatement update = conn.prepare(updateSql);
+                update.clearBatch();
+                PreparedStatement select = conn.prepare(selectSql);
+                select.setInt(1, lastId);
+                select.setInt(2, limit);
+                int rows = 0;
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        rows++;
+                        lastId = rs.getInt(1);
+                        long createdDay = rs.getLong(3);
+                        if (rs.wasNull()) {
+                            createdDay = rolledDay;
+                        }
+                        long days = targetDay - Math.max(rolledDay, createdDay);
+                        if (days > 0) {
+                            update.setLong(1, days);
+                            update.setInt(2, lastId);
+                            update.addBatch();
+                            userDays.merge(rs.getLong(2), (int) days, Integer::sum);
+                        }
+                    }
+                }
+                if (!userDays.isEmpty()) {
+                    update.executeBatch();
+                }
+                for (Map.Entry<Long, Integer> entry : userDays.entrySet()) {
+                    adjustUserStats(conn, entry.getKey(), 0, 0, entry.getValue());
+                }
+                touchedUsers.addAll(userDays.keySet());
+
+                boolean finished = rows < limit;
+                PreparedStatement cursor = conn.prepare(cursorSql);
+                cursor.setLong(1, finished ? targetDay : rolledDay);
+                cursor.setLong(2, targetDay);
+                cursor.setInt(3, finished ? 0 : lastId);
+                cursor.executeUpdate();
+                return rows;
+            }, -1);
+        } finally {
+            for (long userId : touchedUsers) {
+                habitCache.invalidate(userId);
+            }
+        }
+    }
+
+    public long getRetainedFromDay() {
+        return read("getRetainedFromDay", conn -> {
+            try (ResultSet rs = conn.prepare("SELECT retained_from FROM history_retention WHERE id = 1")
+                    .executeQuery()) {
+                return rs.next() ? rs.getLong(1) : Long.MIN_VALUE;
+            }
+        }, Long.MIN_VALUE);
+    }
+
+    // Курсор в history_retention устроен как в day_rollover: журнал хранит дни с retained_from у всех
+    // привычек; если target_from > retained_from, идет проход и у привычек с id <= last_id отметки до
+    // target_from уже удалены. Пачка - диапазон id (last_id, id последней из limit привычек]: отметки
+    // диапазона до target_from удаляются из журнала в той же транзакции, что и сдвиг курсора.
+    // Последняя пачка захватывает и хвост журнала за последней привычкой (строки удаленных привычек).
+    // Битовая история и колонки habits не меняются: /history, серии, статистика и экспорт читают их,
+    // а не журнал, поэтому удаленные строки нигде больше не нужны
+    public int trimJournalChunk(long beforeDay, int limit) {
+        String stateSql = "SELECT retained_from, target_from, last_id FROM history_retention WHERE id = 1";
+        String rangeSql = "SELECT COUNT(*), MAX(id) FROM (SELECT id FROM habits WHERE id > ? ORDER BY id LIMIT ?)";
+        String deleteSql = "DELETE FROM habit_completions WHERE habit_id > ? AND habit_id <= ? AND day < ?";
+        String cursorSql = "UPDATE history_retention SET retained_from = ?, target_from = ?, last_id = ? WHERE id = 1";
+        int[] deletedRows = new int[1];
+
+        int rows = write("trimJournalChunk", conn -> {
+            long retainedFrom;
+            long targetFrom;
+            int lastId;
+            try (ResultSet rs = conn.prepare(stateSql).executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("Нет курсора хранения журнала в history_retention");
+                }
+                retainedFrom = rs.getLong(1);
+                targetFrom = rs.getLong(2);
+                lastId = rs.getInt(3);
+            }
+            if (targetFrom <= retainedFrom) {
+                if (beforeDay <= retainedFrom) {
+                    return 0;
+                }
+                targetFrom = beforeDay;
+                lastId = 0;
+            }
+
+            int habits;
+            int toId;
+            PreparedStatement range = conn.prepare(rangeSql);
+            range.setInt(1, lastId);
+            range.setInt(2, limit);
+            try (ResultSet rs = range.executeQuery()) {
+                rs.next();
+                habits = rs.getInt(1);
+                toId = habits > 0 ? rs.getInt(2) : lastId;
+            }
+            boolean finished = habits < limit;
+            if (finished) {
+                toId = Integer.MAX_VALUE;
+            }
+
+            PreparedStatement delete = conn.prepare(deleteSql);
+            delete.setInt(1, lastId);
+            delete.setInt(2, toId);
+            delete.setLong(3, targetFrom);
+            deletedRows[0] = delete.executeUpdate();
+
+            PreparedStatement cursor = conn.prepare(cursorSql);
+            cursor.setLong(1, finished ? targetFrom : retainedFrom);
+            cursor.setLong(2, targetFrom);
+            cursor.setInt(3, finished ? 0 : toId);
+            cursor.executeUpdate();
+            return habits;
+        }, -1);
+        if (rows >= 0) {
+            Metrics.counter("habit_retention_rows_total", "").add(deletedRows[0]);
+        }
+        return rows;
+    }
+
+    // Страницы, освобожденные удалением строк, SQLite оставляет в файле для повторного использования.
+    // PRAGMA incremental_vacuum переносит страницы из конца файла на свободные места и обрезает файл;
+    // шаг ограничен maxPages, чтобы не держать поток записи долго. Работает только в базе
+    // с auto_vacuum=INCREMENTAL (новые базы создаются так, см. CachedConnection.open)
+    public int compactStorage(int maxPages) {
+        if (!incrementalVacuum) {
+            return 0;
+        }
+        return write("compactStorage", conn -> {
+            Connection connection = conn.getConnection();
+            long before = pragma(connection, "freelist_count");
+            if (before == 0) {
+                return 0;
+            }
+            try (Statement stmt = connection.createStatement()) {
+                // executeUpdate выполняет PRAGMA до конца; execute освободил бы одну страницу
+                stmt.executeUpdate("PRAGMA incremental_vacuum(" + maxPages + ")");
+            }
+            return (int) (before - pragma(connection, "freelist_count"));
+        }, -1);
+    }
+
+    // Статистика читается одной строкой по первичному ключу, без агрегата по привычкам
     public String getUserStats(long userId) {
-        String sql = "SELECT COUNT(*) as total_habits, " +
-                "SUM(completed_days) as total_completed, " +
-                "SUM(total_days) as total_days " +
-                "FROM habits WHERE user_id = ?";
+        String sql = "SELECT total_habits, total_completed, total_days FROM user_stats WHERE user_id = ?";
 
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        String stats = read("getUserStats", conn -> {
+            int totalHabits = 0;
+            int totalCompleted = 0;
+            int totalDays = 0;
+            PreparedStatement pstmt = conn.prepare(sql);
             pstmt.setLong(1, userId);
-            ResultSet rs = pstmt.executeQuery();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    totalHabits = rs.getInt("total_habits");
+                    totalCompleted = rs.getInt("total_completed");
+                    totalDays = rs.getInt("total_days");
+                }
+            }
+            return formatUserStats(totalHabits, totalCompleted, totalDays);
+        }, null);
+
+        return stats != null ? stats : NO_STATS_TEXT;
+    }
+
+    static final String NO_STATS_TEXT = "📊 У вас пока нет привычек для статистики";
 
-            if (rs.next()) {
-                int totalHabits = rs.getInt("total_habits");
-                int totalCompleted = rs.getInt("total_completed");
-                int totalDays = rs.getInt("total_days");
-                double successRate = totalDays > 0 ? (double) totalCompleted / totalDays * 100 : 0;
+    static String formatUserStats(int totalHabits, int totalCompleted, int totalDays) {
+        double successRate = totalDays > 0 ? (double) totalCompleted / totalDays * 100 : 0;
+
+        return String.format("📊 Ваша статистика:\n\n" +
+                        "📝 Всего привычек: %d\n" +
+                        "✅ Выполнено дней: %d\n" +
+                        "📅 Всего дней: %d\n" +
+                        "🎯 Успешность: %.1f%%",
+                totalHabits, totalCompleted, totalDays, successRate);
+    }
 
-                return String.format("📊 Ваша статистика:\n\n" +
-                                "📝 Всего привычек: %d\n" +
-                                "✅ Выполнено дней: %d\n" +
-                                "📅 Всего дней: %d\n" +
-                                "🎯 Успешность: %.1f%%",
-                        totalHabits, totalCompleted, totalDays, successRate);
+    // Пересчитывает user_stats по таблице habits, например после сбоя или ручной правки базы
+    public boolean rebuildUserStats() {
+        return write("rebuildUserStats", conn -> {
+            try (Statement stmt = conn.getConnection().createStatement()) {
+                stmt.execute("UPDATE user_stats SET total_habits = 0, total_completed = 0, total_days = 0");
+                stmt.execute(REBUILD_USER_STATS_SQL);
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+            return true;
+        }, false);
+    }
+
+    // Возвращает число пользователей, у которых user_stats расходится с таблицей habits
+    public int verifyUserStats() {
+        String sql = "SELECT COUNT(*) FROM (" +
+                "SELECT user_id, COUNT(*) AS h, COALESCE(SUM(completed_days), 0) AS c, " +
+                "COALESCE(SUM(total_days), 0) AS d FROM habits GROUP BY user_id) agg " +
+                "LEFT JOIN user_stats s ON s.user_id = agg.user_id " +
+                "WHERE s.user_id IS NULL OR s.total_habits != agg.h " +
+                "OR s.total_completed != agg.c OR s.total_days != agg.d";
+        String orphanSql = "SELECT COUNT(*) FROM user_stats s WHERE s.total_habits != 0 " +
+                "AND NOT EXISTS (SELECT 1 FROM habits h WHERE h.user_id = s.user_id)";
 
-        return "📊 У вас пока нет привычек для статистики";
+        return read("verifyUserStats", conn -> {
+            int mismatched = 0;
+            try (Statement stmt = conn.getConnection().createStatement()) {
+                try (ResultSet rs = stmt.executeQuery(sql)) {
+                    mismatched += rs.next() ? rs.getInt(1) : 0;
+                }
+                try (ResultSet rs = stmt.executeQuery(orphanSql)) {
+                    mismatched += rs.next() ? rs.getInt(1) : 0;
+                }
+            }
+            return mismatched;
+        }, -1);
     }
 
     public Habit getHabitById(int habitId, long userId) {
+        // Обычно список пользователя уже в кэше после показа выбора привычки
+        List<Habit> cached = habitCache.getIfPresent(userId);
+        if (cached != null) {
+            for (Habit habit : cached) {
+                if (habit.getId() == habitId) {
+                    return habit;
+                }
+            }
+            return null;
+        }
+
         String sql = "SELECT * FROM habits WHERE id = ? AND user_id = ?";
 
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        return read("getHabitById", conn -> {
+            PreparedStatement pstmt = conn.prepare(sql);
             pstmt.setInt(1, habitId);
             pstmt.setLong(2, userId);
-            ResultSet rs = pstmt.executeQuery();
-
-            if (rs.next()) {
-                return new Habit(
-                        rs.getInt("id"),
-                        rs.getLong("user_id"),
-                        rs.getString("name"),
-                        rs.getString("description"),
-                        rs.getString("created_date"),
-                        rs.getInt("completed_days"),
-                        rs.getInt("total_days")
-                );
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return mapHabit(rs);
+                }
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-
-        return null;
+            return null;
+        }, null);
     }
 
     public boolean updateHabitDescription(int habitId, long userId, String description) {
+        String selectSql = "SELECT name, description FROM habits WHERE id = ? AND user_id = ?";
         String sql = "UPDATE habits SET description = ? WHERE id = ? AND user_id = ?";
 
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        return writeAndInvalidate("updateHabitDescription", userId, conn -> {
+            String name;
+            String oldDescription;
+            PreparedStatement select = conn.prepare(selectSql);
+            select.setInt(1, habitId);
+            select.setLong(2, userId);
+            try (ResultSet rs = select.executeQuery()) {
+                if (!rs.next()) {
+                    return false;
+                }
+                name = rs.getString(1);
+                oldDescription = rs.getString(2);
+            }
+
+            PreparedStatement pstmt = conn.prepare(sql);
             pstmt.setString(1, description);
             pstmt.setInt(2, habitId);
             pstmt.setLong(3, userId);
+            pstmt.executeUpdate();
 
-            int rowsUpdated = pstmt.executeUpdate();
-            return rowsUpdated > 0;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return false;
-        }
+            unindexHabit(conn, habitId, userId, name, oldDescription);
+            indexHabit(conn, habitId, userId, name, description);
+            return true;
+        }, false);
     }
 
-    public void close() {
+    // Состояния диалогов пишутся асинхронно: обработчик не ждет фиксации
+    public void saveConversationState(long userId, UserState state) {
+        String sql = "INSERT OR REPLACE INTO conversation_states " +
+                "(user_id, state, temp_data, temp_habit_id, updated_at) VALUES (?, ?, ?, ?, ?)";
+
+        writeAsync("saveConversationState", conn -> {
+            PreparedStatement pstmt = conn.prepare(sql);
+            pstmt.setLong(1, userId);
+            pstmt.setString(2, state.state.name());
+            pstmt.setString(3, state.tempData);
+            pstmt.setInt(4, state.tempHabitId);
+            pstmt.setLong(5, state.updatedAtMillis);
+            return pstmt.executeUpdate();
+        });
+    }
+
+    public void deleteConversationState(long userId) {
+        String sql = "DELETE FROM conversation_states WHERE user_id = ?";
+
+        writeAsync("deleteConversationState", conn -> {
+            PreparedStatement pstmt = conn.prepare(sql);
+            pstmt.setLong(1, userId);
+            return pstmt.executeUpdate();
+        });
+    }
+
+    public void deleteExpiredConversationStates(long updatedBeforeMillis) {
+        String sql = "DELETE FROM conversation_states WHERE updated_at < ?";
+
+        writeAsync("deleteExpiredConversationStates", conn -> {
+            PreparedStatement pstmt = conn.prepare(sql);
+            pstmt.setLong(1, updatedBeforeMillis);
+            return pstmt.executeUpdate();
+        });
+    }
+
+    public Map<Long, UserState> loadConversationStates(long updatedAfterMillis) {
+        String sql = "SELECT user_id, state, temp_data, temp_habit_id, updated_at " +
+                "FROM conversation_states WHERE updated_at >= ?";
+
+        return read("loadConversationStates", conn -> {
+            Map<Long, UserState> states = new HashMap<>();
+            PreparedStatement pstmt = conn.prepare(sql);
+            pstmt.setLong(1, updatedAfterMillis);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    try {
+                        ConversationState state = ConversationState.valueOf(rs.getString("state"));
+                        states.put(rs.getLong("user_id"), new UserState(state, rs.getString("temp_data"),
+                                rs.getInt("temp_habit_id"), rs.getLong("updated_at")));
+                    } catch (IllegalArgumentException e) {
+                        // Состояние из старой версии бота - просто пропускаем
+                    }
+                }
+            }
+            return states;
+        }, new HashMap<>());
+    }
+
+    // Включает напоминание на минуту суток minuteOfDay (UTC) или выключает его при minuteOfDay < 0.
+    // Сброс reminder_sent_day позволяет получить напоминание в новое время уже сегодня
+    public boolean setHabitReminder(int habitId, long userId, int minuteOfDay) {
+        String sql = "UPDATE habits SET reminder_minute = ?, reminder_sent_day = 0 WHERE id = ? AND user_id = ?";
+
+        return writeAndInvalidate("setHabitReminder", userId, conn -> {
+            PreparedStatement pstmt = conn.prepare(sql);
+            if (minuteOfDay >= 0) {
+                pstmt.setInt(1, minuteOfDay);
+            } else {
+                pstmt.setNull(1, Types.INTEGER);
+            }
+            pstmt.setInt(2, habitId);
+            pstmt.setLong(3, userId);
+            return pstmt.executeUpdate() > 0;
+        }, false);
+    }
+
+    // Страница напоминаний с минутами суток [после (afterMinute, afterId), toMinute), еще не отправленных в day.
+    // Строки передаются в sink без создания объектов; возвращает число прочитанных строк
+    public int loadReminders(int afterMinute, int afterId, int toMinute, long day, int limit, ReminderSink sink) {
+        String sql = "SELECT id, user_id, reminder_minute FROM habits " +
+                "WHERE (reminder_minute, id) > (?, ?) AND reminder_minute < ? AND reminder_sent_day < ? " +
+                "ORDER BY reminder_minute, id LIMIT ?";
+
+        return read("loadReminders", conn -> {
+            int count = 0;
+            PreparedStatement pstmt = conn.prepare(sql);
+            pstmt.setInt(1, afterMinute);
+            pstmt.setInt(2, afterId);
+            pstmt.setInt(3, toMinute);
+            pstmt.setLong(4, day);
+            pstmt.setInt(5, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    sink.accept(rs.getInt(1), rs.getLong(2), rs.getInt(3));
+                    count++;
+                }
+            }
+            return count;
+        }, 0);
+    }
+
+    // Помечает напоминание отправленным за день day и возвращает название привычки.
+    // null - напоминание уже отправлено, изменено или привычка удалена
+    public CompletableFuture<String> claimReminder(int habitId, long userId, int minuteOfDay, long day) {
+        String updateSql = "UPDATE habits SET reminder_sent_day = ? " +
+                "WHERE id = ? AND user_id = ? AND reminder_minute = ? AND reminder_sent_day < ?";
+        String selectSql = "SELECT name FROM habits WHERE id = ?";
+
+        long start = System.nanoTime();
+        CompletableFuture<String> claimed = writer.submit(conn -> {
+            PreparedStatement update = conn.prepare(updateSql);
+            update.setLong(1, day);
+            update.setInt(2, habitId);
+            update.setLong(3, userId);
+            update.setInt(4, minuteOfDay);
+            update.setLong(5, day);
+            if (update.executeUpdate() == 0) {
+                return null;
+            }
+            PreparedStatement select = conn.prepare(selectSql);
+            select.setInt(1, habitId);
+            try (ResultSet rs = select.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        });
+        claimed.whenComplete((name, error) ->
+                Metrics.timer("habit_db_duration_seconds", opLabel("claimReminder")).recordSince(start));
+        return claimed;
+    }
+
+    // Потоковая выгрузка привычек (всех или одного пользователя) вместе с историей выполнений.
+    // Два курсора, упорядоченных по id привычки, сливаются на лету, поэтому в памяти
+    // одновременно находится только одна привычка. Обе выборки идут в одной транзакции
+    // чтения и видят один и тот же снимок базы. Дни берутся из битовой истории: журнал хранит
+    // отметки только за последние HABIT_RETENTION_DAYS дней. Возвращает число выгруженных привычек
+    public long exportHabits(Long userId, HabitRecordSink sink) throws IOException {
+        String habitsSql = userId == null
+                ? "SELECT * FROM habits ORDER BY id"
+                : "SELECT * FROM habits WHERE user_id = ? ORDER BY id";
+        String historySql = userId == null
+                ? "SELECT habit_id, start_day, bits FROM habit_history ORDER BY habit_id"
+                : "SELECT habit_id, start_day, bits FROM habit_history " +
+                "WHERE habit_id IN (SELECT id FROM habits WHERE user_id = ?) ORDER BY habit_id";
+
         try {
-            if (connection != null) {
-                connection.close();
+            return read("exportHabits", conn -> {
+                Connection connection = conn.getConnection();
+                connection.setAutoCommit(false);
+                try (PreparedStatement habitsStmt = connection.prepareStatement(habitsSql);
+                     PreparedStatement historyStmt = connection.prepareStatement(historySql)) {
+                    if (userId != null) {
+                        habitsStmt.setLong(1, userId);
+                        historyStmt.setLong(1, userId);
+                    }
+                    long count = 0;
+                    try (ResultSet habits = habitsStmt.executeQuery();
+                         ResultSet history = historyStmt.executeQuery()) {
+                        boolean hasHistory = history.next();
+                        while (habits.next()) {
+                            Habit habit = mapHabit(habits);
+                            long[] days = NO_DAYS;
+                            // Пропускаем историю привычек, удаленных без ее очистки
+                            while (hasHistory && history.getInt(1) < habit.getId()) {
+                                hasHistory = history.next();
+                            }
+                            if (hasHistory && history.getInt(1) == habit.getId()) {
+                                days = HabitHistory.fromBytes(history.getLong(2), history.getBytes(3)).days();
+                                hasHistory = history.next();
+                            }
+                            sink.accept(new HabitRecord(habit, days));
+                            count++;
+                        }
+                    }
+                    return count;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+            }, -1L);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Вставляет пачку привычек с историей одной транзакцией в потоке записи.
+    // Привычки получают новые id; user_stats изменяется один раз на пользователя пачки.
+    // Возвращает число вставленных привычек или -1 при ошибке (пачка тогда не применяется целиком)
+    public int importHabits(List<HabitRecord> records) {
+        String insertHabitSql = "INSERT INTO habits (user_id, name, description, created_date, completed_days, " +
+                "total_days, current_streak, best_streak, last_completed_day, reminder_minute) " +
+                "VALUES (?, ?, ?, COALESCE(?, datetime('now')), ?, ?, ?, ?, ?, ?)";
+        String insertCompletionSql = "INSERT OR IGNORE INTO habit_completions (habit_id, day) VALUES (?, ?)";
+
+        long[] insertedIds = new long[records.size()];
+        int inserted = write("importHabits", conn -> {
+            // total_days считается от курсора перевода дня в той же транзакции: незавершенный проход
+            // добавит новым привычкам (их id больше last_id) ровно недостающие дни
+            long rolledDay;
+            try (ResultSet rs = conn.prepare("SELECT rolled_day FROM day_rollover WHERE id = 1").executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("Нет курсора перевода дня в day_rollover");
+                }
+                rolledDay = rs.getLong(1);
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+            Map<Long, int[]> statsDelta = new HashMap<>();
+            PreparedStatement insertHabit = conn.prepare(insertHabitSql);
+            PreparedStatement lastId = conn.prepare("SELECT last_insert_rowid()");
+            PreparedStatement insertCompletion = conn.prepare(insertCompletionSql);
+            for (int i = 0; i < records.size(); i++) {
+                HabitRecord record = records.get(i);
+                Habit habit = record.getHabit();
+                int totalDays = HabitRecord.totalDaysAt(habit, rolledDay);
+                insertHabit.setLong(1, habit.getUserId());
+                insertHabit.setString(2, habit.getName());
+                insertHabit.setString(3, habit.getDescription());
+                insertHabit.setString(4, habit.getCreatedDate());
+                insertHabit.setInt(5, habit.getCompletedDays());
+                insertHabit.setInt(6, totalDays);
+                insertHabit.setInt(7, habit.getStreakAtLastCompletion());
+                insertHabit.setInt(8, habit.getBestStreak());
+                insertHabit.setLong(9, habit.getLastCompletedDay());
+                if (habit.hasReminder()) {
+                    insertHabit.setInt(10, habit.getReminderMinute());
+                } else {
+                    insertHabit.setNull(10, Types.INTEGER);
+                }
+                insertHabit.executeUpdate();
+
+                long habitId;
+                try (ResultSet rs = lastId.executeQuery()) {
+                    rs.next();
+                    habitId = rs.getLong(1);
+                }
+                insertedIds[i] = habitId;
+                indexHabit(conn, habitId, habit.getUserId(), habit.getName(), habit.getDescription());
+                for (long day : record.getCompletionDays()) {
+                    insertCompletion.setLong(1, habitId);
+                    insertCompletion.setLong(2, day);
+                    insertCompletion.addBatch();
+                }
+                if (record.getCompletionDays().length > 0) {
+                    saveHistory(conn, habitId, HabitHistory.fromDays(record.getCompletionDays()));
+                }
+
+                int[] delta = statsDelta.computeIfAbsent(habit.getUserId(), key -> new int[3]);
+                delta[0]++;
+                delta[1] += habit.getCompletedDays();
+                delta[2] += totalDays;
+            }
+            insertCompletion.executeBatch();
+            for (Map.Entry<Long, int[]> entry : statsDelta.entrySet()) {
+                int[] delta = entry.getValue();
+                adjustUserStats(conn, entry.getKey(), delta[0], delta[1], delta[2]);
+            }
+            return records.size();
+        }, -1);
+
+        for (HabitRecord record : records) {
+            habitCache.invalidate(record.getHabit().getUserId());
+        }
+        // Отметки за неделю из импорта попадут в CommunityStats со следующей отметкой пользователя
+        if (inserted > 0) {
+            for (int i = 0; i < records.size(); i++) {
+                Habit habit = records.get(i).getHabit();
+                changeListener.habitAdded((int) insertedIds[i], habit.getUserId(), habit.getBestStreak());
+            }
+        }
+        return inserted;
+    }
+
+    public void setChangeListener(ChangeListener listener) {
+        changeListener = listener;
+    }
+
+    // Привычки по возрастанию user_id (индекс idx_habits_user_id) вместе с битовой историей.
+    // Один запрос читает один снимок базы и не мешает потоку записи (WAL)
+    public boolean scanHabitScores(HabitScoreSink sink) {
+        String sql = "SELECT h.id, h.user_id, h.best_streak, hh.start_day, hh.bits FROM habits h " +
+                "LEFT JOIN habit_history hh ON hh.habit_id = h.id ORDER BY h.user_id, h.id";
+
+        return read("scanHabitScores", conn -> {
+            try (Statement stmt = conn.getConnection().createStatement();
+                 ResultSet rs = stmt.executeQuery(sql)) {
+                while (rs.next()) {
+                    byte[] bits = rs.getBytes(5);
+                    HabitHistory history = bits != null ? HabitHistory.fromBytes(rs.getLong(4), bits) : null;
+                    if (!sink.accept(rs.getInt(1), rs.getLong(2), rs.getInt(3), history)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }, false);
+    }
+
+    public String loadSnapshot(String name) {
+        return read("loadSnapshot", conn -> {
+            PreparedStatement select = conn.prepare("SELECT value FROM snapshots WHERE name = ?");
+            select.setString(1, name);
+            try (ResultSet rs = select.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }, null);
+    }
+
+    public void saveSnapshot(String name, String value) {
+        write("saveSnapshot", conn -> {
+            PreparedStatement upsert = conn.prepare("INSERT INTO snapshots (name, value, updated_at) VALUES (?, ?, ?) " +
+                    "ON CONFLICT(name) DO UPDATE SET value = excluded.value, updated_at = excluded.updated_at");
+            upsert.setString(1, name);
+            upsert.setString(2, value);
+            upsert.setLong(3, System.currentTimeMillis());
+            upsert.executeUpdate();
+            return true;
+        }, false);
+    }
+
+    private static int reminderMinute(ResultSet rs) throws SQLException {
+        int minute = rs.getInt("reminder_minute");
+        return rs.wasNull() ? -1 : minute;
+    }
+
+    private Habit mapHabit(ResultSet rs) throws SQLException {
+        return new Habit(
+                rs.getInt("id"),
+                rs.getLong("user_id"),
+                rs.getString("name"),
+                rs.getString("description"),
+                rs.getString("created_date"),
+                rs.getInt("completed_days"),
+                rs.getInt("total_days"),
+                rs.getInt("current_streak"),
+                rs.getInt("best_streak"),
+                rs.getLong("last_completed_day"),
+                reminderMinute(rs)
+        );
+    }
+
+    public void close() {
+        if (writer != null) {
+            writer.close();
+        }
+        if (readPool != null) {
+            readPool.close();
+        }
+        if (writeConnection != null) {
+            writeConnection.close();
         }
     }
-}
\ No newline at end of file
+}
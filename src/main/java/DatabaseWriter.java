@@ -0,0 +1,179 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+// Единственный поток, который пишет в базу.
+// Изменения ставятся в очередь, поток забирает их пачками и фиксирует одной транзакцией
+// (group commit), поэтому fsync выполняется один раз на пачку, а не на каждый запрос.
+// Каждое изменение выполняется внутри SAVEPOINT: ошибка одного не откатывает остальные.
+public class DatabaseWriter {
+
+    public interface WriteTask<T> {
+        T apply(CachedConnection connection) throws SQLException;
+    }
+
+    private static final long OFFER_TIMEOUT_MILLIS = 1000;
+
+    private final CachedConnection connection;
+    private final int maxBatchSize;
+    private final long maxBatchDelayNanos;
+    private final BlockingQueue<PendingWrite<?>> queue;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public DatabaseWriter(CachedConnection connection, int maxBatchSize, long maxBatchDelayMillis, int queueCapacity) {
+        this.connection = connection;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxBatchDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxBatchDelayMillis);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.thread = new Thread(this::run, "db-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public <T> CompletableFuture<T> submit(WriteTask<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (!running) {
+            future.completeExceptionally(new RejectedExecutionException("Поток записи остановлен"));
+            return future;
+        }
+        try {
+            if (!queue.offer(new PendingWrite<>(task, future), OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                future.completeExceptionally(new RejectedExecutionException("Очередь записи в базу переполнена"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    // Дописывает оставшиеся изменения и останавливает поток
+    public void close() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<PendingWrite<?>> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite<?> first = running ? queue.take() : queue.poll();
+                if (first == null) {
+                    break;
+                }
+                batch.add(first);
+                collectBatch(batch);
+            } catch (InterruptedException e) {
+                // close() прерывает ожидание; оставшиеся записи доберем в следующей итерации
+                continue;
+            }
+            commitBatch(batch);
+            batch.clear();
+        }
+    }
+
+    // Добирает в пачку все, что уже есть в очереди, и ждет не дольше maxBatchDelay.
+    // Одиночную запись не задерживаем: ждать имеет смысл, только когда пишут несколько потоков
+    private void collectBatch(List<PendingWrite<?>> batch) throws InterruptedException {
+        queue.drainTo(batch, maxBatchSize - batch.size());
+        if (batch.size() == 1) {
+            return;
+        }
+        long deadline = System.nanoTime() + maxBatchDelayNanos;
+        while (running && batch.size() < maxBatchSize) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            PendingWrite<?> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+            queue.drainTo(batch, maxBatchSize - batch.size());
+        }
+    }
+
+    private void commitBatch(List<PendingWrite<?>> batch) {
+        Object[] results = new Object[batch.size()];
+        Exception[] errors = new Exception[batch.size()];
+
+        Connection conn = connection.getConnection();
+        try (Statement stmt = conn.createStatement()) {
+            conn.setAutoCommit(false);
+            for (int i = 0; i < batch.size(); i++) {
+                stmt.execute("SAVEPOINT write_task");
+                try {
+                    results[i] = batch.get(i).task.apply(connection);
+                    stmt.execute("RELEASE write_task");
+                } catch (Exception e) {
+                    errors[i] = e;
+                    stmt.execute("ROLLBACK TO write_task");
+                    stmt.execute("RELEASE write_task");
+                }
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            rollbackQuietly();
+            for (PendingWrite<?> write : batch) {
+                write.future.completeExceptionally(e);
+            }
+            return;
+        } finally {
+            try {
+                conn.setAutoCommit(true);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+
+        // Результаты отдаем только после успешного commit
+        for (int i = 0; i < batch.size(); i++) {
+            if (errors[i] != null) {
+                batch.get(i).future.completeExceptionally(errors[i]);
+            } else {
+                batch.get(i).complete(results[i]);
+            }
+        }
+    }
+
+    private void rollbackQuietly() {
+        try {
+            connection.getConnection().rollback();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static class PendingWrite<T> {
+        final WriteTask<T> task;
+        final CompletableFuture<T> future;
+
+        PendingWrite(WriteTask<T> task, CompletableFuture<T> future) {
+            this.task = task;
+            this.future = future;
+        }
+
+        @SuppressWarnings("unchecked")
+        void complete(Object result) {
+            future.complete((T) result);
+        }
+    }
+}
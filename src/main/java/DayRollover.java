@@ -0,0 +1,81 @@
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Перевод дня: после полуночи UTC добавляет прошедшие дни к total_days всех привычек,
+// чтобы пропуски учитывались в "Выполнено дней" и "Успешности".
+// Работает в своем потоке пачками по HABIT_ROLLOVER_CHUNK привычек в порядке id; каждая пачка -
+// отдельная короткая транзакция в общей очереди записи, и запросы пользователей встают между пачками.
+// После пачки поток ждет не меньше, чем она выполнялась, так что перевод дня занимает не больше
+// половины времени потока записи. Курсор хранится в базе: после перезапуска проход продолжается.
+public class DayRollover {
+
+    private static final long CHECK_INTERVAL_SECONDS = 60;
+
+    private final HabitRepository dbManager;
+    private final int chunkSize;
+    private final long pauseMillis;
+    private final ScheduledExecutorService executor;
+    private volatile long lagDays;
+
+    public DayRollover(HabitRepository dbManager, int chunkSize, long pauseMillis) {
+        this.dbManager = dbManager;
+        this.chunkSize = chunkSize;
+        this.pauseMillis = pauseMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "day-rollover");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        executor.scheduleWithFixedDelay(this::rollOver, 0, CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // На сколько дней total_days отстает от текущего дня по последней проверке
+    public long getLagDays() {
+        return lagDays;
+    }
+
+    public void shutdown() {
+        // Прерывает паузу между пачками; начатая транзакция доводится потоком записи
+        executor.shutdownNow();
+    }
+
+    private void rollOver() {
+        try {
+            long today = Habit.currentDay();
+            long rolledDay = dbManager.getRolledOverDay();
+            lagDays = Math.max(0, today - rolledDay);
+            if (rolledDay >= today) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            long processed = 0;
+            while (rolledDay < today && !executor.isShutdown()) {
+                long chunkStart = System.nanoTime();
+                int rows = dbManager.rollOverChunk(today, chunkSize);
+                Metrics.timer("habit_rollover_chunk_duration_seconds", "").recordSince(chunkStart);
+                if (rows < 0) {
+                    System.out.println("Перевод дня прерван ошибкой, повтор через " + CHECK_INTERVAL_SECONDS + " с");
+                    return;
+                }
+                processed += rows;
+                Metrics.counter("habit_rollover_habits_total", "").add(rows);
+                rolledDay = dbManager.getRolledOverDay();
+                if (rolledDay < today) {
+                    long chunkMillis = (System.nanoTime() - chunkStart) / 1_000_000;
+                    Thread.sleep(Math.max(pauseMillis, chunkMillis));
+                }
+            }
+            lagDays = Math.max(0, today - rolledDay);
+            System.out.println("Перевод дня на " + today + ": " + processed + " привычек за " +
+                    (System.currentTimeMillis() - start) + " мс");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -1,4 +1,8 @@
+import java.time.LocalDate;
+
 public class Habit {
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
     private int id;
     private long userId;
     private String name;
@@ -6,9 +10,28 @@ public class Habit {
     private String createdDate;
     private int completedDays;
     private int totalDays;
+    // Серии поддерживаются инкрементально при каждой отметке, дни - номер дня от 1970-01-01 (UTC)
+    private int currentStreak;
+    private int bestStreak;
+    private long lastCompletedDay;
+    // Минута суток (UTC) ежедневного напоминания, -1 - напоминание выключено
+    private int reminderMinute;
+
+    // Отрисованные фрагменты (см. HabitRenderer). Гонка при заполнении безвредна:
+    // потоки нарисуют одинаковый текст, а DayText и String безопасно публикуются через final-поля
+    HabitRenderer.DayText renderedCard;
+    String renderedLine;
+    String renderedDescriptionLine;
+    String renderedReminderLine;
 
     public Habit(int id, long userId, String name, String description,
                  String createdDate, int completedDays, int totalDays) {
+        this(id, userId, name, description, createdDate, completedDays, totalDays, 0, 0, 0, -1);
+    }
+
+    public Habit(int id, long userId, String name, String description,
+                 String createdDate, int completedDays, int totalDays,
+                 int currentStreak, int bestStreak, long lastCompletedDay, int reminderMinute) {
         this.id = id;
         this.userId = userId;
         this.name = name;
@@ -16,6 +39,16 @@ public class Habit {
         this.createdDate = createdDate;
         this.completedDays = completedDays;
         this.totalDays = totalDays;
+        this.currentStreak = currentStreak;
+        this.bestStreak = bestStreak;
+        this.lastCompletedDay = lastCompletedDay;
+        this.reminderMinute = reminderMinute;
+    }
+
+    // Номер текущего дня (UTC), по которому отмечается выполнение. Считается без LocalDate:
+    // вызывается на каждую отрисовку карточки
+    public static long currentDay() {
+        return Math.floorDiv(System.currentTimeMillis(), MILLIS_PER_DAY);
     }
 
     public int getId() { return id; }
@@ -25,14 +58,39 @@ public class Habit {
     public String getCreatedDate() { return createdDate; }
     public int getCompletedDays() { return completedDays; }
     public int getTotalDays() { return totalDays; }
+    public int getBestStreak() { return bestStreak; }
+    public long getLastCompletedDay() { return lastCompletedDay; }
+    public int getReminderMinute() { return reminderMinute; }
+    public boolean hasReminder() { return reminderMinute >= 0; }
+
+    // Серия прервана, если привычку не отмечали ни сегодня, ни вчера
+    public int getCurrentStreak(long today) {
+        return lastCompletedDay >= today - 1 ? currentStreak : 0;
+    }
+
+    public int getCurrentStreak() {
+        return getCurrentStreak(currentDay());
+    }
+
+    // День создания привычки (UTC, от начала эпохи); Long.MIN_VALUE, если дату не удалось разобрать
+    public long getCreatedDay() {
+        if (createdDate == null || createdDate.length() < 10) {
+            return Long.MIN_VALUE;
+        }
+        try {
+            return LocalDate.parse(createdDate.substring(0, 10)).toEpochDay();
+        } catch (java.time.format.DateTimeParseException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    // Серия на день последней отметки, без учета пропусков после нее (так она хранится в базе)
+    public int getStreakAtLastCompletion() {
+        return currentStreak;
+    }
 
     @Override
     public String toString() {
-        return String.format("📌 Привычка #%d\n" +
-                        "🎯 Название: %s\n" +
-                        "📝 Описание: %s\n" +
-                        "📅 Создана: %s\n" +
-                        "✅ Выполнено дней: %d/%d",
-                id, name, description, createdDate.substring(0, 10), completedDays, totalDays);
-    }
-}
\ No newline at end of file
+        return HabitRenderer.card(this, currentDay());
+    }
+}
@@ -0,0 +1,193 @@
+import java.util.Arrays;
+
+// История выполнений привычки в виде битового множества: бит i означает, что привычка
+// выполнена в день startDay + i (дни UTC от начала эпохи). Год истории занимает 46 байт,
+// а подсчет за диапазон сводится к Long.bitCount по 64 дня за раз.
+// Класс не потокобезопасен: экземпляр создается на время одного запроса или транзакции.
+public class HabitHistory {
+
+    private long startDay;
+    private long[] words;
+
+    public HabitHistory(long startDay) {
+        this.startDay = startDay;
+        this.words = new long[0];
+    }
+
+    private HabitHistory(long startDay, long[] words) {
+        this.startDay = startDay;
+        this.words = words;
+    }
+
+    // Восстанавливает историю из BLOB (слова little-endian, нулевые байты в конце отброшены)
+    public static HabitHistory fromBytes(long startDay, byte[] bytes) {
+        if (bytes == null) {
+            return new HabitHistory(startDay);
+        }
+        long[] words = new long[(bytes.length + 7) / 8];
+        for (int i = 0; i < bytes.length; i++) {
+            words[i >>> 3] |= (bytes[i] & 0xFFL) << ((i & 7) * 8);
+        }
+        return new HabitHistory(startDay, words);
+    }
+
+    // История по отсортированному списку дней
+    public static HabitHistory fromDays(long[] days) {
+        HabitHistory history = new HabitHistory(days.length > 0 ? days[0] : 0);
+        for (long day : days) {
+            history.set(day);
+        }
+        return history;
+    }
+
+    public byte[] toBytes() {
+        int length = words.length * 8;
+        while (length > 0 && byteAt(length - 1) == 0) {
+            length--;
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = byteAt(i);
+        }
+        return bytes;
+    }
+
+    private byte byteAt(int index) {
+        return (byte) (words[index >>> 3] >>> ((index & 7) * 8));
+    }
+
+    public long getStartDay() {
+        return startDay;
+    }
+
+    // Отмечает день; false, если он уже был отмечен
+    public boolean set(long day) {
+        if (day < startDay) {
+            rebase(day);
+        }
+        long offset = day - startDay;
+        int word = (int) (offset >>> 6);
+        if (word >= words.length) {
+            words = Arrays.copyOf(words, Math.max(word + 1, words.length + (words.length >> 1)));
+        }
+        long mask = 1L << offset;
+        if ((words[word] & mask) != 0) {
+            return false;
+        }
+        words[word] |= mask;
+        return true;
+    }
+
+    public boolean get(long day) {
+        long offset = day - startDay;
+        if (offset < 0) {
+            return false;
+        }
+        int word = (int) (offset >>> 6);
+        return word < words.length && (words[word] & (1L << offset)) != 0;
+    }
+
+    // Число отмеченных дней в диапазоне [fromDay, toDay]
+    public int count(long fromDay, long toDay) {
+        long from = Math.max(fromDay - startDay, 0);
+        long to = Math.min(toDay - startDay, (long) words.length * 64 - 1);
+        if (from > to) {
+            return 0;
+        }
+        int first = (int) (from >>> 6);
+        int last = (int) (to >>> 6);
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> (63 - (to & 63));
+        if (first == last) {
+            return Long.bitCount(words[first] & firstMask & lastMask);
+        }
+        int total = Long.bitCount(words[first] & firstMask);
+        for (int i = first + 1; i < last; i++) {
+            total += Long.bitCount(words[i]);
+        }
+        return total + Long.bitCount(words[last] & lastMask);
+    }
+
+    // Самая длинная серия подряд отмеченных дней в диапазоне [fromDay, toDay]
+    public int longestRun(long fromDay, long toDay) {
+        long from = Math.max(fromDay - startDay, 0);
+        long to = Math.min(toDay - startDay, (long) words.length * 64 - 1);
+        int best = 0;
+        int run = 0;
+        long offset = from;
+        while (offset <= to) {
+            int word = (int) (offset >>> 6);
+            int bit = (int) (offset & 63);
+            long value = words[word] >>> bit;
+            int available = (int) Math.min(64 - bit, to - offset + 1);
+            // Серия единиц или нулей, начиная с текущего бита, пропускается целиком
+            int ones = Math.min(Long.numberOfTrailingZeros(~value), available);
+            if (ones > 0) {
+                run += ones;
+                best = Math.max(best, run);
+                offset += ones;
+            } else {
+                run = 0;
+                int zeros = value == 0 ? available : Math.min(Long.numberOfTrailingZeros(value), available);
+                offset += zeros;
+            }
+        }
+        return best;
+    }
+
+    // Длина серии, которая заканчивается днем day (0, если day не отмечен)
+    public int runEndingAt(long day) {
+        int run = 0;
+        long current = day;
+        while (current >= startDay && get(current)) {
+            run++;
+            current--;
+        }
+        return run;
+    }
+
+    // Первый отмеченный день или -1, если история пуста
+    public long firstDay() {
+        for (int i = 0; i < words.length; i++) {
+            if (words[i] != 0) {
+                return startDay + i * 64L + Long.numberOfTrailingZeros(words[i]);
+            }
+        }
+        return -1;
+    }
+
+    // Последний отмеченный день или -1, если история пуста
+    public long lastDay() {
+        for (int i = words.length - 1; i >= 0; i--) {
+            if (words[i] != 0) {
+                return startDay + i * 64L + 63 - Long.numberOfLeadingZeros(words[i]);
+            }
+        }
+        return -1;
+    }
+
+    // Все отмеченные дни по возрастанию
+    public long[] days() {
+        int total = 0;
+        for (long word : words) {
+            total += Long.bitCount(word);
+        }
+        long[] days = new long[total];
+        int size = 0;
+        for (int i = 0; i < words.length; i++) {
+            for (long word = words[i]; word != 0; word &= word - 1) {
+                days[size++] = startDay + i * 64L + Long.numberOfTrailingZeros(word);
+            }
+        }
+        return days;
+    }
+
+    // Сдвигает начало истории на более ранний день, кратно 64 дням, чтобы сдвигать целыми словами
+    private void rebase(long newStart) {
+        int shiftWords = (int) ((startDay - newStart + 63) >>> 6);
+        long[] shifted = new long[words.length + shiftWords];
+        System.arraycopy(words, 0, shifted, shiftWords, words.length);
+        words = shifted;
+        startDay -= shiftWords * 64L;
+    }
+}
@@ -0,0 +1,139 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Кэш списков привычек пользователей (read-through перед DatabaseManager).
+// Вытеснение по LRU и по времени жизни, объем ограничен суммарным числом привычек в кэше.
+// Записи в базу сбрасывают список пользователя через invalidate().
+public class HabitListCache {
+
+    public interface Loader {
+        List<Habit> load(long userId);
+    }
+
+    // Версии по полосам userId: загрузка, начатая до invalidate, не попадет в кэш
+    private static final int STRIPES = 1024;
+
+    private final int maxHabits;
+    private final long ttlNanos;
+    private final Map<Long, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private long cachedHabits;
+
+    public HabitListCache(int maxHabits, long ttlSeconds) {
+        this.maxHabits = maxHabits;
+        this.ttlNanos = ttlSeconds * 1_000_000_000L;
+    }
+
+    public List<Habit> get(long userId, Loader loader) {
+        List<Habit> cached = getIfPresent(userId);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+
+        long version = versions.get(stripe(userId));
+        List<Habit> habits = List.copyOf(loader.load(userId));
+        put(userId, habits, version);
+        return habits;
+    }
+
+    // Возвращает список только если он уже в кэше и не устарел, без обращения к базе
+    public synchronized List<Habit> getIfPresent(long userId) {
+        Entry entry = entries.get(userId);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.loadedAtNanos > ttlNanos) {
+            remove(userId);
+            return null;
+        }
+        return entry.habits;
+    }
+
+    public void invalidate(long userId) {
+        versions.incrementAndGet(stripe(userId));
+        synchronized (this) {
+            remove(userId);
+        }
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < STRIPES; i++) {
+            versions.incrementAndGet(i);
+        }
+        entries.clear();
+        cachedHabits = 0;
+    }
+
+    private synchronized void put(long userId, List<Habit> habits, long version) {
+        int weight = weight(habits);
+        if (weight > maxHabits || versions.get(stripe(userId)) != version) {
+            return;
+        }
+        remove(userId);
+        entries.put(userId, new Entry(habits, System.nanoTime()));
+        cachedHabits += weight;
+
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (cachedHabits > maxHabits && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            cachedHabits -= weight(eldest.habits);
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+
+    private void remove(long userId) {
+        Entry removed = entries.remove(userId);
+        if (removed != null) {
+            cachedHabits -= weight(removed.habits);
+        }
+    }
+
+    private static int weight(List<Habit> habits) {
+        // Пустой список тоже занимает место в кэше
+        return Math.max(1, habits.size());
+    }
+
+    private static int stripe(long userId) {
+        return (int) ((userId ^ (userId >>> 32)) & (STRIPES - 1));
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public synchronized int getUserCount() {
+        return entries.size();
+    }
+
+    public synchronized long getHabitCount() {
+        return cachedHabits;
+    }
+
+    private static class Entry {
+        final List<Habit> habits;
+        final long loadedAtNanos;
+
+        Entry(List<Habit> habits, long loadedAtNanos) {
+            this.habits = habits;
+            this.loadedAtNanos = loadedAtNanos;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+import java.util.Collections;
+import java.util.List;
+
+// Одна страница списка привычек пользователя, выбранная по ключу id (keyset pagination).
+// Хранит только привычки страницы и признаки наличия соседних страниц.
+public class HabitPage {
+
+    private final List<Habit> habits;
+    private final boolean hasPrevious;
+    private final boolean hasNext;
+
+    public HabitPage(List<Habit> habits, boolean hasPrevious, boolean hasNext) {
+        this.habits = Collections.unmodifiableList(habits);
+        this.hasPrevious = hasPrevious;
+        this.hasNext = hasNext;
+    }
+
+    public List<Habit> getHabits() {
+        return habits;
+    }
+
+    public boolean isEmpty() {
+        return habits.isEmpty();
+    }
+
+    public boolean hasPrevious() {
+        return hasPrevious;
+    }
+
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    // id первой привычки на странице - ключ для перехода назад
+    public int getFirstId() {
+        return habits.isEmpty() ? 0 : habits.get(0).getId();
+    }
+
+    // id последней привычки на странице - ключ для перехода вперед
+    public int getLastId() {
+        return habits.isEmpty() ? 0 : habits.get(habits.size() - 1).getId();
+    }
+}
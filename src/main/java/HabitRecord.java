@@ -0,0 +1,51 @@
+// Привычка вместе с историей выполнений - единица импорта и экспорта.
+// completionDays - дни выполнения (UTC, дни от начала эпохи) по возрастанию.
+public class HabitRecord {
+
+    private final Habit habit;
+    private final long[] completionDays;
+
+    public HabitRecord(Habit habit, long[] completionDays) {
+        this.habit = habit;
+        this.completionDays = completionDays;
+    }
+
+    public Habit getHabit() {
+        return habit;
+    }
+
+    public long[] getCompletionDays() {
+        return completionDays;
+    }
+
+    // total_days импортированной привычки: дни с создания по rolledDay включительно. Дни после rolledDay
+    // добавит проход перевода дня (DayRollover), поэтому считать их от текущей даты нельзя - они учлись бы
+    // дважды. Привычка без разборчивой даты создания считается созданной в rolledDay, как при переводе дня
+    static int totalDaysAt(Habit habit, long rolledDay) {
+        long createdDay = habit.getCreatedDay();
+        if (createdDay == Long.MIN_VALUE) {
+            return 1;
+        }
+        return (int) Math.max(1, rolledDay - createdDay + 1);
+    }
+
+    // Самая длинная серия подряд идущих дней в отсортированной истории
+    static int longestRun(long[] days) {
+        int best = 0;
+        int run = 0;
+        for (int i = 0; i < days.length; i++) {
+            run = i > 0 && days[i] == days[i - 1] + 1 ? run + 1 : 1;
+            best = Math.max(best, run);
+        }
+        return best;
+    }
+
+    // Длина серии, которая заканчивается последним днем истории
+    static int trailingRun(long[] days) {
+        int run = days.length > 0 ? 1 : 0;
+        for (int i = days.length - 1; i > 0 && days[i] == days[i - 1] + 1; i--) {
+            run++;
+        }
+        return run;
+    }
+}
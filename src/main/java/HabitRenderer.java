@@ -0,0 +1,140 @@
+import java.util.List;
+import java.util.function.Function;
+
+// Фрагменты ответов по одной привычке: карточка (Habit.toString) и строки списков выбора.
+// Шаблоны разобраны заранее, фрагмент рисуется в переиспользуемый буфер потока и запоминается
+// в объекте Habit. Habit после создания не меняется, а любое изменение привычки приводит к
+// перечитыванию списка из базы (HabitListCache.invalidate), поэтому фрагмент верен, пока жив объект.
+// Карточка зависит еще и от текущего дня (серия обнуляется после пропуска) и хранится вместе с ним.
+final class HabitRenderer {
+
+    // Карточка с днем, для которого она нарисована
+    static final class DayText {
+        final long day;
+        final String text;
+
+        DayText(long day, String text) {
+            this.day = day;
+            this.text = text;
+        }
+    }
+
+    private static final TextTemplate CARD = TextTemplate.compile("📌 Привычка #{}\n" +
+            "🎯 Название: {}\n" +
+            "📝 Описание: {}\n" +
+            "📅 Создана: {}\n" +
+            "✅ Выполнено дней: {}/{}\n" +
+            "🔥 Серия: {} (лучшая: {})");
+    private static final TextTemplate CARD_REMINDER = TextTemplate.compile("\n⏰ Напоминание: {}:{} UTC");
+    private static final TextTemplate LINE = TextTemplate.compile("#{} - {}\n");
+    private static final TextTemplate LINE_NO_DESCRIPTION = TextTemplate.compile("#{} - {} (нет описания)\n");
+    private static final TextTemplate LINE_REMINDER = TextTemplate.compile("#{} - {} ({}:{} UTC)\n");
+
+    private static final String[] TWO_DIGITS = new String[60];
+
+    static {
+        for (int i = 0; i < TWO_DIGITS.length; i++) {
+            TWO_DIGITS[i] = (i < 10 ? "0" : "") + i;
+        }
+    }
+
+    // Буфер для отрисовки фрагментов; после toString() содержимое больше не нужно
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(512));
+
+    private HabitRenderer() {
+    }
+
+    static String card(Habit habit, long today) {
+        DayText cached = habit.renderedCard;
+        if (cached != null && cached.day == today) {
+            return cached.text;
+        }
+        StringBuilder out = buffer();
+        CARD.literal(out, 0).append(habit.getId());
+        CARD.literal(out, 1).append(habit.getName());
+        CARD.literal(out, 2).append(habit.getDescription());
+        CARD.literal(out, 3).append(habit.getCreatedDate(), 0, Math.min(10, habit.getCreatedDate().length()));
+        CARD.literal(out, 4).append(habit.getCompletedDays());
+        CARD.literal(out, 5).append(habit.getTotalDays());
+        CARD.literal(out, 6).append(habit.getCurrentStreak(today));
+        CARD.literal(out, 7).append(habit.getBestStreak());
+        CARD.literal(out, 8);
+        if (habit.hasReminder()) {
+            CARD_REMINDER.literal(out, 0).append(hours(habit));
+            CARD_REMINDER.literal(out, 1).append(minutes(habit));
+            CARD_REMINDER.literal(out, 2);
+        }
+        String text = out.toString();
+        habit.renderedCard = new DayText(today, text);
+        return text;
+    }
+
+    // "#id - название" для списков выбора /complete и /deletehabit
+    static String line(Habit habit) {
+        String cached = habit.renderedLine;
+        if (cached == null) {
+            cached = LINE.render(buffer(), habit.getId(), habit.getName()).toString();
+            habit.renderedLine = cached;
+        }
+        return cached;
+    }
+
+    // Строка списка /adddescription: отмечает привычки без описания
+    static String descriptionLine(Habit habit) {
+        String description = habit.getDescription();
+        if (description != null && !description.isEmpty()) {
+            return line(habit);
+        }
+        String cached = habit.renderedDescriptionLine;
+        if (cached == null) {
+            cached = LINE_NO_DESCRIPTION.render(buffer(), habit.getId(), habit.getName()).toString();
+            habit.renderedDescriptionLine = cached;
+        }
+        return cached;
+    }
+
+    // Строка списка /remind: время напоминания, если оно настроено
+    static String reminderLine(Habit habit) {
+        if (!habit.hasReminder()) {
+            return line(habit);
+        }
+        String cached = habit.renderedReminderLine;
+        if (cached == null) {
+            cached = LINE_REMINDER.render(buffer(), habit.getId(), habit.getName(), hours(habit), minutes(habit))
+                    .toString();
+            habit.renderedReminderLine = cached;
+        }
+        return cached;
+    }
+
+    // Заголовок, фрагменты привычек (каждый с suffix) и footer в буфере точного размера:
+    // длина известна до копирования, поэтому буфер не растет и не копируется повторно
+    static String list(String header, List<Habit> habits, Function<Habit, String> fragment, String suffix,
+                       String footer) {
+        String[] parts = new String[habits.size()];
+        int length = header.length() + footer.length() + suffix.length() * parts.length;
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = fragment.apply(habits.get(i));
+            length += parts[i].length();
+        }
+        StringBuilder out = new StringBuilder(length).append(header);
+        for (String part : parts) {
+            out.append(part).append(suffix);
+        }
+        return out.append(footer).toString();
+    }
+
+    private static StringBuilder buffer() {
+        StringBuilder out = BUFFER.get();
+        out.setLength(0);
+        return out;
+    }
+
+    private static String hours(Habit habit) {
+        return TWO_DIGITS[habit.getReminderMinute() / 60];
+    }
+
+    private static String minutes(Habit habit) {
+        return TWO_DIGITS[habit.getReminderMinute() % 60];
+    }
+}
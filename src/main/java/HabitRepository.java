@@ -0,0 +1,140 @@
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+// Хранилище привычек, статистики, диалогов и напоминаний.
+// Реализации: DatabaseManager (один файл SQLite), ShardedHabitRepository (несколько файлов,
+// пользователь закреплен за файлом по хэшу userId) и InMemoryHabitRepository (без базы, для
+// нагрузочных прогонов и проверок). Все операции с конкретной привычкой принимают userId,
+// поэтому шардированная реализация всегда знает, в какой файл идти.
+public interface HabitRepository {
+
+    interface ReminderSink {
+        void accept(int habitId, long userId, int minuteOfDay);
+    }
+
+    interface HabitRecordSink {
+        void accept(HabitRecord record) throws IOException;
+    }
+
+    // Изменения привычек для CommunityStats; вызываются после фиксации записи.
+    // weekCompletions - отметки пользователя за неделю (CommunityStats.weekStart) после изменения
+    interface ChangeListener {
+        default void habitAdded(int habitId, long userId, int bestStreak) {
+        }
+
+        default void habitCompleted(int habitId, long userId, int bestStreak, int weekCompletions, long day) {
+        }
+
+        default void habitDeleted(int habitId, long userId, int weekCompletions, boolean completedToday) {
+        }
+    }
+
+    // history - null, если привычку ни разу не отмечали; false останавливает обход
+    interface HabitScoreSink {
+        boolean accept(int habitId, long userId, int bestStreak, HabitHistory history);
+    }
+
+    // Хранилище по настройкам HABIT_DB_BACKEND / HABIT_DB_SHARDS.
+    // С HABIT_VERIFY_STATS_ON_START user_stats сверяется с habits и при расхождении пересчитывается
+    static HabitRepository fromConfig() {
+        HabitRepository repository;
+        if ("memory".equalsIgnoreCase(BotConfig.dbBackend())) {
+            repository = new InMemoryHabitRepository();
+        } else if (BotConfig.dbShards() > 1) {
+            repository = new ShardedHabitRepository(BotConfig.dbShardPathPrefix(), BotConfig.dbShards());
+        } else {
+            repository = new DatabaseManager();
+        }
+        if (BotConfig.verifyStatsOnStart()) {
+            int mismatched = repository.verifyUserStats();
+            if (mismatched != 0) {
+                System.out.println("Статистика расходится у " + mismatched + " пользователей, пересчитываем");
+                repository.rebuildUserStats();
+            }
+        }
+        return repository;
+    }
+
+    boolean addHabit(long userId, String name, String description);
+
+    List<Habit> getUserHabits(long userId);
+
+    HabitPage getHabitPage(long userId, int anchorId, boolean forward, int pageSize);
+
+    Habit getHabitById(int habitId, long userId);
+
+    CompletionResult completeHabit(int habitId, long userId);
+
+    boolean deleteHabit(int habitId, long userId);
+
+    boolean updateHabitDescription(int habitId, long userId, String description);
+
+    HabitHistory getHabitHistory(int habitId, long userId);
+
+    // Ранжированный поиск по названию и описанию; слова запроса ищутся как префиксы
+    HabitPage searchHabits(long userId, String query, int offset, int limit);
+
+    boolean rebuildSearchIndex();
+
+    String getUserStats(long userId);
+
+    boolean rebuildUserStats();
+
+    int verifyUserStats();
+
+    void saveConversationState(long userId, UserState state);
+
+    void deleteConversationState(long userId);
+
+    void deleteExpiredConversationStates(long updatedBeforeMillis);
+
+    Map<Long, UserState> loadConversationStates(long updatedAfterMillis);
+
+    boolean setHabitReminder(int habitId, long userId, int minuteOfDay);
+
+    int loadReminders(int afterMinute, int afterId, int toMinute, long day, int limit, ReminderSink sink);
+
+    CompletableFuture<String> claimReminder(int habitId, long userId, int minuteOfDay, long day);
+
+    long exportHabits(Long userId, HabitRecordSink sink) throws IOException;
+
+    int importHabits(List<HabitRecord> records);
+
+    // День (UTC), по который включительно total_days учтен у всех привычек
+    long getRolledOverDay();
+
+    // Шаг перевода дня (см. DayRollover): добавляет к total_days очередной пачки привычек
+    // (не больше limit) дни до toDay и сохраняет курсор. Возвращает число просмотренных привычек
+    // или -1 при ошибке; проход закончен, когда getRolledOverDay() >= toDay
+    int rollOverChunk(long toDay, int limit);
+
+    // День, с которого журнал выполнений хранит отметки по дням у всех привычек
+    long getRetainedFromDay();
+
+    // Шаг хранения журнала (см. HistoryRetention): удаляет из журнала отметки очередной пачки
+    // привычек (не больше limit) за дни до beforeDay. Возвращает число просмотренных привычек
+    // или -1 при ошибке; проход закончен, когда getRetainedFromDay() >= beforeDay
+    int trimJournalChunk(long beforeDay, int limit);
+
+    // Возвращает системе до maxPages свободных страниц файла базы.
+    // Возвращает число освобожденных страниц (0 - нечего освобождать) или -1 при ошибке
+    int compactStorage(int maxPages);
+
+    void setChangeListener(ChangeListener listener);
+
+    // Обход всех привычек для сборки CommunityStats: привычки одного пользователя идут подряд.
+    // false - ошибка или обход остановлен
+    boolean scanHabitScores(HabitScoreSink sink);
+
+    // Небольшие служебные снимки состояния (например, CommunityStats); null, если снимка нет
+    String loadSnapshot(String name);
+
+    void saveSnapshot(String name, String value);
+
+    // Датчики очередей и кэшей для /metrics
+    void registerMetrics();
+
+    void close();
+}
@@ -1,131 +1,588 @@
 import org.telegram.telegrambots.bots.TelegramLongPollingBot;
 import org.telegram.telegrambots.meta.TelegramBotsApi;
+import org.telegram.telegrambots.meta.api.methods.AnswerCallbackQuery;
+import org.telegram.telegrambots.meta.api.methods.GetFile;
+import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
+import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageText;
+import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
+import org.telegram.telegrambots.meta.api.objects.Document;
+import org.telegram.telegrambots.meta.api.objects.InputFile;
 import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.ReplyKeyboardMarkup;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.KeyboardButton;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.KeyboardRow;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 public class HabitTrackerBot extends TelegramLongPollingBot {
 
-    private DatabaseManager dbManager;
+    private static final String[] COMMANDS = {
+            "/start", "/help", "/newhabit", "/myhabits", "/complete",
+            "/deletehabit", "/stats", "/adddescription", "/remind", "/history", "/find", "/top", "/export", "/export json"
+    };
+    private static final Map<String, String> COMMAND_LABELS = new HashMap<>();
+
+    private static final String WELCOME_TEXT = "🎯 Добро пожаловать в трекер привычек!\n\n" +
+            "Я помогу вам формировать полезные привычки!\n" +
+            "Нажмите /help чтобы увидеть все команды\n\n"+
+            "Начните с создания своей первой привычки!";
+
+    private static final String HELP_TEXT = "🎯 Добро пожаловать в трекер привычек!\n\n" +
+            "С помощью этого бота вы можете:\n" +
+            "📝 Создавать привычки с описанием\n" +
+            "📋 Просматривать свои привычки\n" +
+            "✅ Отмечать выполнение привычек\n" +
+            "🗑️ Удалять привычки\n" +
+            "📊 Отслеживать прогресс\n" +
+            "✏️ Добавлять/изменять описания\n\n" +
+            "Доступные команды:\n" +
+            "/newhabit - Создать новую привычку\n" +
+            "/myhabits - Показать мои привычки\n" +
+            "/complete - Отметить выполнение привычки\n" +
+            "/deletehabit - Удалить привычку\n" +
+            "/adddescription - Добавить описание к привычке\n" +
+            "/remind - Настроить ежедневное напоминание\n" +
+            "/history - История и календарь выполнения\n" +
+            "/find текст - Поиск привычек по названию и описанию\n" +
+            "/export - Выгрузить привычки в CSV (/export json - в JSON)\n" +
+            "Чтобы загрузить привычки, отправьте файл .csv или .json\n" +
+            "/stats - Показать статистику\n" +
+            "/top - Лучшие серии и отметки за неделю у всех пользователей\n" +
+            "/help - Помощь";
+
+    // Клавиатура команд одна на все сообщения: собирается при загрузке класса и не меняется
+    private static final ReplyKeyboardMarkup MAIN_KEYBOARD = buildMainKeyboard();
+    private static final String INPUT_LABEL = Metrics.label("command", "input");
+    private static final String CALLBACK_LABEL = Metrics.label("command", "callback");
+    private static final String IMPORT_LABEL = Metrics.label("command", "import");
+    private static final String DUPLICATE_LABEL = Metrics.label("reason", "duplicate");
+    private static final String USER_BUSY_LABEL = Metrics.label("reason", "user_busy");
+    private static final String OVERLOADED_LABEL = Metrics.label("reason", "overloaded");
+
+    private static final String OVERLOADED_TEXT = "⏳ Сейчас слишком много запросов, попробуйте через минуту";
+    private static final String USER_BUSY_TEXT = "⏳ Подождите, обрабатываю предыдущие нажатия";
+
+    // Списки с inline-кнопками. callback_data имеет вид <список>:<действие>:<id>[:<страница>]:
+    // habits:next:<lastId>:<page>, complete:id:<habitId>, delete:yes:<habitId> и т.д.
+    private static final String VIEW_HABITS = "habits";
+    private static final String VIEW_COMPLETE = "complete";
+    private static final String VIEW_DELETE = "delete";
+    private static final String VIEW_DESCRIPTION = "desc";
+    private static final String VIEW_HISTORY = "history";
+    private static final String VIEW_REMIND = "remind";
+    // Результаты поиска: find:next:0:<страница>; сам запрос берется из заголовка сообщения
+    private static final String VIEW_FIND = "find";
+
+    private static final String COMPLETE_HEADER = "✅ Отметить выполнение привычки:";
+    private static final String DELETE_HEADER = "🗑️ Удалить привычку:";
+    private static final String DESCRIPTION_HEADER = "✏️ Добавить описание к привычке:";
+    private static final String HISTORY_HEADER = "📈 История выполнения привычки:";
+    private static final String REMIND_HEADER = "⏰ Напоминание о привычке:";
+    private static final String FIND_HEADER = "🔎 Результаты поиска";
+    private static final String FIND_PREFIX = "/find ";
+    private static final int MAX_QUERY_LENGTH = 100;
+
+    private static final int HEATMAP_WEEKS = 12;
+    private static final String[] WEEKDAYS = {"Пн", "Вт", "Ср", "Чт", "Пт", "Сб", "Вс"};
+    private static final String[] MONTHS = {"янв", "фев", "мар", "апр", "май", "июн",
+            "июл", "авг", "сен", "окт", "ноя", "дек"};
+    private static final int BUTTON_LABEL_LENGTH = 40;
+
+    static {
+        for (String command : COMMANDS) {
+            COMMAND_LABELS.put(command, Metrics.label("command", command));
+        }
+        Metrics.describe("habit_command_duration_seconds", "Время обработки команды");
+        Metrics.describe("habit_command_errors_total", "Необработанные ошибки при выполнении команды");
+        Metrics.describe("habit_db_duration_seconds", "Время операции с базой данных");
+        Metrics.describe("habit_db_errors_total", "Ошибки операций с базой данных");
+        Metrics.describe("habit_telegram_request_duration_seconds", "Время запроса к Telegram Bot API");
+        Metrics.describe("habit_telegram_errors_total", "Ошибки запросов к Telegram Bot API");
+        Metrics.describe("habit_queue_depth", "Текущая глубина очередей");
+        Metrics.describe("habit_updates_shed_total", "Отброшенные входящие обновления по причинам");
+        Metrics.describe("habit_updates_in_flight", "Входящие обновления, принятые и еще не обработанные");
+        Metrics.describe("habit_rollover_habits_total", "Привычки, обработанные переводом дня");
+        Metrics.describe("habit_rollover_chunk_duration_seconds", "Время одной пачки перевода дня");
+        Metrics.describe("habit_rollover_lag_days", "Отставание total_days от текущего дня");
+        Metrics.describe("habit_retention_rows_total", "Строки журнала выполнений, удаленные по сроку хранения");
+        Metrics.describe("habit_retention_chunk_duration_seconds", "Время одной пачки очистки журнала");
+        Metrics.describe("habit_vacuum_pages_total", "Страницы базы, возвращенные системе");
+        Metrics.describe("habit_community_rebuilds_total", "Пересборки статистики сообщества из таблицы habits");
+        Metrics.describe("habit_transfer_duration_seconds", "Время импорта или выгрузки привычек");
+        Metrics.describe("habit_transfer_errors_total", "Ошибки импорта и выгрузки привычек");
+    }
+
+    private HabitRepository dbManager;
+
+    private UpdateIngest ingest;
+
+    private UpdateDispatcher dispatcher;
+
+    private MessageSender sender;
+
+    private UserStateStore userStates;
+
+    private ReminderScheduler reminders;
+
+    private DayRollover rollover;
 
-    private java.util.Map<Long, UserState> userStates = new java.util.HashMap<>();
+    private HistoryRetention retention;
 
-    private class UserState {
-        String state;
-        String tempData;
-        Integer tempHabitId;
+    private CommunityStats community;
 
-        UserState(String state) {
-            this.state = state;
+    // Импорт и экспорт выполняются по одному в отдельном потоке, чтобы не занимать шарды обработки
+    private ExecutorService transfers;
+
+    public HabitTrackerBot() {
+        this(HabitRepository.fromConfig());
+    }
+
+    // Бот поверх заданного хранилища, например InMemoryHabitRepository для нагрузочных прогонов.
+    // MessageSender и ReminderScheduler только запоминают ссылку на бота: потоки, которые
+    // через нее отправляют сообщения, запускает start() после конструктора
+    @SuppressWarnings("this-escape")
+    public HabitTrackerBot(HabitRepository repository) {
+        dbManager = repository;
+        ingest = new UpdateIngest(BotConfig.dedupWindow(), BotConfig.maxInFlightPerUser(), BotConfig.maxInFlight());
+        dispatcher = new UpdateDispatcher(BotConfig.dispatcherShards(), BotConfig.dispatcherQueueCapacity());
+        sender = new MessageSender(this);
+        userStates = new UserStateStore(BotConfig.conversationTtlMillis(),
+                BotConfig.persistConversations() ? dbManager : null);
+        reminders = new ReminderScheduler(dbManager, this::sendReminder);
+        rollover = new DayRollover(dbManager, BotConfig.rolloverChunkSize(), BotConfig.rolloverPauseMillis());
+        retention = new HistoryRetention(dbManager, BotConfig.retentionDays(), BotConfig.retentionChunkSize(),
+                BotConfig.vacuumPagesPerStep(), BotConfig.maintenanceFromHour(), BotConfig.maintenanceToHour());
+        community = new CommunityStats(dbManager, BotConfig.communityCheckpointSeconds());
+        transfers = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "habit-transfer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        registerGauges();
+    }
+
+    // Фоновые задачи: напоминания, перевод дня, хранение журнала и статистика сообщества
+    public void start() {
+        reminders.start();
+        rollover.start();
+        retention.start();
+        dbManager.setChangeListener(community);
+        community.start();
+    }
+
+    private void registerGauges() {
+        Metrics.gauge("habit_queue_depth", Metrics.label("queue", "dispatcher"), dispatcher::getQueueDepth);
+        Metrics.gauge("habit_queue_depth", Metrics.label("queue", "dispatcher_max_shard"),
+                dispatcher::getMaxShardQueueDepth);
+        Metrics.gauge("habit_queue_depth", Metrics.label("queue", "sender"), sender::getQueueDepth);
+        Metrics.gauge("habit_updates_in_flight", "", ingest::getInFlight);
+        dbManager.registerMetrics();
+        Metrics.gauge("habit_conversations", "", userStates::size);
+        Metrics.gauge("habit_reminders_pending", "", reminders::getPendingCount);
+        Metrics.gauge("habit_rollover_lag_days", "", rollover::getLagDays);
+    }
+
+    @Override
+    public void onUpdateReceived(Update update) {
+        // Не обрабатываем обновление в потоке long polling, а передаем в шард пользователя.
+        // Повторные доставки отбрасываются молча, сверх лимитов - короткий отказ без постановки в очередь
+        long userId = extractUserId(update);
+        switch (ingest.admit(update.getUpdateId(), userId)) {
+            case DUPLICATE:
+                Metrics.counter("habit_updates_shed_total", DUPLICATE_LABEL).increment();
+                return;
+            case USER_BUSY:
+                Metrics.counter("habit_updates_shed_total", USER_BUSY_LABEL).increment();
+                shed(update, USER_BUSY_TEXT);
+                return;
+            case OVERLOADED:
+                Metrics.counter("habit_updates_shed_total", OVERLOADED_LABEL).increment();
+                shed(update, OVERLOADED_TEXT);
+                return;
+            default:
+                break;
+        }
+        boolean dispatched = dispatcher.dispatch(userId, () -> {
+            try {
+                handleUpdate(update);
+            } finally {
+                ingest.release(userId);
+            }
+        });
+        if (!dispatched) {
+            ingest.release(userId);
+            Metrics.counter("habit_updates_shed_total", OVERLOADED_LABEL).increment();
+            System.out.println("Очередь обработки переполнена (" + dispatcher.getQueueDepth() + "/" +
+                    dispatcher.getQueueCapacity() + "), обновление " + update.getUpdateId() + " пропущено");
+            shed(update, OVERLOADED_TEXT);
         }
+    }
 
-        UserState(String state, String tempData) {
-            this.state = state;
-            this.tempData = tempData;
+    // Ответ на отклоненное обновление без обращения к базе: всплывающее уведомление на кнопке
+    // или короткое сообщение при перегрузке. Лишние сообщения занятого пользователя просто отбрасываются
+    private void shed(Update update, String text) {
+        if (update.hasCallbackQuery()) {
+            answerCallback(update.getCallbackQuery(), text);
+        } else if (update.hasMessage() && OVERLOADED_TEXT.equals(text)) {
+            SendMessage message = new SendMessage();
+            message.setChatId(update.getMessage().getChatId());
+            message.setText(text);
+            sender.send(update.getMessage().getChatId(), message);
         }
+    }
 
-        UserState(String state, String tempData, Integer tempHabitId) {
-            this.state = state;
-            this.tempData = tempData;
-            this.tempHabitId = tempHabitId;
+    private long extractUserId(Update update) {
+        if (update.hasMessage() && update.getMessage().getFrom() != null) {
+            return update.getMessage().getFrom().getId();
         }
+        if (update.hasCallbackQuery()) {
+            return update.getCallbackQuery().getFrom().getId();
+        }
+        return 0L;
     }
 
-    public HabitTrackerBot() {
-        dbManager = new DatabaseManager();
+    public UpdateDispatcher getDispatcher() {
+        return dispatcher;
     }
 
-    @Override
-    public void onUpdateReceived(Update update) {
+    public MessageSender getSender() {
+        return sender;
+    }
+
+    private void handleUpdate(Update update) {
         // Проверяем, что получено текстовое сообщение
         if (update.hasMessage() && update.getMessage().hasText()) {
             String messageText = update.getMessage().getText();
             long chatId = update.getMessage().getChatId();
             long userId = update.getMessage().getFrom().getId();
 
-            switch (messageText) {
-                case "/start":
-                    sendWelcomeMessage(chatId);
-                    break;
-                case "/help":
-                    sendHelpMessage(chatId);
-                    break;
-                case "/newhabit":
-                    startCreatingHabit(chatId, userId);
-                    break;
-                case "/myhabits":
-                    showUserHabits(chatId, userId);
-                    break;
-                case "/complete":
-                    askForHabitToComplete(chatId, userId);
-                    break;
-                case "/deletehabit":
-                    askForHabitToDelete(chatId, userId);
-                    break;
-                case "/stats":
-                    showStats(chatId, userId);
-                    break;
-                case "/adddescription":
-                    askForHabitToAddDescription(chatId, userId);
-                    break;
-                default:
-                    handleUserInput(chatId, userId, messageText);
+            // Все, что не является командой, попадает под одну метку, чтобы текст пользователей не плодил серии
+            String command = messageText.startsWith(FIND_PREFIX) ? "/find" : messageText;
+            String commandLabel = COMMAND_LABELS.getOrDefault(command, INPUT_LABEL);
+            long start = System.nanoTime();
+            try {
+                handleCommand(chatId, userId, messageText);
+            } catch (RuntimeException e) {
+                Metrics.counter("habit_command_errors_total", commandLabel).increment();
+                throw e;
+            } finally {
+                Metrics.timer("habit_command_duration_seconds", commandLabel).recordSince(start);
+            }
+        } else if (update.hasMessage() && update.getMessage().hasDocument()) {
+            long start = System.nanoTime();
+            try {
+                importDocument(update.getMessage().getChatId(), update.getMessage().getFrom().getId(),
+                        update.getMessage().getDocument());
+            } finally {
+                Metrics.timer("habit_command_duration_seconds", IMPORT_LABEL).recordSince(start);
+            }
+        } else if (update.hasCallbackQuery()) {
+            long start = System.nanoTime();
+            try {
+                handleCallback(update.getCallbackQuery());
+            } catch (RuntimeException e) {
+                Metrics.counter("habit_command_errors_total", CALLBACK_LABEL).increment();
+                throw e;
+            } finally {
+                Metrics.timer("habit_command_duration_seconds", CALLBACK_LABEL).recordSince(start);
             }
         }
     }
 
-    private void sendWelcomeMessage(long chatId) {
-        String welcomeText = "🎯 Добро пожаловать в трекер привычек!\n\n" +
-                "Я помогу вам формировать полезные привычки!\n" +
-                "Нажмите /help чтобы увидеть все команды\n\n"+
-                "Начните с создания своей первой привычки!";
+    private void handleCallback(CallbackQuery query) {
+        String data = query.getData();
+        long userId = query.getFrom().getId();
 
-        SendMessage message = new SendMessage();
-        message.setChatId(chatId);
-        message.setText(welcomeText);
-        sendMessageWithKeyboard(message);
+        if (data == null || query.getMessage() == null) {
+            answerCallback(query, null);
+            return;
+        }
+        long chatId = query.getMessage().getChatId();
+        Integer messageId = query.getMessage().getMessageId();
 
+        String[] parts = data.split(":");
+        int id;
+        int pageNumber;
         try {
-            execute(message);
-        } catch (TelegramApiException e) {
-            e.printStackTrace();
+            id = parts.length >= 3 ? Integer.parseInt(parts[2]) : -1;
+            pageNumber = parts.length >= 4 ? Integer.parseInt(parts[3]) : 1;
+        } catch (NumberFormatException e) {
+            id = -1;
+            pageNumber = 1;
+        }
+        if (id < 0) {
+            System.out.println("Некорректные данные кнопки: " + data);
+            answerCallback(query, null);
+            return;
+        }
+
+        String view = parts[0];
+        String action = parts[1];
+        if ("next".equals(action) || "prev".equals(action)) {
+            answerCallback(query, null);
+            boolean forward = "next".equals(action);
+            if (VIEW_HABITS.equals(view)) {
+                showHabitsPage(chatId, userId, messageId, id, forward, pageNumber);
+            } else if (VIEW_FIND.equals(view)) {
+                showSearchResults(chatId, userId, messageId, searchQueryOf(query.getMessage().getText()), pageNumber);
+            } else {
+                showPicker(chatId, userId, messageId, view, id, forward, pageNumber);
+            }
+            return;
+        }
+
+        switch (view) {
+            case VIEW_COMPLETE:
+                completeFromButton(query, chatId, userId, id);
+                break;
+            case VIEW_DELETE:
+                deleteFromButton(query, chatId, userId, action, id);
+                break;
+            case VIEW_DESCRIPTION:
+                describeFromButton(query, chatId, userId, id);
+                break;
+            case VIEW_HISTORY:
+                showHistory(query, chatId, userId, id);
+                break;
+            case VIEW_REMIND:
+                remindFromButton(query, chatId, userId, id);
+                break;
+            default:
+                answerCallback(query, null);
         }
     }
 
-    private void sendHelpMessage(long chatId) {
-        String helpText = "🎯 Добро пожаловать в трекер привычек!\n\n" +
-                "С помощью этого бота вы можете:\n" +
-                "📝 Создавать привычки с описанием\n" +
-                "📋 Просматривать свои привычки\n" +
-                "✅ Отмечать выполнение привычек\n" +
-                "🗑️ Удалять привычки\n" +
-                "📊 Отслеживать прогресс\n" +
-                "✏️ Добавлять/изменять описания\n\n" +
-                "Доступные команды:\n" +
-                "/newhabit - Создать новую привычку\n" +
-                "/myhabits - Показать мои привычки\n" +
-                "/complete - Отметить выполнение привычки\n" +
-                "/deletehabit - Удалить привычку\n" +
-                "/adddescription - Добавить описание к привычке\n" +
-                "/stats - Показать статистику\n" +
-                "/help - Помощь";
+    // Отметка в одно нажатие: результат пишется над списком, кнопки остаются для следующих отметок.
+    // Разметка берется из самого сообщения, поэтому повторно список из базы не читается
+    private void completeFromButton(CallbackQuery query, long chatId, long userId, int habitId) {
+        clearState(userId, ConversationState.WAITING_FOR_COMPLETE_ID);
+        CompletionResult result = dbManager.completeHabit(habitId, userId);
+        String status = completionText(result);
+
+        InlineKeyboardMarkup markup = query.getMessage().getReplyMarkup();
+        if (result == CompletionResult.COMPLETED && markup != null) {
+            InlineKeyboardButton button = findButton(markup, VIEW_COMPLETE + ":id:" + habitId);
+            if (button != null && !button.getText().startsWith("✅")) {
+                button.setText("✅ " + button.getText());
+            }
+        }
+
+        String text = status + "\n\n" + withoutStatus(query.getMessage().getText(), COMPLETE_HEADER);
+        if (text.equals(query.getMessage().getText()) && result != CompletionResult.COMPLETED) {
+            // Текст не изменился бы, Telegram отклонил бы такое редактирование - показываем всплывающее уведомление
+            answerCallback(query, status);
+            return;
+        }
+        answerCallback(query, null);
+        editMessage(chatId, query.getMessage().getMessageId(), text, markup);
+    }
+
+    // Удаление необратимо, поэтому первое нажатие только спрашивает подтверждение
+    private void deleteFromButton(CallbackQuery query, long chatId, long userId, String action, int habitId) {
+        answerCallback(query, null);
+        Integer messageId = query.getMessage().getMessageId();
+
+        if ("id".equals(action)) {
+            InlineKeyboardMarkup markup = query.getMessage().getReplyMarkup();
+            InlineKeyboardButton button = markup != null ? findButton(markup, VIEW_DELETE + ":id:" + habitId) : null;
+            String name = button != null ? button.getText() : "#" + habitId;
+
+            List<InlineKeyboardButton> row = new ArrayList<>(2);
+            row.add(inlineButton("🗑️ Да, удалить", VIEW_DELETE + ":yes:" + habitId));
+            row.add(inlineButton("Отмена", VIEW_DELETE + ":no:" + habitId));
+            List<List<InlineKeyboardButton>> keyboard = new ArrayList<>(1);
+            keyboard.add(row);
+            editMessage(chatId, messageId, "🗑️ Удалить привычку \"" + name + "\"?", new InlineKeyboardMarkup(keyboard));
+            return;
+        }
+
+        clearState(userId, ConversationState.WAITING_FOR_DELETE_ID);
+        if ("yes".equals(action)) {
+            boolean deleted = dbManager.deleteHabit(habitId, userId);
+            editMessage(chatId, messageId,
+                    deleted ? "🗑️ Привычка успешно удалена!" : "❌ Не удалось найти привычку с таким ID", null);
+        } else {
+            editMessage(chatId, messageId, "↩️ Удаление отменено", null);
+        }
+    }
+
+    private void describeFromButton(CallbackQuery query, long chatId, long userId, int habitId) {
+        answerCallback(query, null);
+        Habit habit = dbManager.getHabitById(habitId, userId);
+        if (habit == null) {
+            clearState(userId, ConversationState.WAITING_FOR_DESCRIPTION_HABIT_ID);
+            editMessage(chatId, query.getMessage().getMessageId(), "❌ Не удалось найти привычку с таким ID", null);
+            return;
+        }
+        userStates.put(userId, new UserState(ConversationState.WAITING_FOR_DESCRIPTION_TEXT, null, habitId));
+        editMessage(chatId, query.getMessage().getMessageId(), descriptionPrompt(habit), null);
+    }
+
+    private void remindFromButton(CallbackQuery query, long chatId, long userId, int habitId) {
+        answerCallback(query, null);
+        Habit habit = dbManager.getHabitById(habitId, userId);
+        if (habit == null) {
+            clearState(userId, ConversationState.WAITING_FOR_REMINDER_HABIT_ID);
+            editMessage(chatId, query.getMessage().getMessageId(), "❌ Не удалось найти привычку с таким ID", null);
+            return;
+        }
+        userStates.put(userId, new UserState(ConversationState.WAITING_FOR_REMINDER_TIME, null, habitId));
+        editMessage(chatId, query.getMessage().getMessageId(), reminderPrompt(habit), null);
+    }
+
+    // История показывается вместо списка; кнопка "Назад" возвращает к первой странице списка
+    private void showHistory(CallbackQuery query, long chatId, long userId, int habitId) {
+        answerCallback(query, null);
+        Habit habit = dbManager.getHabitById(habitId, userId);
+        HabitHistory history = habit != null ? dbManager.getHabitHistory(habitId, userId) : null;
+        if (habit == null || history == null) {
+            editMessage(chatId, query.getMessage().getMessageId(), "❌ Не удалось найти привычку с таким ID", null);
+            return;
+        }
+
+        List<List<InlineKeyboardButton>> keyboard = new ArrayList<>(1);
+        List<InlineKeyboardButton> row = new ArrayList<>(1);
+        row.add(inlineButton("◀️ К списку", VIEW_HISTORY + ":next:0:1"));
+        keyboard.add(row);
+        sendOrEdit(chatId, query.getMessage().getMessageId(), buildHistoryText(habit, history, Habit.currentDay()),
+                new InlineKeyboardMarkup(keyboard));
+    }
+
+    // Сбрасывает ожидание ввода ID, если пользователь выбрал привычку кнопкой
+    private void clearState(long userId, ConversationState expected) {
+        UserState state = userStates.get(userId);
+        if (state != null && state.state == expected) {
+            userStates.remove(userId);
+        }
+    }
+
+    private void answerCallback(CallbackQuery query, String text) {
+        // Убирает "часики" на кнопке; текст показывается всплывающим уведомлением
+        AnswerCallbackQuery answer = new AnswerCallbackQuery();
+        answer.setCallbackQueryId(query.getId());
+        answer.setText(text);
+        sender.send(query.getFrom().getId(), answer);
+    }
+
+    private void editMessage(long chatId, Integer messageId, String text, InlineKeyboardMarkup markup) {
+        EditMessageText edit = new EditMessageText();
+        edit.setChatId(chatId);
+        edit.setMessageId(messageId);
+        edit.setText(text);
+        edit.setReplyMarkup(markup);
+        sender.send(chatId, edit);
+    }
+
+    private static InlineKeyboardButton findButton(InlineKeyboardMarkup markup, String callbackData) {
+        for (List<InlineKeyboardButton> row : markup.getKeyboard()) {
+            for (InlineKeyboardButton button : row) {
+                if (callbackData.equals(button.getCallbackData())) {
+                    return button;
+                }
+            }
+        }
+        return null;
+    }
 
+    // Отрезает строку статуса, добавленную прошлым нажатием, оставляя список начиная с заголовка
+    private static String withoutStatus(String text, String header) {
+        if (text == null) {
+            return header;
+        }
+        int index = text.indexOf(header);
+        return index >= 0 ? text.substring(index) : text;
+    }
+
+    private void handleCommand(long chatId, long userId, String messageText) {
+        switch (messageText) {
+            case "/start":
+                sendWelcomeMessage(chatId);
+                break;
+            case "/help":
+                sendHelpMessage(chatId);
+                break;
+            case "/newhabit":
+                startCreatingHabit(chatId, userId);
+                break;
+            case "/myhabits":
+                showUserHabits(chatId, userId);
+                break;
+            case "/complete":
+                askForHabitToComplete(chatId, userId);
+                break;
+            case "/deletehabit":
+                askForHabitToDelete(chatId, userId);
+                break;
+            case "/stats":
+                showStats(chatId, userId);
+                break;
+            case "/adddescription":
+                askForHabitToAddDescription(chatId, userId);
+                break;
+            case "/remind":
+                askForHabitToRemind(chatId, userId);
+                break;
+            case "/history":
+                showPicker(chatId, userId, null, VIEW_HISTORY, 0, true, 1);
+                break;
+            case "/find":
+                startSearch(chatId, userId);
+                break;
+            case "/top":
+                showTop(chatId, userId);
+                break;
+            case "/export":
+                exportHabits(chatId, userId, HabitTransfer.Format.CSV);
+                break;
+            case "/export json":
+                exportHabits(chatId, userId, HabitTransfer.Format.JSON);
+                break;
+            default:
+                if (messageText.startsWith(FIND_PREFIX)) {
+                    showSearchResults(chatId, userId, null, messageText.substring(FIND_PREFIX.length()), 1);
+                } else {
+                    handleUserInput(chatId, userId, messageText);
+                }
+        }
+    }
+
+    private void sendWelcomeMessage(long chatId) {
         SendMessage message = new SendMessage();
         message.setChatId(chatId);
-        message.setText(helpText);
-        sendMessageWithKeyboard(message);
+        message.setText(WELCOME_TEXT);
+        message.setReplyMarkup(MAIN_KEYBOARD);
 
-        try {
-            execute(message);
-        } catch (TelegramApiException e) {
-            e.printStackTrace();
-        }
+        sender.send(chatId, message);
+    }
+
+    private void sendHelpMessage(long chatId) {
+        SendMessage message = new SendMessage();
+        message.setChatId(chatId);
+        message.setText(HELP_TEXT);
+        message.setReplyMarkup(MAIN_KEYBOARD);
+
+        sender.send(chatId, message);
     }
 
     private void startCreatingHabit(long chatId, long userId) {
@@ -133,118 +590,421 @@ public class HabitTrackerBot extends TelegramLongPollingBot {
         message.setChatId(chatId);
         message.setText("📝 Введите название новой привычки:");
 
-        userStates.put(userId, new UserState("waiting_for_habit_name"));
+        userStates.put(userId, new UserState(ConversationState.WAITING_FOR_HABIT_NAME));
 
-        try {
-            execute(message);
-        } catch (TelegramApiException e) {
-            e.printStackTrace();
-        }
+        sender.send(chatId, message);
     }
 
     private void showUserHabits(long chatId, long userId) {
-        List<Habit> habits = dbManager.getUserHabits(userId);
+        showHabitsPage(chatId, userId, null, 0, true, 1);
+    }
+
+    // Показывает страницу привычек. messageId != null - листание: сообщение со списком редактируется на месте
+    private void showHabitsPage(long chatId, long userId, Integer messageId, int anchorId, boolean forward,
+                                int pageNumber) {
+        HabitPage page = dbManager.getHabitPage(userId, anchorId, forward, BotConfig.habitsPageSize());
+
+        if (page.isEmpty()) {
+            sendOrEdit(chatId, messageId, "📭 У вас пока нет привычек. Создайте первую с помощью /newhabit", null);
+            return;
+        }
+        if (!page.hasPrevious()) {
+            pageNumber = 1;
+        }
+
+        String text = withPageNumber(buildHabitsText(page.getHabits()), page, pageNumber);
+        List<List<InlineKeyboardButton>> keyboard = new ArrayList<>(1);
+        addNavigationRow(keyboard, VIEW_HABITS, page, pageNumber);
+        sendOrEdit(chatId, messageId, text, keyboard.isEmpty() ? null : new InlineKeyboardMarkup(keyboard));
+    }
 
+    private void startSearch(long chatId, long userId) {
         SendMessage message = new SendMessage();
         message.setChatId(chatId);
+        message.setText("🔎 Введите слова для поиска по названиям и описаниям привычек:");
 
-        if (habits.isEmpty()) {
-            message.setText("📭 У вас пока нет привычек. Создайте первую с помощью /newhabit");
-        } else {
-            StringBuilder habitsText = new StringBuilder("📋 Ваши привычки:\n\n");
-            for (Habit habit : habits) {
-                habitsText.append(habit.toString()).append("\n\n");
-            }
-            message.setText(habitsText.toString());
+        userStates.put(userId, new UserState(ConversationState.WAITING_FOR_SEARCH_QUERY));
+
+        sender.send(chatId, message);
+    }
+
+    // Страница результатов поиска. Запрос повторяется в заголовке, откуда его берут кнопки листания
+    private void showSearchResults(long chatId, long userId, Integer messageId, String query, int pageNumber) {
+        String normalized = query == null ? "" : query.replaceAll("\\s+", " ").trim();
+        if (normalized.length() > MAX_QUERY_LENGTH) {
+            normalized = normalized.substring(0, MAX_QUERY_LENGTH);
+        }
+        if (DatabaseManager.searchTerms(normalized).isEmpty()) {
+            sendOrEdit(chatId, messageId, "🔎 Укажите слова для поиска, например: /find бег", null);
+            return;
         }
 
-        try {
-            execute(message);
-        } catch (TelegramApiException e) {
-            e.printStackTrace();
+        int pageSize = BotConfig.habitsPageSize();
+        int page = Math.max(1, pageNumber);
+        HabitPage results = dbManager.searchHabits(userId, normalized, (page - 1) * pageSize, pageSize);
+        if (results.isEmpty()) {
+            sendOrEdit(chatId, messageId, "🔎 По запросу «" + normalized + "» ничего не найдено", null);
+            return;
+        }
+
+        List<InlineKeyboardButton> row = new ArrayList<>(2);
+        if (results.hasPrevious()) {
+            row.add(inlineButton("◀️ Назад", VIEW_FIND + ":prev:0:" + (page - 1)));
+        }
+        if (results.hasNext()) {
+            row.add(inlineButton("Вперед ▶️", VIEW_FIND + ":next:0:" + (page + 1)));
         }
+        List<List<InlineKeyboardButton>> keyboard = new ArrayList<>(1);
+        if (!row.isEmpty()) {
+            keyboard.add(row);
+        }
+        String text = withPageNumber(buildSearchText(normalized, results.getHabits()), results, page);
+        sendOrEdit(chatId, messageId, text, keyboard.isEmpty() ? null : new InlineKeyboardMarkup(keyboard));
+    }
+
+    static String buildSearchText(String query, List<Habit> habits) {
+        return HabitRenderer.list(FIND_HEADER + " «" + query + "»:\n\n", habits, Habit::toString, "\n\n", "");
+    }
+
+    // Запрос из первой строки сообщения с результатами: "🔎 Результаты поиска «запрос»:"
+    private static String searchQueryOf(String text) {
+        if (text == null || !text.startsWith(FIND_HEADER + " «")) {
+            return "";
+        }
+        int end = text.indexOf("»:\n");
+        return end < 0 ? "" : text.substring(FIND_HEADER.length() + 2, end);
     }
 
     private void askForHabitToComplete(long chatId, long userId) {
-        List<Habit> habits = dbManager.getUserHabits(userId);
+        showPicker(chatId, userId, null, VIEW_COMPLETE, 0, true, 1);
+    }
 
-        SendMessage message = new SendMessage();
-        message.setChatId(chatId);
+    private void askForHabitToDelete(long chatId, long userId) {
+        showPicker(chatId, userId, null, VIEW_DELETE, 0, true, 1);
+    }
 
-        if (habits.isEmpty()) {
-            message.setText("📭 У вас нет привычек для отметки");
-        } else {
-            StringBuilder habitsList = new StringBuilder("✅ Отметить выполнение привычки:\n\n");
-            for (Habit habit : habits) {
-                habitsList.append(String.format("#%d - %s\n", habit.getId(), habit.getName()));
+    private void askForHabitToAddDescription(long chatId, long userId) {
+        showPicker(chatId, userId, null, VIEW_DESCRIPTION, 0, true, 1);
+    }
+
+    // Список выбора привычки: по кнопке на привычку страницы плюс листание.
+    // Ввод ID текстом по-прежнему работает, поэтому состояние ожидания ID тоже выставляется
+    private void showPicker(long chatId, long userId, Integer messageId, String view, int anchorId, boolean forward,
+                            int pageNumber) {
+        HabitPage page = dbManager.getHabitPage(userId, anchorId, forward, BotConfig.habitsPageSize());
+
+        if (page.isEmpty()) {
+            String emptyText;
+            switch (view) {
+                case VIEW_COMPLETE:
+                    emptyText = "📭 У вас нет привычек для отметки";
+                    break;
+                case VIEW_DELETE:
+                    emptyText = "📭 У вас нет привычек для удаления";
+                    break;
+                case VIEW_HISTORY:
+                    emptyText = "📭 У вас пока нет привычек. Создайте первую с помощью /newhabit";
+                    break;
+                case VIEW_REMIND:
+                    emptyText = "📭 У вас нет привычек для напоминаний";
+                    break;
+                default:
+                    emptyText = "📭 У вас нет привычек для добавления описания";
             }
-            habitsList.append("\nВведите ID привычки: (только число)");
-            message.setText(habitsList.toString());
-            userStates.put(userId, new UserState("waiting_for_complete_id"));
+            sendOrEdit(chatId, messageId, emptyText, null);
+            return;
+        }
+        if (!page.hasPrevious()) {
+            pageNumber = 1;
         }
 
-        try {
-            execute(message);
-        } catch (TelegramApiException e) {
-            e.printStackTrace();
+        String text;
+        switch (view) {
+            case VIEW_COMPLETE:
+                userStates.put(userId, new UserState(ConversationState.WAITING_FOR_COMPLETE_ID));
+                text = buildCompleteList(page.getHabits());
+                break;
+            case VIEW_DELETE:
+                userStates.put(userId, new UserState(ConversationState.WAITING_FOR_DELETE_ID));
+                text = buildDeleteList(page.getHabits());
+                break;
+            case VIEW_HISTORY:
+                text = HISTORY_HEADER + "\n\nВыберите привычку:";
+                break;
+            case VIEW_REMIND:
+                userStates.put(userId, new UserState(ConversationState.WAITING_FOR_REMINDER_HABIT_ID));
+                text = buildRemindList(page.getHabits());
+                break;
+            default:
+                userStates.put(userId, new UserState(ConversationState.WAITING_FOR_DESCRIPTION_HABIT_ID));
+                text = buildDescriptionList(page.getHabits());
         }
+        sendOrEdit(chatId, messageId, withPageNumber(text, page, pageNumber),
+                buildPickerKeyboard(view, page, pageNumber, Habit.currentDay()));
     }
 
-    private void askForHabitToDelete(long chatId, long userId) {
-        List<Habit> habits = dbManager.getUserHabits(userId);
+    static InlineKeyboardMarkup buildPickerKeyboard(String view, HabitPage page, int pageNumber, long today) {
+        List<List<InlineKeyboardButton>> keyboard = new ArrayList<>(page.getHabits().size() + 1);
+        for (Habit habit : page.getHabits()) {
+            String label = habit.getName();
+            if (label.length() > BUTTON_LABEL_LENGTH) {
+                label = label.substring(0, BUTTON_LABEL_LENGTH - 1) + "…";
+            }
+            if (VIEW_COMPLETE.equals(view) && habit.getLastCompletedDay() == today) {
+                label = "✅ " + label;
+            }
+            List<InlineKeyboardButton> row = new ArrayList<>(1);
+            row.add(inlineButton(label, view + ":id:" + habit.getId()));
+            keyboard.add(row);
+        }
+        addNavigationRow(keyboard, view, page, pageNumber);
+        return new InlineKeyboardMarkup(keyboard);
+    }
 
-        SendMessage message = new SendMessage();
-        message.setChatId(chatId);
+    private static void addNavigationRow(List<List<InlineKeyboardButton>> keyboard, String view, HabitPage page,
+                                         int pageNumber) {
+        List<InlineKeyboardButton> row = new ArrayList<>(2);
+        if (page.hasPrevious()) {
+            row.add(inlineButton("◀️ Назад", view + ":prev:" + page.getFirstId() + ":" + (pageNumber - 1)));
+        }
+        if (page.hasNext()) {
+            row.add(inlineButton("Вперед ▶️", view + ":next:" + page.getLastId() + ":" + (pageNumber + 1)));
+        }
+        if (!row.isEmpty()) {
+            keyboard.add(row);
+        }
+    }
+
+    private static String withPageNumber(String text, HabitPage page, int pageNumber) {
+        if (pageNumber > 1 || page.hasNext()) {
+            return text.stripTrailing() + "\n\nСтраница " + pageNumber;
+        }
+        return text;
+    }
+
+    private static InlineKeyboardButton inlineButton(String text, String callbackData) {
+        InlineKeyboardButton button = new InlineKeyboardButton(text);
+        button.setCallbackData(callbackData);
+        return button;
+    }
 
-        if (habits.isEmpty()) {
-            message.setText("📭 У вас нет привычек для удаления");
+    // messageId != null - редактирует сообщение с кнопками на месте, если текст помещается в одно сообщение
+    private void sendOrEdit(long chatId, Integer messageId, String text, InlineKeyboardMarkup markup) {
+        List<String> parts = MessageSplitter.split(text);
+        if (messageId != null && parts.size() == 1) {
+            editMessage(chatId, messageId, parts.get(0), markup);
         } else {
-            StringBuilder habitsList = new StringBuilder("🗑️ Удалить привычку:\n\n");
-            for (Habit habit : habits) {
-                habitsList.append(String.format("#%d - %s\n", habit.getId(), habit.getName()));
-            }
-            habitsList.append("\nВведите ID привычки для удаления:(только число)");
-            message.setText(habitsList.toString());
-            userStates.put(userId, new UserState("waiting_for_delete_id"));
+            sendLongText(chatId, text, markup);
         }
+    }
 
-        try {
-            execute(message);
-        } catch (TelegramApiException e) {
-            e.printStackTrace();
+    // Отправляет текст одним или несколькими сообщениями в пределах лимита Telegram.
+    // Клавиатура (если есть) прикрепляется к последней части
+    private void sendLongText(long chatId, String text, InlineKeyboardMarkup markup) {
+        List<String> parts = MessageSplitter.split(text);
+        for (int i = 0; i < parts.size(); i++) {
+            SendMessage message = new SendMessage();
+            message.setChatId(chatId);
+            message.setText(parts.get(i));
+            if (markup != null && i == parts.size() - 1) {
+                message.setReplyMarkup(markup);
+            }
+            sender.send(chatId, message);
         }
     }
 
-    private void askForHabitToAddDescription(long chatId, long userId) {
-        List<Habit> habits = dbManager.getUserHabits(userId);
+    // Построение текстов списков вынесено в статические методы, чтобы их можно было измерять в бенчмарках
+    // Фрагменты привычек берутся из HabitRenderer и склеиваются в буфер точного размера
+    static String buildHabitsText(List<Habit> habits) {
+        return HabitRenderer.list("📋 Ваши привычки:\n\n", habits, Habit::toString, "\n\n", "");
+    }
 
-        SendMessage message = new SendMessage();
-        message.setChatId(chatId);
+    static String buildCompleteList(List<Habit> habits) {
+        return HabitRenderer.list(COMPLETE_HEADER + "\n\n", habits, HabitRenderer::line, "",
+                "\nНажмите на привычку или введите ее ID:");
+    }
 
-        if (habits.isEmpty()) {
-            message.setText("📭 У вас нет привычек для добавления описания");
-        } else {
-            StringBuilder habitsList = new StringBuilder("✏️ Добавить описание к привычке:\n\n");
-            for (Habit habit : habits) {
-                String currentDesc = habit.getDescription();
-                if (currentDesc == null || currentDesc.isEmpty()) {
-                    habitsList.append(String.format("#%d - %s (нет описания)\n", habit.getId(), habit.getName()));
+    static String buildDeleteList(List<Habit> habits) {
+        return HabitRenderer.list(DELETE_HEADER + "\n\n", habits, HabitRenderer::line, "",
+                "\nНажмите на привычку или введите ее ID для удаления:");
+    }
+
+    static String buildDescriptionList(List<Habit> habits) {
+        return HabitRenderer.list(DESCRIPTION_HEADER + "\n\n", habits, HabitRenderer::descriptionLine, "",
+                "\nНажмите на привычку или введите ее ID для добавления/изменения описания:");
+    }
+
+    static String buildRemindList(List<Habit> habits) {
+        return HabitRenderer.list(REMIND_HEADER + "\n\n", habits, HabitRenderer::reminderLine, "",
+                "\nНажмите на привычку или введите ее ID для настройки напоминания:");
+    }
+
+    // Доля выполнения за периоды, серии, календарь последних недель и итоги по месяцам за год.
+    // Все цифры считаются по битовой истории, без чтения журнала выполнений
+    static String buildHistoryText(Habit habit, HabitHistory history, long today) {
+        // Импортированная история может начинаться раньше даты создания привычки
+        long createdDay = habit.getCreatedDay();
+        long firstDone = history.firstDay();
+        if (firstDone >= 0 && firstDone < createdDay) {
+            createdDay = firstDone;
+        }
+        if (createdDay == Long.MIN_VALUE) {
+            createdDay = firstDone >= 0 ? firstDone : today;
+        }
+        StringBuilder text = new StringBuilder(1024);
+        text.append("📈 ").append(habit.getName()).append("\n\n");
+
+        int[] periods = {7, 30, 90, 365};
+        for (int period : periods) {
+            long from = Math.max(today - period + 1, createdDay);
+            int days = (int) (today - from + 1);
+            if (days <= 0) {
+                continue;
+            }
+            int done = history.count(from, today);
+            text.append("За ").append(period).append(" дн.: ").append(done).append('/').append(days)
+                    .append(" (").append(done * 100 / days).append("%)\n");
+        }
+        int currentRun = history.get(today) ? history.runEndingAt(today) : history.runEndingAt(today - 1);
+        text.append("🔥 Текущая серия: ").append(currentRun).append('\n');
+        text.append("🏆 Лучшая серия за год: ").append(history.longestRun(today - 364, today)).append("\n\n");
+
+        // Колонки - недели с понедельника, последняя колонка - текущая неделя
+        long weekStart = today - Math.floorMod(today + 3, 7);
+        long firstDay = weekStart - 7L * (HEATMAP_WEEKS - 1);
+        text.append("Последние ").append(HEATMAP_WEEKS).append(" недель:\n");
+        for (int weekday = 0; weekday < 7; weekday++) {
+            text.append(WEEKDAYS[weekday]).append(' ');
+            for (int week = 0; week < HEATMAP_WEEKS; week++) {
+                long day = firstDay + week * 7L + weekday;
+                if (day > today || day < createdDay) {
+                    text.append("▫️");
                 } else {
-                    habitsList.append(String.format("#%d - %s\n", habit.getId(), habit.getName()));
+                    text.append(history.get(day) ? "🟩" : "⬜");
                 }
             }
-            habitsList.append("\nВведите ID привычки для добавления/изменения описания:(только число)");
-            message.setText(habitsList.toString());
-            userStates.put(userId, new UserState("waiting_for_description_habit_id"));
+            text.append('\n');
         }
 
+        text.append("\nПо месяцам:\n");
+        java.time.LocalDate month = java.time.LocalDate.ofEpochDay(today).withDayOfMonth(1).minusMonths(11);
+        for (int i = 0; i < 12; i++, month = month.plusMonths(1)) {
+            long from = Math.max(month.toEpochDay(), createdDay);
+            long to = Math.min(month.plusMonths(1).toEpochDay() - 1, today);
+            if (from > to) {
+                continue;
+            }
+            int done = history.count(from, to);
+            int days = (int) (to - from + 1);
+            int filled = done * 10 / days;
+            text.append(MONTHS[month.getMonthValue() - 1]).append(' ').append(month.getYear()).append(' ')
+                    .append("█".repeat(filled)).append("░".repeat(10 - filled))
+                    .append(' ').append(done).append('/').append(days).append('\n');
+        }
+        return text.toString();
+    }
+
+    private void askForHabitToRemind(long chatId, long userId) {
+        showPicker(chatId, userId, null, VIEW_REMIND, 0, true, 1);
+    }
+
+    // Файл, отправленный боту, загружается как список привычек пользователя
+    private void importDocument(long chatId, long userId, Document document) {
+        HabitTransfer.Format format = HabitTransfer.Format.fromFileName(document.getFileName());
+        if (format == null) {
+            sendLongText(chatId, "📎 Для импорта отправьте файл .csv или .json (формат как у /export)", null);
+            return;
+        }
+        if (document.getFileSize() != null && document.getFileSize() > BotConfig.importMaxBytes()) {
+            sendLongText(chatId, "❌ Файл слишком большой для импорта через бота", null);
+            return;
+        }
+
+        runTransfer(chatId, "import", () -> {
+            sendLongText(chatId, "⏳ Загружаю привычки из " + document.getFileName() + "...", null);
+            org.telegram.telegrambots.meta.api.objects.File file =
+                    await(sender.send(chatId, new GetFile(document.getFileId())));
+            long count;
+            try (InputStream in = new BufferedInputStream(downloadFileAsStream(file), 64 * 1024)) {
+                count = HabitTransfer.importFrom(dbManager, userId, format, in, BotConfig.importChunkSize());
+            }
+            sendLongText(chatId, "✅ Загружено привычек: " + count, null);
+        });
+    }
+
+    // Выгрузка идет курсором во временный файл, который затем отправляется документом
+    private void exportHabits(long chatId, long userId, HabitTransfer.Format format) {
+        runTransfer(chatId, "export", () -> {
+            String extension = format == HabitTransfer.Format.CSV ? ".csv" : ".json";
+            Path file = Files.createTempFile("habits-" + userId + "-", extension);
+            try {
+                long count;
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024)) {
+                    count = HabitTransfer.exportTo(dbManager, userId, format, out);
+                }
+                if (count == 0) {
+                    sendLongText(chatId, "📭 У вас пока нет привычек для выгрузки", null);
+                    return;
+                }
+                SendDocument document = new SendDocument();
+                document.setChatId(chatId);
+                document.setDocument(new InputFile(file.toFile(), "habits" + extension));
+                document.setCaption("📦 Выгружено привычек: " + count);
+                // Временный файл удаляется только после того, как Telegram его принял
+                await(sender.sendDocument(chatId, document));
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        });
+    }
+
+    // Ждет ответа на запрос из очереди MessageSender; ошибка Telegram пробрасывается как есть
+    private static <T> T await(CompletableFuture<T> future) throws TelegramApiException {
         try {
-            execute(message);
-        } catch (TelegramApiException e) {
-            e.printStackTrace();
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof TelegramApiException) {
+                throw (TelegramApiException) e.getCause();
+            }
+            throw new TelegramApiException(e.getCause());
+        }
+    }
+
+    private interface TransferJob {
+        void run() throws IOException, TelegramApiException;
+    }
+
+    private void runTransfer(long chatId, String kind, TransferJob job) {
+        String kindLabel = Metrics.label("kind", kind);
+        try {
+            transfers.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    job.run();
+                } catch (IOException | TelegramApiException e) {
+                    Metrics.counter("habit_transfer_errors_total", kindLabel).increment();
+                    System.out.println("Ошибка " + kind + " для чата " + chatId + ": " + e.getMessage());
+                    sendLongText(chatId, "❌ " + ("import".equals(kind) ? "Ошибка импорта: " : "Ошибка выгрузки: ") +
+                            e.getMessage(), null);
+                } finally {
+                    Metrics.timer("habit_transfer_duration_seconds", kindLabel).recordSince(start);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            sendLongText(chatId, "❌ Бот останавливается, попробуйте позже", null);
         }
     }
 
+    // Личный чат с пользователем совпадает с его userId
+    private void sendReminder(long userId, int habitId, String habitName) {
+        SendMessage message = new SendMessage();
+        message.setChatId(userId);
+        message.setText("⏰ Напоминание: пора выполнить привычку \"" + habitName + "\"!\n" +
+                "Отметьте выполнение командой /complete");
+
+        sender.send(userId, message);
+    }
+
     private void showStats(long chatId, long userId) {
         String stats = dbManager.getUserStats(userId);
 
@@ -252,11 +1012,16 @@ public class HabitTrackerBot extends TelegramLongPollingBot {
         message.setChatId(chatId);
         message.setText(stats);
 
-        try {
-            execute(message);
-        } catch (TelegramApiException e) {
-            e.printStackTrace();
-        }
+        sender.send(chatId, message);
+    }
+
+    // Таблицы лидеров и счетчики читаются из памяти, без запросов к базе
+    private void showTop(long chatId, long userId) {
+        SendMessage message = new SendMessage();
+        message.setChatId(chatId);
+        message.setText(community.formatTop(userId));
+
+        sender.send(chatId, message);
     }
 
     private void handleUserInput(long chatId, long userId, String input) {
@@ -269,13 +1034,13 @@ public class HabitTrackerBot extends TelegramLongPollingBot {
             message.setText("Неизвестная команда. Используйте /help для просмотра доступных команд.");
         } else {
             switch (userState.state) {
-                case "waiting_for_habit_name":
-                    userStates.put(userId, new UserState("waiting_for_habit_description", input));
+                case WAITING_FOR_HABIT_NAME:
+                    userStates.put(userId, new UserState(ConversationState.WAITING_FOR_HABIT_DESCRIPTION, input));
                     message.setText("📝 Теперь введите описание для привычки \"" + input + "\":\n" +
                             "(Если не хотите добавлять описание, отправьте '-' )");
                     break;
 
-                case "waiting_for_habit_description":
+                case WAITING_FOR_HABIT_DESCRIPTION:
                     String habitName = userState.tempData;
                     String description = input.equals("-") ? "" : input;
 
@@ -289,23 +1054,18 @@ public class HabitTrackerBot extends TelegramLongPollingBot {
                     userStates.remove(userId);
                     break;
 
-                case "waiting_for_complete_id":
+                case WAITING_FOR_COMPLETE_ID:
                     try {
                         int habitId = Integer.parseInt(input);
-                        boolean completed = dbManager.completeHabit(habitId, userId);
-
-                        if (completed) {
-                            message.setText("🎉 Привычка отмечена как выполненная сегодня!");
-                        } else {
-                            message.setText("❌ Не удалось найти привычку с таким ID");
-                        }
+                        CompletionResult result = dbManager.completeHabit(habitId, userId);
+                        message.setText(completionText(result));
                     } catch (NumberFormatException e) {
                         message.setText("❌ Пожалуйста, введите число (ID привычки)");
                     }
                     userStates.remove(userId);
                     break;
 
-                case "waiting_for_delete_id":
+                case WAITING_FOR_DELETE_ID:
                     try {
                         int habitId = Integer.parseInt(input);
                         boolean deleted = dbManager.deleteHabit(habitId, userId);
@@ -321,23 +1081,14 @@ public class HabitTrackerBot extends TelegramLongPollingBot {
                     userStates.remove(userId);
                     break;
 
-                case "waiting_for_description_habit_id":
+                case WAITING_FOR_DESCRIPTION_HABIT_ID:
                     try {
                         int habitId = Integer.parseInt(input);
                         Habit habit = dbManager.getHabitById(habitId, userId);
 
                         if (habit != null) {
-                            userStates.put(userId, new UserState("waiting_for_description_text", null, habitId));
-
-                            String currentDesc = habit.getDescription();
-                            if (currentDesc != null && !currentDesc.isEmpty()) {
-                                message.setText("✏️ Текущее описание привычки \"" + habit.getName() + "\":\n" +
-                                        currentDesc + "\n\n" +
-                                        "Введите новое описание (или '-' чтобы оставить текущее):");
-                            } else {
-                                message.setText("✏️ Введите описание для привычки \"" + habit.getName() + "\":\n" +
-                                        "(Отправьте '-' если не хотите добавлять описание)");
-                            }
+                            userStates.put(userId, new UserState(ConversationState.WAITING_FOR_DESCRIPTION_TEXT, null, habitId));
+                            message.setText(descriptionPrompt(habit));
                         } else {
                             message.setText("❌ Не удалось найти привычку с таким ID");
                             userStates.remove(userId);
@@ -348,8 +1099,8 @@ public class HabitTrackerBot extends TelegramLongPollingBot {
                     }
                     break;
 
-                case "waiting_for_description_text":
-                    Integer habitId = userState.tempHabitId;
+                case WAITING_FOR_DESCRIPTION_TEXT:
+                    int habitId = userState.tempHabitId;
                     String newDescription = input.equals("-") ? "" : input;
 
                     boolean updated = dbManager.updateHabitDescription(habitId, userId, newDescription);
@@ -362,49 +1113,118 @@ public class HabitTrackerBot extends TelegramLongPollingBot {
                     userStates.remove(userId);
                     break;
 
+                case WAITING_FOR_REMINDER_HABIT_ID:
+                    try {
+                        int reminderHabitId = Integer.parseInt(input);
+                        Habit habit = dbManager.getHabitById(reminderHabitId, userId);
+
+                        if (habit != null) {
+                            userStates.put(userId, new UserState(ConversationState.WAITING_FOR_REMINDER_TIME,
+                                    null, reminderHabitId));
+                            message.setText(reminderPrompt(habit));
+                        } else {
+                            message.setText("❌ Не удалось найти привычку с таким ID");
+                            userStates.remove(userId);
+                        }
+                    } catch (NumberFormatException e) {
+                        message.setText("❌ Пожалуйста, введите число (ID привычки)");
+                        userStates.remove(userId);
+                    }
+                    break;
+
+                case WAITING_FOR_REMINDER_TIME:
+                    int minuteOfDay = input.equals("-") ? -1 : parseTime(input);
+                    if (minuteOfDay == -2) {
+                        message.setText("❌ Пожалуйста, введите время в формате ЧЧ:ММ, например 08:30");
+                        break;
+                    }
+
+                    if (dbManager.setHabitReminder(userState.tempHabitId, userId, minuteOfDay)) {
+                        reminders.onReminderChanged(userState.tempHabitId, userId, minuteOfDay);
+                        message.setText(minuteOfDay < 0 ? "🔕 Напоминание выключено" :
+                                String.format("⏰ Напоминание установлено на %02d:%02d UTC",
+                                        minuteOfDay / 60, minuteOfDay % 60));
+                    } else {
+                        message.setText("❌ Ошибка при настройке напоминания");
+                    }
+                    userStates.remove(userId);
+                    break;
+
+                case WAITING_FOR_SEARCH_QUERY:
+                    userStates.remove(userId);
+                    showSearchResults(chatId, userId, null, input, 1);
+                    return;
+
                 default:
                     message.setText("Неизвестное состояние. Используйте /help для просмотра команд.");
                     userStates.remove(userId);
             }
         }
 
+        sender.send(chatId, message);
+    }
+
+    private static String completionText(CompletionResult result) {
+        switch (result) {
+            case COMPLETED:
+                return "🎉 Привычка отмечена как выполненная сегодня!";
+            case ALREADY_COMPLETED:
+                return "👌 Эта привычка уже отмечена сегодня";
+            case NOT_FOUND:
+                return "❌ Не удалось найти привычку с таким ID";
+            default:
+                return "❌ Ошибка при отметке привычки. Попробуйте еще раз.";
+        }
+    }
+
+    private static String descriptionPrompt(Habit habit) {
+        String currentDesc = habit.getDescription();
+        if (currentDesc != null && !currentDesc.isEmpty()) {
+            return "✏️ Текущее описание привычки \"" + habit.getName() + "\":\n" +
+                    currentDesc + "\n\n" +
+                    "Введите новое описание (или '-' чтобы оставить текущее):";
+        }
+        return "✏️ Введите описание для привычки \"" + habit.getName() + "\":\n" +
+                "(Отправьте '-' если не хотите добавлять описание)";
+    }
+
+    private static String reminderPrompt(Habit habit) {
+        return "⏰ Введите время напоминания для привычки \"" + habit.getName() +
+                "\" в формате ЧЧ:ММ по UTC\n(Отправьте '-' чтобы выключить напоминание)";
+    }
+
+    // Разбирает время ЧЧ:ММ в минуту суток, -2 при неверном формате
+    private int parseTime(String input) {
+        String[] parts = input.trim().split(":");
+        if (parts.length != 2) {
+            return -2;
+        }
         try {
-            execute(message);
-        } catch (TelegramApiException e) {
-            e.printStackTrace();
+            int hours = Integer.parseInt(parts[0]);
+            int minutes = Integer.parseInt(parts[1]);
+            if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59) {
+                return -2;
+            }
+            return hours * 60 + minutes;
+        } catch (NumberFormatException e) {
+            return -2;
         }
     }
 
-    private void sendMessageWithKeyboard(SendMessage message) {
+    private static ReplyKeyboardMarkup buildMainKeyboard() {
         ReplyKeyboardMarkup keyboardMarkup = new ReplyKeyboardMarkup();
         keyboardMarkup.setSelective(true);
         keyboardMarkup.setResizeKeyboard(true);
         keyboardMarkup.setOneTimeKeyboard(false);
 
-        List<KeyboardRow> keyboard = new ArrayList<>();
-
-        KeyboardRow row1 = new KeyboardRow();
-        row1.add("/newhabit");
-        row1.add("/myhabits");
-
-        KeyboardRow row2 = new KeyboardRow();
-        row2.add("/complete");
-        row2.add("/adddescription");
-
-        KeyboardRow row3 = new KeyboardRow();
-        row3.add("/deletehabit");
-        row3.add("/stats");
+        KeyboardRow row1 = new KeyboardRow(List.of(new KeyboardButton("/newhabit"), new KeyboardButton("/myhabits")));
+        KeyboardRow row2 = new KeyboardRow(List.of(new KeyboardButton("/complete"),
+                new KeyboardButton("/adddescription")));
+        KeyboardRow row3 = new KeyboardRow(List.of(new KeyboardButton("/deletehabit"), new KeyboardButton("/stats")));
+        KeyboardRow row4 = new KeyboardRow(List.of(new KeyboardButton("/help")));
 
-        KeyboardRow row4 = new KeyboardRow();
-        row4.add("/help");
-
-        keyboard.add(row1);
-        keyboard.add(row2);
-        keyboard.add(row3);
-        keyboard.add(row4);
-        keyboardMarkup.setKeyboard(keyboard);
-
-        message.setReplyMarkup(keyboardMarkup);
+        keyboardMarkup.setKeyboard(List.of(row1, row2, row3, row4));
+        return keyboardMarkup;
     }
 
     @Override
@@ -419,18 +1239,78 @@ public class HabitTrackerBot extends TelegramLongPollingBot {
 
     public static void main(String[] args) {
         try {
-            TelegramBotsApi botsApi = new TelegramBotsApi(DefaultBotSession.class);
-            botsApi.registerBot(new HabitTrackerBot());
+            HabitTrackerBot bot = new HabitTrackerBot();
+            bot.start();
+            startMetrics();
+            if ("webhook".equalsIgnoreCase(BotConfig.receiveMode())) {
+                startWebhook(bot);
+            } else {
+                TelegramBotsApi botsApi = new TelegramBotsApi(DefaultBotSession.class);
+                botsApi.registerBot(bot);
+            }
             System.out.println("🎯 Бот трекера привычек запущен!");
-            System.out.println("📊 База данных: habits.db");
+            if ("memory".equalsIgnoreCase(BotConfig.dbBackend())) {
+                System.out.println("📊 База данных: в памяти");
+            } else if (BotConfig.dbShards() > 1) {
+                System.out.println("📊 База данных: " + BotConfig.dbShards() + " шардов " +
+                        BotConfig.dbShardPathPrefix() + "-N.db");
+            } else {
+                System.out.println("📊 База данных: habits.db");
+            }
             System.out.println("✏️ Добавлена возможность добавлять описания к привычкам!");
-        } catch (TelegramApiException e) {
+        } catch (TelegramApiException | java.io.IOException e) {
             e.printStackTrace();
         }
     }
 
+    // Локальный эндпоинт /metrics; при порте 0 сервер не запускается
+    private static void startMetrics() throws java.io.IOException {
+        int port = BotConfig.metricsPort();
+        if (port <= 0) {
+            return;
+        }
+        MetricsServer metricsServer = new MetricsServer(port);
+        metricsServer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(metricsServer::stop));
+        System.out.println("📈 Метрики доступны на http://127.0.0.1:" + port + "/metrics");
+    }
+
+    // Режим webhook: обновления принимает встроенный HTTP-сервер
+    private static void startWebhook(HabitTrackerBot bot) throws TelegramApiException, java.io.IOException {
+        // Публичный адрес без секрета не регистрируется: секрет генерируется на время работы бота
+        String publicUrl = BotConfig.webhookPublicUrl();
+        String secret = BotConfig.webhookSecret();
+        if (publicUrl != null && secret == null) {
+            secret = WebhookServer.randomSecret();
+            System.out.println("HABIT_WEBHOOK_SECRET не задан, для webhook используется случайный секрет");
+        }
+        WebhookServer server = new WebhookServer(bot, BotConfig.webhookPort(), BotConfig.webhookPath(), secret);
+        server.start();
+
+        // Без публичного адреса сервер работает локально (только 127.0.0.1), например для проверки через curl
+        if (publicUrl != null) {
+            SetWebhook setWebhook = new SetWebhook(publicUrl);
+            setWebhook.setSecretToken(secret);
+            bot.execute(setWebhook);
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            bot.onClosing();
+        }));
+        System.out.println("🌐 Webhook слушает порт " + server.getPort() + BotConfig.webhookPath());
+    }
+
     @Override
     public void onClosing() {
+        dispatcher.shutdown();
+        transfers.shutdown();
+        userStates.shutdown();
+        reminders.shutdown();
+        rollover.shutdown();
+        retention.shutdown();
+        community.shutdown();
+        sender.shutdown();
         dbManager.close();
         super.onClosing();
     }
@@ -0,0 +1,538 @@
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Потоковый импорт и экспорт привычек с историей выполнений в CSV и JSON.
+// Записи читаются и пишутся по одной: экспорт идет курсором из HabitRepository.exportHabits,
+// импорт копит пачку из chunkSize привычек и вставляет ее одной транзакцией,
+// поэтому расход памяти не зависит от размера файла.
+//
+// Поля записи (колонки CSV и ключи объектов JSON):
+// id, user_id, name, description, created_date, completed_days, total_days, current_streak,
+// best_streak, last_completed_day, reminder, completions.
+// Дни - даты ISO (2025-01-15), reminder - ЧЧ:ММ по UTC, completions в CSV - даты через пробел.
+// Обязательно только name (и user_id, если пользователь не задан при импорте).
+// Файл может прислать любой пользователь бота, поэтому значения проверяются: дни выполнения -
+// только с даты создания по сегодня, счетчики неотрицательные. Если история указана, число
+// выполненных дней, серии и последний день вычисляются по ней; total_days - всегда по дате создания
+// (хранилище считает его до дня, по который прошел перевод дня, см. HabitRecord.totalDaysAt).
+public final class HabitTransfer {
+
+    public enum Format {
+        CSV, JSON;
+
+        // Формат по расширению файла, null - неизвестное расширение
+        public static Format fromFileName(String fileName) {
+            String lower = fileName == null ? "" : fileName.toLowerCase(Locale.ROOT);
+            if (lower.endsWith(".csv")) {
+                return CSV;
+            }
+            if (lower.endsWith(".json")) {
+                return JSON;
+            }
+            return null;
+        }
+    }
+
+    private static final String[] COLUMNS = {
+            "id", "user_id", "name", "description", "created_date", "completed_days", "total_days",
+            "current_streak", "best_streak", "last_completed_day", "reminder", "completions"
+    };
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private HabitTransfer() {
+    }
+
+    // Выгружает привычки пользователя userId (null - всех) в out. Возвращает число привычек
+    public static long exportTo(HabitRepository dbManager, Long userId, Format format, OutputStream out)
+            throws IOException {
+        RecordWriter writer = format == Format.CSV ? new CsvRecordWriter(out) : new JsonRecordWriter(out);
+        long count = dbManager.exportHabits(userId, writer::write);
+        if (count < 0) {
+            throw new IOException("Ошибка чтения из базы данных");
+        }
+        writer.finish();
+        return count;
+    }
+
+    // Загружает привычки из in. userId != null - все привычки записываются этому пользователю.
+    // Пачки, вставленные до ошибки, остаются в базе; возвращает число загруженных привычек
+    public static long importFrom(HabitRepository dbManager, Long userId, Format format, InputStream in,
+                                  int chunkSize) throws IOException {
+        RecordReader reader = format == Format.CSV ? new CsvRecordReader(in) : new JsonRecordReader(in);
+        List<HabitRecord> chunk = new ArrayList<>(chunkSize);
+        long total = 0;
+        Map<String, String> fields;
+        while ((fields = reader.next()) != null) {
+            HabitRecord record;
+            try {
+                record = toRecord(fields, userId);
+            } catch (IllegalArgumentException | DateTimeException e) {
+                throw new IOException("Запись " + reader.getRecordNumber() + ": " + e.getMessage() +
+                        " (загружено привычек: " + total + ")", e);
+            }
+            chunk.add(record);
+            if (chunk.size() == chunkSize) {
+                total += flush(dbManager, chunk, total);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            total += flush(dbManager, chunk, total);
+        }
+        return total;
+    }
+
+    private static int flush(HabitRepository dbManager, List<HabitRecord> chunk, long loaded) throws IOException {
+        int inserted = dbManager.importHabits(chunk);
+        if (inserted < 0) {
+            throw new IOException("Ошибка записи в базу данных (загружено привычек: " + loaded + ")");
+        }
+        chunk.clear();
+        return inserted;
+    }
+
+    static HabitRecord toRecord(Map<String, String> fields, Long userId) {
+        String name = fields.get("name");
+        if (name == null || name.isBlank()) {
+            throw new IllegalArgumentException("не указано название привычки");
+        }
+        long owner;
+        if (userId != null) {
+            owner = userId;
+        } else {
+            String value = fields.get("user_id");
+            if (value == null || value.isBlank()) {
+                throw new IllegalArgumentException("не указан user_id");
+            }
+            owner = Long.parseLong(value.trim());
+        }
+
+        long today = Habit.currentDay();
+        long[] days = parseDays(fields.get("completions"));
+        String createdDate = fields.get("created_date");
+        long createdDay;
+        if (createdDate == null || createdDate.isBlank()) {
+            // Без даты создания привычка считается созданной в первый день истории
+            createdDay = days.length > 0 ? days[0] : today;
+            createdDate = LocalDate.ofEpochDay(createdDay) + " 00:00:00";
+        } else {
+            createdDate = createdDate.trim();
+            createdDay = parseDay("created_date", createdDate.substring(0, Math.min(10, createdDate.length())));
+            if (createdDay < 1 || createdDay > today) {
+                throw new IllegalArgumentException("дата создания вне допустимого диапазона: " + createdDate);
+            }
+        }
+        if (days.length > 0 && days[0] < createdDay) {
+            throw new IllegalArgumentException("день выполнения " + LocalDate.ofEpochDay(days[0]) +
+                    " раньше даты создания привычки");
+        }
+        if (days.length > 0 && days[days.length - 1] > today) {
+            throw new IllegalArgumentException("день выполнения " + LocalDate.ofEpochDay(days[days.length - 1]) +
+                    " еще не наступил");
+        }
+
+        // total_days из файла только проверяется: хранилище при вставке считает его по курсору
+        // перевода дня (HabitRecord.totalDaysAt), здесь - срок жизни для ограничения счетчиков
+        int totalDays = (int) (today - createdDay + 1);
+        intField(fields, "total_days", 0);
+        int completedDays = intField(fields, "completed_days", days.length);
+        int currentStreak = intField(fields, "current_streak", 0);
+        int bestStreak = intField(fields, "best_streak", 0);
+        long lastCompletedDay = 0;
+        String lastDay = fields.get("last_completed_day");
+        if (lastDay != null && !lastDay.isBlank()) {
+            lastCompletedDay = parseDay("last_completed_day", lastDay.trim());
+            if (lastCompletedDay < createdDay || lastCompletedDay > today) {
+                throw new IllegalArgumentException("last_completed_day вне срока жизни привычки: " + lastDay);
+            }
+        }
+        if (days.length > 0) {
+            completedDays = days.length;
+            currentStreak = HabitRecord.trailingRun(days);
+            bestStreak = HabitRecord.longestRun(days);
+            lastCompletedDay = days[days.length - 1];
+        } else {
+            // Без истории проверить счетчики нечем, поэтому они только ограничиваются сроком жизни привычки
+            completedDays = Math.min(completedDays, totalDays);
+            bestStreak = Math.min(bestStreak, completedDays);
+            currentStreak = Math.min(currentStreak, bestStreak);
+            if (completedDays == 0) {
+                lastCompletedDay = 0;
+            }
+        }
+
+        Habit habit = new Habit(0, owner, name, emptyToNull(fields.get("description")), createdDate,
+                completedDays, totalDays, currentStreak, bestStreak, lastCompletedDay,
+                parseReminder(fields.get("reminder")));
+        return new HabitRecord(habit, days);
+    }
+
+    private static int intField(Map<String, String> fields, String name, int defaultValue) {
+        String value = fields.get(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        int parsed;
+        try {
+            parsed = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("поле " + name + " должно быть числом: " + value);
+        }
+        if (parsed < 0) {
+            throw new IllegalArgumentException("поле " + name + " не может быть отрицательным: " + value);
+        }
+        return parsed;
+    }
+
+    private static long parseDay(String name, String value) {
+        try {
+            return LocalDate.parse(value).toEpochDay();
+        } catch (DateTimeException e) {
+            throw new IllegalArgumentException("поле " + name + " должно быть датой ГГГГ-ММ-ДД: " + value);
+        }
+    }
+
+    private static long[] parseDays(String value) {
+        if (value == null || value.isBlank()) {
+            return new long[0];
+        }
+        String[] parts = value.trim().split("[\\s;]+");
+        long[] days = new long[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            days[i] = parseDay("completions", parts[i]);
+        }
+        Arrays.sort(days);
+        // Повторы одного дня считаются одним выполнением
+        int size = 0;
+        for (int i = 0; i < days.length; i++) {
+            if (size == 0 || days[i] != days[size - 1]) {
+                days[size++] = days[i];
+            }
+        }
+        return size == days.length ? days : Arrays.copyOf(days, size);
+    }
+
+    private static int parseReminder(String value) {
+        if (value == null || value.isBlank()) {
+            return -1;
+        }
+        String[] parts = value.trim().split(":");
+        if (parts.length == 2) {
+            try {
+                int hours = Integer.parseInt(parts[0]);
+                int minutes = Integer.parseInt(parts[1]);
+                if (hours >= 0 && hours <= 23 && minutes >= 0 && minutes <= 59) {
+                    return hours * 60 + minutes;
+                }
+            } catch (NumberFormatException e) {
+                // Ниже общее сообщение об ошибке
+            }
+        }
+        throw new IllegalArgumentException("время напоминания должно быть в формате ЧЧ:ММ: " + value);
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    // Значения полей записи в порядке COLUMNS
+    private static String[] toFields(HabitRecord record) {
+        Habit habit = record.getHabit();
+        long[] days = record.getCompletionDays();
+        StringBuilder completions = new StringBuilder(days.length * 11);
+        for (int i = 0; i < days.length; i++) {
+            if (i > 0) {
+                completions.append(' ');
+            }
+            completions.append(LocalDate.ofEpochDay(days[i]));
+        }
+        return new String[]{
+                String.valueOf(habit.getId()),
+                String.valueOf(habit.getUserId()),
+                habit.getName(),
+                habit.getDescription(),
+                habit.getCreatedDate(),
+                String.valueOf(habit.getCompletedDays()),
+                String.valueOf(habit.getTotalDays()),
+                String.valueOf(habit.getStreakAtLastCompletion()),
+                String.valueOf(habit.getBestStreak()),
+                habit.getLastCompletedDay() > 0 ? LocalDate.ofEpochDay(habit.getLastCompletedDay()).toString() : null,
+                habit.hasReminder()
+                        ? String.format("%02d:%02d", habit.getReminderMinute() / 60, habit.getReminderMinute() % 60)
+                        : null,
+                completions.toString()
+        };
+    }
+
+    private interface RecordWriter {
+        void write(HabitRecord record) throws IOException;
+
+        void finish() throws IOException;
+    }
+
+    private interface RecordReader {
+        // Поля следующей записи по именам или null в конце файла
+        Map<String, String> next() throws IOException;
+
+        long getRecordNumber();
+    }
+
+    private static final class CsvRecordWriter implements RecordWriter {
+        private final Writer out;
+
+        CsvRecordWriter(OutputStream stream) throws IOException {
+            out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 64 * 1024);
+            writeRow(COLUMNS);
+        }
+
+        @Override
+        public void write(HabitRecord record) throws IOException {
+            writeRow(toFields(record));
+        }
+
+        @Override
+        public void finish() throws IOException {
+            out.flush();
+        }
+
+        private void writeRow(String[] values) throws IOException {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                String value = values[i];
+                if (value == null) {
+                    continue;
+                }
+                if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+                        || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                    out.write('"');
+                    out.write(value.replace("\"", "\"\""));
+                    out.write('"');
+                } else {
+                    out.write(value);
+                }
+            }
+            out.write("\r\n");
+        }
+    }
+
+    // Разбор CSV по RFC 4180: поля в кавычках могут содержать запятые, кавычки ("") и переводы строк
+    private static final class CsvRecordReader implements RecordReader {
+        private final Reader in;
+        private String[] header;
+        private long recordNumber;
+        private int pending = -2;
+
+        CsvRecordReader(InputStream stream) {
+            in = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8), 64 * 1024);
+        }
+
+        @Override
+        public Map<String, String> next() throws IOException {
+            if (header == null) {
+                List<String> names = readRow();
+                if (names == null) {
+                    return null;
+                }
+                header = new String[names.size()];
+                for (int i = 0; i < header.length; i++) {
+                    // Excel добавляет BOM в начало файла
+                    header[i] = names.get(i).replace("\uFEFF", "").trim().toLowerCase(Locale.ROOT);
+                }
+            }
+            List<String> row;
+            do {
+                row = readRow();
+                if (row == null) {
+                    return null;
+                }
+            } while (row.size() == 1 && row.get(0).isEmpty());
+
+            recordNumber++;
+            Map<String, String> fields = new HashMap<>(header.length * 2);
+            for (int i = 0; i < header.length && i < row.size(); i++) {
+                fields.put(header[i], row.get(i));
+            }
+            return fields;
+        }
+
+        @Override
+        public long getRecordNumber() {
+            return recordNumber;
+        }
+
+        private int read() throws IOException {
+            if (pending != -2) {
+                int c = pending;
+                pending = -2;
+                return c;
+            }
+            return in.read();
+        }
+
+        private List<String> readRow() throws IOException {
+            int c = read();
+            if (c == -1) {
+                return null;
+            }
+            List<String> row = new ArrayList<>(COLUMNS.length);
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            while (true) {
+                if (quoted) {
+                    if (c == -1) {
+                        throw new IOException("Запись " + (recordNumber + 1) + ": незакрытая кавычка");
+                    }
+                    if (c == '"') {
+                        int next = read();
+                        if (next == '"') {
+                            field.append('"');
+                        } else {
+                            quoted = false;
+                            c = next;
+                            continue;
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                } else if (c == '"' && field.length() == 0) {
+                    quoted = true;
+                } else if (c == ',') {
+                    row.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\n' || c == -1) {
+                    break;
+                } else if (c == '\r') {
+                    int next = read();
+                    if (next != '\n') {
+                        pending = next;
+                    }
+                    break;
+                } else {
+                    field.append((char) c);
+                }
+                c = read();
+            }
+            row.add(field.toString());
+            return row;
+        }
+    }
+
+    // Массив объектов без форматирования; генератор пишет каждую привычку сразу в поток
+    private static final class JsonRecordWriter implements RecordWriter {
+        private final JsonGenerator generator;
+
+        JsonRecordWriter(OutputStream stream) throws IOException {
+            generator = new JsonFactory().createGenerator(stream, JsonEncoding.UTF8);
+            generator.writeStartArray();
+        }
+
+        @Override
+        public void write(HabitRecord record) throws IOException {
+            String[] values = toFields(record);
+            generator.writeStartObject();
+            generator.writeNumberField("id", record.getHabit().getId());
+            generator.writeNumberField("user_id", record.getHabit().getUserId());
+            for (int i = 2; i < COLUMNS.length - 1; i++) {
+                if (i >= 5 && i <= 8) {
+                    generator.writeNumberField(COLUMNS[i], Integer.parseInt(values[i]));
+                } else {
+                    generator.writeStringField(COLUMNS[i], values[i]);
+                }
+            }
+            generator.writeArrayFieldStart("completions");
+            for (long day : record.getCompletionDays()) {
+                generator.writeString(LocalDate.ofEpochDay(day).toString());
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            generator.writeEndArray();
+            generator.writeRaw('\n');
+            generator.flush();
+        }
+    }
+
+    // Читает массив объектов по одному объекту за раз
+    private static final class JsonRecordReader implements RecordReader {
+        private final JsonParser parser;
+        private long recordNumber;
+        private boolean started;
+
+        JsonRecordReader(InputStream stream) throws IOException {
+            parser = MAPPER.getFactory().createParser(stream);
+        }
+
+        @Override
+        public Map<String, String> next() throws IOException {
+            if (!started) {
+                started = true;
+                if (parser.nextToken() != JsonToken.START_ARRAY) {
+                    throw new IOException("Ожидается JSON-массив привычек");
+                }
+            }
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.END_ARRAY || token == null) {
+                return null;
+            }
+            if (token != JsonToken.START_OBJECT) {
+                throw new IOException("Запись " + (recordNumber + 1) + ": ожидается объект привычки");
+            }
+            JsonNode node = MAPPER.readTree(parser);
+            recordNumber++;
+
+            Map<String, String> fields = new HashMap<>(COLUMNS.length * 2);
+            node.fields().forEachRemaining(entry -> {
+                JsonNode value = entry.getValue();
+                if (value.isNull()) {
+                    return;
+                }
+                if (value.isArray()) {
+                    StringBuilder joined = new StringBuilder();
+                    for (JsonNode item : value) {
+                        if (joined.length() > 0) {
+                            joined.append(' ');
+                        }
+                        joined.append(item.asText());
+                    }
+                    fields.put(entry.getKey(), joined.toString());
+                } else {
+                    fields.put(entry.getKey(), value.asText());
+                }
+            });
+            return fields;
+        }
+
+        @Override
+        public long getRecordNumber() {
+            return recordNumber;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+// Офлайн-импорт и экспорт без запуска бота, например для переноса данных службой поддержки:
+//   java -cp habit-tracker.jar HabitTransferTool export habits.csv [--user ID] [--db habits.db]
+//   java -cp habit-tracker.jar HabitTransferTool import habits.json [--user ID] [--db habits.db]
+// Формат определяется по расширению файла (.csv или .json) или задается --format csv|json.
+// При импорте --user записывает все привычки указанному пользователю вместо user_id из файла.
+// Перестроение поискового индекса /find существующей базы (например, после ручной правки habits):
+//   java -cp habit-tracker.jar HabitTransferTool reindex habits.db
+// Перевод базы, созданной до HistoryRetention, на auto_vacuum=INCREMENTAL с полным сжатием файла
+// (только при остановленном боте: VACUUM переписывает весь файл):
+//   java -cp habit-tracker.jar HabitTransferTool vacuum habits.db
+public class HabitTransferTool {
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            printUsage();
+            System.exit(2);
+        }
+        String command = args[0];
+        Path file = Paths.get(args[1]);
+        if ("reindex".equals(command)) {
+            reindex(file);
+            return;
+        }
+        if ("vacuum".equals(command)) {
+            vacuum(file);
+            return;
+        }
+        Long userId = null;
+        String dbPath = "habits.db";
+        HabitTransfer.Format format = HabitTransfer.Format.fromFileName(file.getFileName().toString());
+
+        for (int i = 2; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                System.out.println("Не указано значение для " + option);
+                System.exit(2);
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--user":
+                    userId = Long.parseLong(value);
+                    break;
+                case "--db":
+                    dbPath = value;
+                    break;
+                case "--format":
+                    format = HabitTransfer.Format.valueOf(value.toUpperCase());
+                    break;
+                default:
+                    System.out.println("Неизвестный параметр " + option);
+                    printUsage();
+                    System.exit(2);
+            }
+        }
+        if (format == null) {
+            System.out.println("Не удалось определить формат по имени файла, укажите --format csv|json");
+            System.exit(2);
+        }
+
+        DatabaseManager dbManager = new DatabaseManager("jdbc:sqlite:" + dbPath);
+        long start = System.nanoTime();
+        try {
+            long count;
+            if ("export".equals(command)) {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024)) {
+                    count = HabitTransfer.exportTo(dbManager, userId, format, out);
+                }
+                System.out.println("Выгружено привычек: " + count + " в " + file);
+            } else if ("import".equals(command)) {
+                try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 64 * 1024)) {
+                    count = HabitTransfer.importFrom(dbManager, userId, format, in, BotConfig.importChunkSize());
+                }
+                System.out.println("Загружено привычек: " + count + " из " + file);
+            } else {
+                printUsage();
+                System.exit(2);
+                return;
+            }
+            System.out.println("Время: " + (System.nanoTime() - start) / 1_000_000 + " мс");
+        } catch (IOException e) {
+            System.out.println("Ошибка: " + e.getMessage());
+            System.exit(1);
+        } finally {
+            dbManager.close();
+        }
+    }
+
+    private static void reindex(Path dbFile) {
+        if (!Files.exists(dbFile)) {
+            System.out.println("Файл базы не найден: " + dbFile);
+            System.exit(2);
+        }
+        DatabaseManager dbManager = new DatabaseManager("jdbc:sqlite:" + dbFile);
+        long start = System.nanoTime();
+        try {
+            if (!dbManager.rebuildSearchIndex()) {
+                System.out.println("Ошибка при перестроении поискового индекса");
+                System.exit(1);
+            }
+            System.out.println("Поисковый индекс перестроен за " + (System.nanoTime() - start) / 1_000_000 + " мс");
+        } finally {
+            dbManager.close();
+        }
+    }
+
+    private static void vacuum(Path dbFile) {
+        if (!Files.exists(dbFile)) {
+            System.out.println("Файл базы не найден: " + dbFile);
+            System.exit(2);
+        }
+        long start = System.nanoTime();
+        try {
+            long before = Files.size(dbFile);
+            try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+                 Statement stmt = connection.createStatement()) {
+                // Режим auto_vacuum существующей базы меняется только вместе с VACUUM
+                stmt.execute("PRAGMA auto_vacuum=INCREMENTAL");
+                stmt.execute("VACUUM");
+            }
+            System.out.println("База сжата: " + before / 1024 + " КБ -> " + Files.size(dbFile) / 1024 + " КБ за " +
+                    (System.nanoTime() - start) / 1_000_000 + " мс");
+        } catch (SQLException | IOException e) {
+            System.out.println("Ошибка: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void printUsage() {
+        System.out.println("Использование: HabitTransferTool export|import <файл.csv|файл.json> " +
+                "[--user ID] [--db habits.db] [--format csv|json]");
+        System.out.println("               HabitTransferTool reindex <habits.db>");
+        System.out.println("               HabitTransferTool vacuum <habits.db>");
+    }
+}
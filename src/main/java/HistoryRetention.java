@@ -0,0 +1,132 @@
+import java.time.LocalDate;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Хранение журнала выполнений: отметки старше HABIT_RETENTION_DAYS удаляются из habit_completions,
+// затем освободившееся место возвращается системе шагами PRAGMA incremental_vacuum. Журнал получает
+// строку на каждую отметку, а /history, серии и экспорт читают битовую habit_history, где все дни
+// остаются. Поэтому старые строки журнала ничего не хранят и размер базы не растет с возрастом пользователей.
+// Граница сдвигается раз в месяц: первый день месяца, в который попадает today - HABIT_RETENTION_DAYS.
+// Работает только в окне обслуживания (HABIT_MAINTENANCE_FROM_HOUR..TO_HOUR UTC), пачками по
+// HABIT_RETENTION_CHUNK привычек с паузой не короче самой пачки, как DayRollover. Курсор хранится
+// в базе: проход, не уложившийся в окно, продолжается в следующем.
+public class HistoryRetention {
+
+    private static final long CHECK_INTERVAL_SECONDS = 600;
+    private static final long MIN_PAUSE_MILLIS = 20;
+
+    private final HabitRepository dbManager;
+    private final int retentionDays;
+    private final int chunkSize;
+    private final int vacuumPages;
+    private final int fromHour;
+    private final int toHour;
+    private final ScheduledExecutorService executor;
+
+    public HistoryRetention(HabitRepository dbManager, int retentionDays, int chunkSize, int vacuumPages,
+                            int fromHour, int toHour) {
+        this.dbManager = dbManager;
+        this.retentionDays = retentionDays;
+        this.chunkSize = chunkSize;
+        this.vacuumPages = vacuumPages;
+        this.fromHour = fromHour;
+        this.toHour = toHour;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "history-retention");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        executor.scheduleWithFixedDelay(this::maintain, 0, CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public void shutdown() {
+        // Прерывает паузу между пачками; начатая транзакция доводится потоком записи
+        executor.shutdownNow();
+    }
+
+    // Первый день, отметки которого журнал хранит по дням
+    static long cutoffDay(long today, int retentionDays) {
+        return LocalDate.ofEpochDay(today - retentionDays).withDayOfMonth(1).toEpochDay();
+    }
+
+    // Окно [from, to) часов UTC; from > to - через полночь, from == to - круглые сутки
+    static boolean inWindow(int hour, int from, int to) {
+        if (from == to) {
+            return true;
+        }
+        return from < to ? hour >= from && hour < to : hour >= from || hour < to;
+    }
+
+    private boolean inWindow() {
+        int hour = (int) Math.floorMod(System.currentTimeMillis() / TimeUnit.HOURS.toMillis(1), 24L);
+        return !executor.isShutdown() && inWindow(hour, fromHour, toHour);
+    }
+
+    private void maintain() {
+        try {
+            if (inWindow()) {
+                trimJournal();
+                compact();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void trimJournal() throws InterruptedException {
+        long cutoff = cutoffDay(Habit.currentDay(), retentionDays);
+        long retainedFrom = dbManager.getRetainedFromDay();
+        if (retainedFrom >= cutoff) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        long processed = 0;
+        while (retainedFrom < cutoff && inWindow()) {
+            long chunkStart = System.nanoTime();
+            int rows = dbManager.trimJournalChunk(cutoff, chunkSize);
+            Metrics.timer("habit_retention_chunk_duration_seconds", "").recordSince(chunkStart);
+            if (rows < 0) {
+                System.out.println("Очистка журнала прервана ошибкой, повтор через " +
+                        CHECK_INTERVAL_SECONDS + " с");
+                return;
+            }
+            processed += rows;
+            retainedFrom = dbManager.getRetainedFromDay();
+            if (retainedFrom < cutoff) {
+                pauseAfter(chunkStart);
+            }
+        }
+        System.out.println((retainedFrom >= cutoff
+                ? "Журнал выполнений очищен до " + LocalDate.ofEpochDay(cutoff)
+                : "Очистка журнала продолжится в следующем окне обслуживания") +
+                ": " + processed + " привычек за " + (System.currentTimeMillis() - start) + " мс");
+    }
+
+    private void compact() throws InterruptedException {
+        long freed = 0;
+        while (inWindow()) {
+            long stepStart = System.nanoTime();
+            int pages = dbManager.compactStorage(vacuumPages);
+            if (pages <= 0) {
+                break;
+            }
+            freed += pages;
+            Metrics.counter("habit_vacuum_pages_total", "").add(pages);
+            pauseAfter(stepStart);
+        }
+        if (freed > 0) {
+            System.out.println("Возвращено системе страниц базы: " + freed);
+        }
+    }
+
+    private static void pauseAfter(long stepStartNanos) throws InterruptedException {
+        long stepMillis = (System.nanoTime() - stepStartNanos) / 1_000_000;
+        Thread.sleep(Math.max(MIN_PAUSE_MILLIS, stepMillis));
+    }
+}
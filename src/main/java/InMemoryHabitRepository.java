@@ -0,0 +1,486 @@
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+// Хранилище целиком в памяти процесса: для нагрузочных прогонов и проверок логики бота без SQLite.
+// Поведение повторяет DatabaseManager (идемпотентная отметка за день, серии, keyset-страницы,
+// напоминания с курсором (минута, id)), но данные теряются при остановке.
+// Все методы synchronized - один монитор на хранилище, как один поток записи у SQLite.
+public class InMemoryHabitRepository implements HabitRepository {
+
+    private static final DateTimeFormatter CREATED_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    // Изменяемая копия строки таблицы habits
+    private static final class StoredHabit {
+        final int id;
+        final long userId;
+        final String name;
+        final String createdDate;
+        String description;
+        int completedDays;
+        int totalDays;
+        int currentStreak;
+        int bestStreak;
+        long lastCompletedDay;
+        int reminderMinute = -1;
+        long reminderSentDay;
+        HabitHistory history;
+
+        StoredHabit(int id, long userId, String name, String description, String createdDate) {
+            this.id = id;
+            this.userId = userId;
+            this.name = name;
+            this.description = description;
+            this.createdDate = createdDate;
+        }
+
+        Habit toHabit() {
+            return new Habit(id, userId, name, description, createdDate, completedDays, totalDays,
+                    currentStreak, bestStreak, lastCompletedDay, reminderMinute);
+        }
+    }
+
+    private final Map<Integer, StoredHabit> habits = new HashMap<>();
+    private final Map<Long, TreeMap<Integer, StoredHabit>> habitsByUser = new HashMap<>();
+    private final Map<Long, UserState> conversations = new HashMap<>();
+    private int lastId;
+    // День, по который включительно учтен total_days (см. rollOverChunk)
+    private long rolledOverDay = Habit.currentDay();
+    private long retainedFromDay;
+    private final Map<String, String> snapshots = new HashMap<>();
+    private ChangeListener changeListener = new ChangeListener() {
+    };
+
+    @Override
+    public synchronized boolean addHabit(long userId, String name, String description) {
+        String created = LocalDateTime.now(ZoneOffset.UTC).format(CREATED_FORMAT);
+        StoredHabit habit = new StoredHabit(++lastId, userId, name, description, created);
+        habit.totalDays = 1;
+        store(habit);
+        changeListener.habitAdded(habit.id, userId, 0);
+        return true;
+    }
+
+    private void store(StoredHabit habit) {
+        habits.put(habit.id, habit);
+        habitsByUser.computeIfAbsent(habit.userId, key -> new TreeMap<>()).put(habit.id, habit);
+    }
+
+    private StoredHabit find(int habitId, long userId) {
+        StoredHabit habit = habits.get(habitId);
+        return habit != null && habit.userId == userId ? habit : null;
+    }
+
+    private NavigableMap<Integer, StoredHabit> userHabits(long userId) {
+        NavigableMap<Integer, StoredHabit> owned = habitsByUser.get(userId);
+        return owned != null ? owned : Collections.emptyNavigableMap();
+    }
+
+    @Override
+    public synchronized List<Habit> getUserHabits(long userId) {
+        List<Habit> result = new ArrayList<>();
+        for (StoredHabit habit : userHabits(userId).values()) {
+            result.add(habit.toHabit());
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized HabitPage getHabitPage(long userId, int anchorId, boolean forward, int pageSize) {
+        NavigableMap<Integer, StoredHabit> owned = userHabits(userId);
+        NavigableMap<Integer, StoredHabit> range = forward
+                ? owned.tailMap(anchorId, false)
+                : owned.headMap(anchorId, false).descendingMap();
+        List<Habit> page = new ArrayList<>(pageSize + 1);
+        for (StoredHabit habit : range.values()) {
+            if (page.size() > pageSize) {
+                break;
+            }
+            page.add(habit.toHabit());
+        }
+        boolean more = page.size() > pageSize;
+        if (more) {
+            page.remove(page.size() - 1);
+        }
+        if (page.isEmpty() && anchorId > 0) {
+            return getHabitPage(userId, 0, true, pageSize);
+        }
+        if (forward) {
+            return new HabitPage(page, anchorId > 0, more);
+        }
+        Collections.reverse(page);
+        return new HabitPage(page, more, true);
+    }
+
+    @Override
+    public synchronized Habit getHabitById(int habitId, long userId) {
+        StoredHabit habit = find(habitId, userId);
+        return habit != null ? habit.toHabit() : null;
+    }
+
+    @Override
+    public synchronized CompletionResult completeHabit(int habitId, long userId) {
+        StoredHabit habit = find(habitId, userId);
+        if (habit == null) {
+            return CompletionResult.NOT_FOUND;
+        }
+        long today = Habit.currentDay();
+        if (habit.history == null) {
+            habit.history = new HabitHistory(today);
+        }
+        if (!habit.history.set(today)) {
+            return CompletionResult.ALREADY_COMPLETED;
+        }
+        int newStreak = habit.lastCompletedDay == today - 1 ? habit.currentStreak + 1 : 1;
+        habit.completedDays++;
+        habit.currentStreak = newStreak;
+        habit.bestStreak = Math.max(habit.bestStreak, newStreak);
+        habit.lastCompletedDay = Math.max(habit.lastCompletedDay, today);
+        changeListener.habitCompleted(habitId, userId, habit.bestStreak, weekCompletions(userId, today), today);
+        return CompletionResult.COMPLETED;
+    }
+
+    private int weekCompletions(long userId, long today) {
+        long weekStart = CommunityStats.weekStart(today);
+        int count = 0;
+        for (StoredHabit habit : userHabits(userId).values()) {
+            if (habit.history != null) {
+                count += habit.history.count(weekStart, today);
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized boolean deleteHabit(int habitId, long userId) {
+        StoredHabit habit = find(habitId, userId);
+        if (habit == null) {
+            return false;
+        }
+        habits.remove(habitId);
+        NavigableMap<Integer, StoredHabit> owned = habitsByUser.get(userId);
+        owned.remove(habitId);
+        if (owned.isEmpty()) {
+            habitsByUser.remove(userId);
+        }
+        long today = Habit.currentDay();
+        changeListener.habitDeleted(habitId, userId, weekCompletions(userId, today),
+                habit.history != null && habit.history.get(today));
+        return true;
+    }
+
+    @Override
+    public synchronized boolean updateHabitDescription(int habitId, long userId, String description) {
+        StoredHabit habit = find(habitId, userId);
+        if (habit == null) {
+            return false;
+        }
+        habit.description = description;
+        return true;
+    }
+
+    // Возвращается копия, чтобы вызывающий код не менял историю в обход completeHabit
+    @Override
+    public synchronized HabitHistory getHabitHistory(int habitId, long userId) {
+        StoredHabit habit = find(habitId, userId);
+        if (habit == null) {
+            return null;
+        }
+        return habit.history != null
+                ? HabitHistory.fromBytes(habit.history.getStartDay(), habit.history.toBytes())
+                : new HabitHistory(0);
+    }
+
+    // Просмотр всех привычек пользователя с теми же правилами, что и у FTS5: каждое слово запроса
+    // должно быть префиксом слова в названии или описании; совпадение в названии весит больше
+    @Override
+    public synchronized HabitPage searchHabits(long userId, String query, int offset, int limit) {
+        List<String> terms = DatabaseManager.searchTerms(query);
+        List<Habit> found = new ArrayList<>();
+        Map<Integer, Integer> scores = new HashMap<>();
+        if (!terms.isEmpty()) {
+            for (StoredHabit habit : userHabits(userId).values()) {
+                List<String> nameWords = words(habit.name);
+                List<String> descriptionWords = words(habit.description);
+                int score = 0;
+                for (String term : terms) {
+                    int termScore = (hasPrefix(nameWords, term) ? 10 : 0) + (hasPrefix(descriptionWords, term) ? 3 : 0);
+                    if (termScore == 0) {
+                        score = 0;
+                        break;
+                    }
+                    score += termScore;
+                }
+                if (score > 0) {
+                    found.add(habit.toHabit());
+                    scores.put(habit.id, score);
+                }
+            }
+        }
+        found.sort((a, b) -> scores.get(a.getId()).equals(scores.get(b.getId()))
+                ? Integer.compare(a.getId(), b.getId())
+                : Integer.compare(scores.get(b.getId()), scores.get(a.getId())));
+        int from = Math.min(offset, found.size());
+        int to = Math.min(offset + limit, found.size());
+        return new HabitPage(new ArrayList<>(found.subList(from, to)), offset > 0, to < found.size());
+    }
+
+    private static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        if (text != null) {
+            for (String word : text.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+                if (!word.isEmpty()) {
+                    words.add(word);
+                }
+            }
+        }
+        return words;
+    }
+
+    private static boolean hasPrefix(List<String> words, String prefix) {
+        for (String word : words) {
+            if (word.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean rebuildSearchIndex() {
+        return true;
+    }
+
+    @Override
+    public synchronized String getUserStats(long userId) {
+        // Без привычек - нулевая статистика, как у DatabaseManager
+        NavigableMap<Integer, StoredHabit> owned = userHabits(userId);
+        int completed = 0;
+        int days = 0;
+        for (StoredHabit habit : owned.values()) {
+            completed += habit.completedDays;
+            days += habit.totalDays;
+        }
+        return DatabaseManager.formatUserStats(owned.size(), completed, days);
+    }
+
+    // Статистика считается по привычкам при каждом запросе, пересчитывать нечего
+    @Override
+    public boolean rebuildUserStats() {
+        return true;
+    }
+
+    @Override
+    public int verifyUserStats() {
+        return 0;
+    }
+
+    @Override
+    public synchronized void saveConversationState(long userId, UserState state) {
+        conversations.put(userId, state);
+    }
+
+    @Override
+    public synchronized void deleteConversationState(long userId) {
+        conversations.remove(userId);
+    }
+
+    @Override
+    public synchronized void deleteExpiredConversationStates(long updatedBeforeMillis) {
+        conversations.values().removeIf(state -> state.updatedAtMillis < updatedBeforeMillis);
+    }
+
+    @Override
+    public synchronized Map<Long, UserState> loadConversationStates(long updatedAfterMillis) {
+        Map<Long, UserState> states = new HashMap<>();
+        for (Map.Entry<Long, UserState> entry : conversations.entrySet()) {
+            if (entry.getValue().updatedAtMillis >= updatedAfterMillis) {
+                states.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return states;
+    }
+
+    @Override
+    public synchronized boolean setHabitReminder(int habitId, long userId, int minuteOfDay) {
+        StoredHabit habit = find(habitId, userId);
+        if (habit == null) {
+            return false;
+        }
+        habit.reminderMinute = minuteOfDay >= 0 ? minuteOfDay : -1;
+        habit.reminderSentDay = 0;
+        return true;
+    }
+
+    // Полный просмотр привычек: для тестового хранилища это дешевле, чем поддерживать индекс
+    @Override
+    public int loadReminders(int afterMinute, int afterId, int toMinute, long day, int limit, ReminderSink sink) {
+        List<StoredHabit> due = new ArrayList<>();
+        synchronized (this) {
+            for (StoredHabit habit : habits.values()) {
+                int minute = habit.reminderMinute;
+                if (minute >= 0 && minute < toMinute && habit.reminderSentDay < day
+                        && (minute > afterMinute || minute == afterMinute && habit.id > afterId)) {
+                    due.add(habit);
+                }
+            }
+        }
+        due.sort((a, b) -> a.reminderMinute != b.reminderMinute
+                ? Integer.compare(a.reminderMinute, b.reminderMinute)
+                : Integer.compare(a.id, b.id));
+        int count = Math.min(limit, due.size());
+        for (int i = 0; i < count; i++) {
+            StoredHabit habit = due.get(i);
+            sink.accept(habit.id, habit.userId, habit.reminderMinute);
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized CompletableFuture<String> claimReminder(int habitId, long userId, int minuteOfDay,
+                                                                long day) {
+        StoredHabit habit = find(habitId, userId);
+        if (habit == null || habit.reminderMinute != minuteOfDay || habit.reminderSentDay >= day) {
+            return CompletableFuture.completedFuture(null);
+        }
+        habit.reminderSentDay = day;
+        return CompletableFuture.completedFuture(habit.name);
+    }
+
+    // Снимок берется под монитором, запись в sink идет уже без него
+    @Override
+    public long exportHabits(Long userId, HabitRecordSink sink) throws IOException {
+        List<HabitRecord> records = new ArrayList<>();
+        synchronized (this) {
+            Iterable<StoredHabit> source = userId == null
+                    ? new TreeMap<>(habits).values()
+                    : userHabits(userId).values();
+            for (StoredHabit habit : source) {
+                records.add(new HabitRecord(habit.toHabit(), completionDays(habit.history)));
+            }
+        }
+        for (HabitRecord record : records) {
+            sink.accept(record);
+        }
+        return records.size();
+    }
+
+    private static long[] completionDays(HabitHistory history) {
+        return history == null ? new long[0] : history.days();
+    }
+
+    @Override
+    public synchronized int importHabits(List<HabitRecord> records) {
+        for (HabitRecord record : records) {
+            Habit source = record.getHabit();
+            String created = source.getCreatedDate() != null
+                    ? source.getCreatedDate()
+                    : LocalDateTime.now(ZoneOffset.UTC).format(CREATED_FORMAT);
+            StoredHabit habit = new StoredHabit(++lastId, source.getUserId(), source.getName(),
+                    source.getDescription(), created);
+            habit.completedDays = source.getCompletedDays();
+            habit.totalDays = HabitRecord.totalDaysAt(habit.toHabit(), rolledOverDay);
+            habit.currentStreak = source.getStreakAtLastCompletion();
+            habit.bestStreak = source.getBestStreak();
+            habit.lastCompletedDay = source.getLastCompletedDay();
+            habit.reminderMinute = source.getReminderMinute();
+            if (record.getCompletionDays().length > 0) {
+                habit.history = HabitHistory.fromDays(record.getCompletionDays());
+            }
+            store(habit);
+            changeListener.habitAdded(habit.id, habit.userId, habit.bestStreak);
+        }
+        return records.size();
+    }
+
+    @Override
+    public synchronized long getRolledOverDay() {
+        return rolledOverDay;
+    }
+
+    // Все привычки переводятся за один вызов: в памяти нет транзакций, которые стоило бы дробить
+    @Override
+    public synchronized int rollOverChunk(long toDay, int limit) {
+        if (toDay <= rolledOverDay) {
+            return 0;
+        }
+        for (StoredHabit habit : habits.values()) {
+            long createdDay = habit.toHabit().getCreatedDay();
+            long days = toDay - Math.max(rolledOverDay, createdDay);
+            if (days > 0) {
+                habit.totalDays += (int) days;
+            }
+        }
+        rolledOverDay = toDay;
+        return habits.size();
+    }
+
+    // Журнала по дням в памяти нет: история хранится только битами, очищать нечего
+    @Override
+    public synchronized long getRetainedFromDay() {
+        return retainedFromDay;
+    }
+
+    @Override
+    public synchronized int trimJournalChunk(long beforeDay, int limit) {
+        retainedFromDay = Math.max(retainedFromDay, beforeDay);
+        return 0;
+    }
+
+    @Override
+    public int compactStorage(int maxPages) {
+        return 0;
+    }
+
+    @Override
+    public synchronized void setChangeListener(ChangeListener listener) {
+        changeListener = listener;
+    }
+
+    @Override
+    public synchronized boolean scanHabitScores(HabitScoreSink sink) {
+        for (NavigableMap<Integer, StoredHabit> owned : habitsByUser.values()) {
+            for (StoredHabit habit : owned.values()) {
+                if (!sink.accept(habit.id, habit.userId, habit.bestStreak, habit.history)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized String loadSnapshot(String name) {
+        return snapshots.get(name);
+    }
+
+    @Override
+    public synchronized void saveSnapshot(String name, String value) {
+        snapshots.put(name, value);
+    }
+
+    @Override
+    public void registerMetrics() {
+        Metrics.gauge("habit_memory_habits", "", this::habitCount);
+    }
+
+    private synchronized long habitCount() {
+        return habits.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        habits.clear();
+        habitsByUser.clear();
+        conversations.clear();
+    }
+}
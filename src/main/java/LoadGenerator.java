@@ -0,0 +1,330 @@
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageText;
+import org.telegram.telegrambots.meta.api.objects.Chat;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.User;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
+
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Нагрузочный прогон бота без Telegram. Каждый смоделированный пользователь в цикле проходит
+// сценарий /newhabit -> название -> описание -> /complete -> ID -> /stats: обновления подаются
+// в HabitTrackerBot.onUpdateReceived, а execute подменен заглушкой, которая кладет ответы бота
+// в очередь чата. Следующий шаг отправляется только после ответа на предыдущий (замкнутая нагрузка),
+// задержка шага - от onUpdateReceived до ответа, то есть диспетчер, база и очередь отправки вместе.
+//   java -cp habit-tracker.jar LoadGenerator [--users 50,100,200] [--duration 30] [--warmup 5]
+//        [--think-ms 0] [--backend sqlite|memory] [--db /tmp/load] [--shards N] [--timeout-ms 10000]
+// Несколько значений --users запускают ступени по очереди на одном боте: по росту задержек
+// и остановке роста пропускной способности видно точку насыщения.
+// Лимиты Telegram на отправку (HABIT_GLOBAL_RATE, HABIT_CHAT_RATE, HABIT_CHAT_BURST) снимаются,
+// если не заданы явно, иначе прогон измерял бы их, а не бота.
+public class LoadGenerator {
+
+    private static final String[] STEPS = {"/newhabit", "name", "description", "/complete", "id", "/stats"};
+    private static final int STEP_COMPLETE = 3;
+    private static final int STEP_ID = 4;
+    private static final long FIRST_USER_ID = 1_000_000_000L;
+    private static final String UNLIMITED_RATE = "1000000";
+
+    // Бот с подмененным клиентом Telegram: запросы не уходят в сеть, а попадают в очередь ответов чата
+    static class StubbedBot extends HabitTrackerBot {
+
+        private final Map<Long, BlockingQueue<BotApiMethod<?>>> replies = new ConcurrentHashMap<>();
+        private final AtomicInteger messageIds = new AtomicInteger();
+
+        StubbedBot(HabitRepository repository) {
+            super(repository);
+        }
+
+        BlockingQueue<BotApiMethod<?>> inbox(long chatId) {
+            return replies.computeIfAbsent(chatId, key -> new LinkedBlockingQueue<>());
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T extends Serializable, M extends BotApiMethod<T>> T execute(M method) {
+            if (method instanceof SendMessage) {
+                inbox(Long.parseLong(((SendMessage) method).getChatId())).offer(method);
+                Message sent = new Message();
+                sent.setMessageId(messageIds.incrementAndGet());
+                return (T) sent;
+            }
+            if (method instanceof EditMessageText) {
+                inbox(Long.parseLong(((EditMessageText) method).getChatId())).offer(method);
+            }
+            return (T) Boolean.TRUE;
+        }
+    }
+
+    // Результаты одной ступени нагрузки
+    private static final class StageStats {
+        final LatencyHistogram total = new LatencyHistogram();
+        final LatencyHistogram[] steps = new LatencyHistogram[STEPS.length];
+        final LongAdder conversations = new LongAdder();
+        final LongAdder timeouts = new LongAdder();
+
+        StageStats() {
+            for (int i = 0; i < steps.length; i++) {
+                steps[i] = new LatencyHistogram();
+            }
+        }
+    }
+
+    private final StubbedBot bot;
+    private final long thinkMillis;
+    private final long timeoutMillis;
+    private final AtomicInteger updateIds = new AtomicInteger();
+
+    LoadGenerator(StubbedBot bot, long thinkMillis, long timeoutMillis) {
+        this.bot = bot;
+        this.thinkMillis = thinkMillis;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] users = {50};
+        int durationSeconds = 30;
+        int warmupSeconds = 5;
+        long thinkMillis = 0;
+        long timeoutMillis = 10_000;
+        String backend = "sqlite";
+        String dbPrefix = null;
+        int shards = 1;
+
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                System.out.println("Не указано значение для " + option);
+                printUsage();
+                System.exit(2);
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--users":
+                    String[] parts = value.split(",");
+                    users = new int[parts.length];
+                    for (int j = 0; j < parts.length; j++) {
+                        users[j] = Integer.parseInt(parts[j].trim());
+                    }
+                    break;
+                case "--duration":
+                    durationSeconds = Integer.parseInt(value);
+                    break;
+                case "--warmup":
+                    warmupSeconds = Integer.parseInt(value);
+                    break;
+                case "--think-ms":
+                    thinkMillis = Long.parseLong(value);
+                    break;
+                case "--timeout-ms":
+                    timeoutMillis = Long.parseLong(value);
+                    break;
+                case "--backend":
+                    backend = value;
+                    break;
+                case "--db":
+                    dbPrefix = value;
+                    break;
+                case "--shards":
+                    shards = Integer.parseInt(value);
+                    break;
+                default:
+                    System.out.println("Неизвестный параметр " + option);
+                    printUsage();
+                    System.exit(2);
+            }
+        }
+
+        for (String key : new String[]{"HABIT_GLOBAL_RATE", "HABIT_CHAT_RATE", "HABIT_CHAT_BURST"}) {
+            if (BotConfig.get(key, null) == null) {
+                System.setProperty(key, UNLIMITED_RATE);
+            }
+        }
+
+        HabitRepository repository;
+        if ("memory".equalsIgnoreCase(backend)) {
+            repository = new InMemoryHabitRepository();
+            System.out.println("Хранилище: в памяти");
+        } else {
+            // По умолчанию - новые файлы во временном каталоге, чтобы не трогать рабочий habits.db
+            if (dbPrefix == null) {
+                dbPrefix = Files.createTempDirectory("habit-load").resolve("habits").toString();
+            }
+            if (shards > 1) {
+                repository = new ShardedHabitRepository(dbPrefix, shards);
+                System.out.println("Хранилище: " + shards + " шардов " + dbPrefix + "-N.db");
+            } else {
+                repository = new DatabaseManager("jdbc:sqlite:" + dbPrefix + ".db");
+                System.out.println("Хранилище: " + dbPrefix + ".db");
+            }
+        }
+
+        StubbedBot bot = new StubbedBot(repository);
+        bot.start();
+        LoadGenerator generator = new LoadGenerator(bot, thinkMillis, timeoutMillis);
+        System.out.printf("Шардов диспетчера: %d, ступень: %d с (прогрев %d с), пауза между шагами: %d мс%n%n",
+                BotConfig.dispatcherShards(), durationSeconds, warmupSeconds, thinkMillis);
+        System.out.printf("%8s %10s %10s %10s %10s %10s %10s%n",
+                "users", "updates/s", "dialogs/s", "p50 мс", "p99 мс", "p999 мс", "timeouts");
+        List<StageStats> stages = new ArrayList<>();
+        for (int stageUsers : users) {
+            StageStats stats = generator.runStage(stageUsers, warmupSeconds, durationSeconds);
+            stages.add(stats);
+            System.out.printf("%8d %10.1f %10.1f %10s %10s %10s %10d%n", stageUsers,
+                    (double) stats.total.getCount() / durationSeconds,
+                    (double) stats.conversations.sum() / durationSeconds,
+                    millis(stats.total.quantileMicros(0.5)), millis(stats.total.quantileMicros(0.99)),
+                    millis(stats.total.quantileMicros(0.999)), stats.timeouts.sum());
+        }
+
+        StageStats last = stages.get(stages.size() - 1);
+        System.out.printf("%nШаги сценария на последней ступени (%d польз.):%n", users[users.length - 1]);
+        System.out.printf("%-12s %10s %10s %10s %10s%n", "шаг", "count", "p50 мс", "p99 мс", "p999 мс");
+        for (int i = 0; i < STEPS.length; i++) {
+            LatencyHistogram step = last.steps[i];
+            System.out.printf("%-12s %10d %10s %10s %10s%n", STEPS[i], step.getCount(),
+                    millis(step.quantileMicros(0.5)), millis(step.quantileMicros(0.99)),
+                    millis(step.quantileMicros(0.999)));
+        }
+
+        bot.onClosing();
+        System.exit(0);
+    }
+
+    private static void printUsage() {
+        System.out.println("Использование: LoadGenerator [--users 50,100,200] [--duration 30] [--warmup 5] " +
+                "[--think-ms 0] [--backend sqlite|memory] [--db /tmp/load] [--shards N] [--timeout-ms 10000]");
+    }
+
+    private static String millis(long micros) {
+        return String.format("%.2f", micros / 1000.0);
+    }
+
+    // Запускает users пользователей на warmup + duration секунд; задержки прогрева не учитываются
+    StageStats runStage(int users, int warmupSeconds, int durationSeconds) throws InterruptedException {
+        StageStats stats = new StageStats();
+        long measureFrom = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long stopAt = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        List<Thread> threads = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            long userId = FIRST_USER_ID + i;
+            threads.add(Thread.ofVirtual().name("load-user-" + i)
+                    .start(() -> runUser(userId, stats, measureFrom, stopAt)));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return stats;
+    }
+
+    private void runUser(long userId, StageStats stats, long measureFrom, long stopAt) {
+        BlockingQueue<BotApiMethod<?>> inbox = bot.inbox(userId);
+        int iteration = 0;
+        try {
+            while (System.nanoTime() < stopAt) {
+                String habitId = null;
+                boolean finished = true;
+                for (int step = 0; step < STEPS.length && System.nanoTime() < stopAt; step++) {
+                    String text;
+                    switch (step) {
+                        case 1:
+                            text = "Привычка " + userId + "-" + iteration;
+                            break;
+                        case 2:
+                            text = "нагрузочный прогон";
+                            break;
+                        case STEP_ID:
+                            if (habitId == null) {
+                                continue;
+                            }
+                            text = habitId;
+                            break;
+                        default:
+                            text = STEPS[step];
+                    }
+
+                    // Опоздавшие ответы на шаг, не дождавшийся таймаута, не должны засчитываться следующему
+                    inbox.clear();
+                    long start = System.nanoTime();
+                    bot.onUpdateReceived(textUpdate(userId, text));
+                    BotApiMethod<?> reply = inbox.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+                    long elapsed = System.nanoTime() - start;
+                    if (reply == null) {
+                        stats.timeouts.increment();
+                        finished = false;
+                        break;
+                    }
+                    if (start >= measureFrom && System.nanoTime() < stopAt) {
+                        stats.total.recordNanos(elapsed);
+                        stats.steps[step].recordNanos(elapsed);
+                    }
+                    if (step == STEP_COMPLETE) {
+                        habitId = pickHabit(reply);
+                    }
+                    if (thinkMillis > 0) {
+                        Thread.sleep(thinkMillis);
+                    }
+                }
+                if (finished && System.nanoTime() < stopAt) {
+                    stats.conversations.increment();
+                }
+                iteration++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ID привычки из кнопок списка /complete: первая еще не отмеченная сегодня, иначе первая
+    private static String pickHabit(BotApiMethod<?> reply) {
+        if (!(reply instanceof SendMessage) ||
+                !(((SendMessage) reply).getReplyMarkup() instanceof InlineKeyboardMarkup)) {
+            return null;
+        }
+        InlineKeyboardMarkup markup = (InlineKeyboardMarkup) ((SendMessage) reply).getReplyMarkup();
+        String first = null;
+        for (List<InlineKeyboardButton> row : markup.getKeyboard()) {
+            for (InlineKeyboardButton button : row) {
+                String data = button.getCallbackData();
+                if (data == null || !data.startsWith("complete:id:")) {
+                    continue;
+                }
+                String id = data.substring("complete:id:".length());
+                if (!button.getText().startsWith("✅")) {
+                    return id;
+                }
+                if (first == null) {
+                    first = id;
+                }
+            }
+        }
+        return first;
+    }
+
+    private Update textUpdate(long userId, String text) {
+        User from = new User(userId, "load", false);
+        Message message = new Message();
+        message.setMessageId(updateIds.get());
+        message.setDate((int) (System.currentTimeMillis() / 1000));
+        message.setChat(new Chat(userId, "private"));
+        message.setFrom(from);
+        message.setText(text);
+        Update update = new Update();
+        update.setUpdateId(updateIds.incrementAndGet());
+        update.setMessage(message);
+        return update;
+    }
+}
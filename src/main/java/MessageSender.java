@@ -0,0 +1,296 @@
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.bots.AbsSender;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Асинхронная отправка исходящих сообщений в Telegram.
+// Соблюдает глобальный лимит и лимит на чат (token bucket), повторяет запросы
+// при 429/5xx с учетом retry_after и возвращает результат через CompletableFuture.
+// retry_after из ответа 429 приостанавливает и глобальный лимит: отправка во все чаты ждет.
+// В каждом чате одновременно выполняется не больше одного запроса, поэтому порядок сообщений сохраняется.
+public class MessageSender {
+
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long BASE_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final long IDLE_CHAT_MILLIS = 60_000;
+
+    private final AbsSender bot;
+    private final TokenBucket globalBucket;
+    private final double chatRatePerSecond;
+    private final int chatBurst;
+    private final int maxPending;
+
+    private final Map<Long, ChatQueue> chats = new ConcurrentHashMap<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+
+    public MessageSender(AbsSender bot) {
+        this(bot, BotConfig.globalRatePerSecond(), BotConfig.chatRatePerSecond(),
+                BotConfig.chatBurst(), BotConfig.senderQueueCapacity());
+    }
+
+    public MessageSender(AbsSender bot, double globalRatePerSecond, double chatRatePerSecond,
+                         int chatBurst, int maxPending) {
+        this.bot = bot;
+        this.globalBucket = new TokenBucket(globalRatePerSecond, globalRatePerSecond);
+        this.chatRatePerSecond = chatRatePerSecond;
+        this.chatBurst = chatBurst;
+        this.maxPending = maxPending;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::evictIdleChats, IDLE_CHAT_MILLIS, IDLE_CHAT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // Вызов Bot API, который выполняется из очереди чата
+    private interface Call<T extends Serializable> {
+        T execute(AbsSender bot) throws TelegramApiException;
+    }
+
+    // Ставит запрос в очередь чата и сразу возвращает управление
+    public <T extends Serializable> CompletableFuture<T> send(long chatId, BotApiMethod<T> method) {
+        return enqueue(chatId, method.getMethod(), bot -> bot.execute(method));
+    }
+
+    // SendDocument загружает файл multipart-запросом, у AbsSender для него отдельный execute
+    public CompletableFuture<Message> sendDocument(long chatId, SendDocument document) {
+        return enqueue(chatId, document.getMethod(), bot -> bot.execute(document));
+    }
+
+    private <T extends Serializable> CompletableFuture<T> enqueue(long chatId, String methodName, Call<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            future.completeExceptionally(new RejectedExecutionException("Очередь исходящих сообщений переполнена"));
+            return future;
+        }
+
+        OutboundRequest<T> request = new OutboundRequest<>(methodName, call, future);
+        while (true) {
+            ChatQueue chat = chats.computeIfAbsent(chatId, this::newChatQueue);
+            boolean schedule;
+            synchronized (chat) {
+                if (chat.removed) {
+                    continue;
+                }
+                chat.requests.addLast(request);
+                schedule = !chat.active;
+                chat.active = true;
+            }
+            if (schedule) {
+                schedule(chat, 0);
+            }
+            break;
+        }
+
+        future.whenComplete((result, error) -> {
+            if (error != null) {
+                System.out.println("Не удалось отправить сообщение в чат " + chatId + ": " + error.getMessage());
+            }
+        });
+        return future;
+    }
+
+    public int getQueueDepth() {
+        return pending.get();
+    }
+
+    public int getQueueCapacity() {
+        return maxPending;
+    }
+
+    public void shutdown() {
+        scheduler.shutdown();
+        workers.shutdown();
+        try {
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private ChatQueue newChatQueue(long chatId) {
+        // В группах Telegram разрешает около 20 сообщений в минуту
+        if (chatId < 0) {
+            return new ChatQueue(chatId, new TokenBucket(chatBurst, 20 / 60d));
+        }
+        return new ChatQueue(chatId, new TokenBucket(chatBurst, chatRatePerSecond));
+    }
+
+    private void schedule(ChatQueue chat, long delayNanos) {
+        try {
+            scheduler.schedule(() -> drain(chat), delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            failAll(chat, e);
+        }
+    }
+
+    // Выполняется в потоке планировщика: берет токены и передает запрос исполнителю
+    private void drain(ChatQueue chat) {
+        OutboundRequest<?> request;
+        synchronized (chat) {
+            request = chat.requests.peekFirst();
+            if (request == null) {
+                chat.active = false;
+                return;
+            }
+        }
+
+        long wait = chat.bucket.tryAcquire();
+        if (wait > 0) {
+            schedule(chat, wait);
+            return;
+        }
+        wait = globalBucket.tryAcquire();
+        if (wait > 0) {
+            chat.bucket.refund();
+            schedule(chat, wait);
+            return;
+        }
+
+        try {
+            workers.execute(() -> execute(chat, request));
+        } catch (RejectedExecutionException e) {
+            failAll(chat, e);
+        }
+    }
+
+    private <T extends Serializable> void execute(ChatQueue chat, OutboundRequest<T> request) {
+        String methodLabel = Metrics.label("method", request.methodName);
+        long start = System.nanoTime();
+        try {
+            T result = request.call.execute(bot);
+            Metrics.timer("habit_telegram_request_duration_seconds", methodLabel).recordSince(start);
+            finish(chat);
+            request.future.complete(result);
+        } catch (TelegramApiRequestException e) {
+            Metrics.timer("habit_telegram_request_duration_seconds", methodLabel).recordSince(start);
+            Integer code = e.getErrorCode();
+            Metrics.counter("habit_telegram_errors_total",
+                    methodLabel + "," + Metrics.label("code", String.valueOf(code))).increment();
+            if (code != null && code == 429) {
+                Integer retryAfter = e.getParameters() != null ? e.getParameters().getRetryAfter() : null;
+                long delayMillis = retryAfter != null ? retryAfter * 1000L : backoffMillis(request.attempts);
+                if (retryAfter != null) {
+                    // Flood wait Telegram действует на весь бот, поэтому ждут и остальные чаты
+                    globalBucket.pauseFor(TimeUnit.MILLISECONDS.toNanos(delayMillis));
+                }
+                retryOrFail(chat, request, e, delayMillis);
+            } else if (code != null && code >= 500) {
+                retryOrFail(chat, request, e, backoffMillis(request.attempts));
+            } else {
+                // Ошибки 4xx (кроме 429) повторять бессмысленно
+                finish(chat);
+                request.future.completeExceptionally(e);
+            }
+        } catch (TelegramApiException e) {
+            // Сетевая ошибка без ответа от сервера
+            Metrics.timer("habit_telegram_request_duration_seconds", methodLabel).recordSince(start);
+            Metrics.counter("habit_telegram_errors_total",
+                    methodLabel + "," + Metrics.label("code", "network")).increment();
+            retryOrFail(chat, request, e, backoffMillis(request.attempts));
+        } catch (RuntimeException e) {
+            finish(chat);
+            request.future.completeExceptionally(e);
+        }
+    }
+
+    private void retryOrFail(ChatQueue chat, OutboundRequest<?> request, Exception error, long delayMillis) {
+        request.attempts++;
+        if (request.attempts >= MAX_ATTEMPTS) {
+            finish(chat);
+            request.future.completeExceptionally(error);
+            return;
+        }
+        // Запрос остается первым в очереди чата, чтобы не нарушить порядок
+        schedule(chat, TimeUnit.MILLISECONDS.toNanos(delayMillis));
+    }
+
+    private long backoffMillis(int attempts) {
+        long backoff = BASE_BACKOFF_MILLIS << Math.min(attempts, 16);
+        return Math.min(backoff, MAX_BACKOFF_MILLIS);
+    }
+
+    // Убирает обработанный запрос из очереди и планирует следующий
+    private void finish(ChatQueue chat) {
+        synchronized (chat) {
+            chat.requests.pollFirst();
+            chat.lastActivityMillis = System.currentTimeMillis();
+        }
+        pending.decrementAndGet();
+        schedule(chat, 0);
+    }
+
+    private void failAll(ChatQueue chat, Exception error) {
+        synchronized (chat) {
+            OutboundRequest<?> request;
+            while ((request = chat.requests.pollFirst()) != null) {
+                pending.decrementAndGet();
+                request.future.completeExceptionally(error);
+            }
+            chat.active = false;
+        }
+    }
+
+    // Удаляет очереди чатов, которые давно простаивают и уже восстановили лимит
+    private void evictIdleChats() {
+        long now = System.currentTimeMillis();
+        Iterator<ChatQueue> iterator = chats.values().iterator();
+        while (iterator.hasNext()) {
+            ChatQueue chat = iterator.next();
+            synchronized (chat) {
+                if (!chat.active && chat.requests.isEmpty()
+                        && now - chat.lastActivityMillis > IDLE_CHAT_MILLIS && chat.bucket.isFull()) {
+                    chat.removed = true;
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private static class ChatQueue {
+        final long chatId;
+        final TokenBucket bucket;
+        final ArrayDeque<OutboundRequest<?>> requests = new ArrayDeque<>();
+        boolean active;
+        boolean removed;
+        long lastActivityMillis = System.currentTimeMillis();
+
+        ChatQueue(long chatId, TokenBucket bucket) {
+            this.chatId = chatId;
+            this.bucket = bucket;
+        }
+    }
+
+    private static class OutboundRequest<T extends Serializable> {
+        final String methodName;
+        final Call<T> call;
+        final CompletableFuture<T> future;
+        int attempts;
+
+        OutboundRequest(String methodName, Call<T> call, CompletableFuture<T> future) {
+            this.methodName = methodName;
+            this.call = call;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Делит длинный текст на части, которые помещаются в одно сообщение Telegram (4096 символов).
+// Режет по пустой строке между блоками, затем по переводу строки и только в крайнем случае
+// посреди строки, не разрывая суррогатные пары (эмодзи).
+public final class MessageSplitter {
+
+    public static final int TELEGRAM_LIMIT = 4096;
+
+    private MessageSplitter() {
+    }
+
+    public static List<String> split(String text) {
+        return split(text, TELEGRAM_LIMIT);
+    }
+
+    public static List<String> split(String text, int limit) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        int length = text.length();
+        while (length - start > limit) {
+            int end = lastBreak(text, start, limit, "\n\n");
+            if (end < 0) {
+                end = lastBreak(text, start, limit, "\n");
+            }
+            if (end < 0) {
+                end = start + limit;
+                if (Character.isHighSurrogate(text.charAt(end - 1))) {
+                    end--;
+                }
+            }
+            addPart(parts, text.substring(start, end));
+            start = end;
+            while (start < length && text.charAt(start) == '\n') {
+                start++;
+            }
+        }
+        addPart(parts, text.substring(start));
+        return parts;
+    }
+
+    // Конец части перед последним разделителем в пределах лимита, или -1
+    private static int lastBreak(String text, int start, int limit, String separator) {
+        int index = text.lastIndexOf(separator, start + limit - separator.length());
+        return index > start ? index : -1;
+    }
+
+    private static void addPart(List<String> parts, String part) {
+        String trimmed = part.strip();
+        if (!trimmed.isEmpty()) {
+            parts.add(trimmed);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Реестр метрик бота: гистограммы задержек, счетчики и датчики (gauge).
+// Метрика определяется именем и одной парой метка=значение.
+// renderPrometheus() отдает все метрики в текстовом формате Prometheus.
+public final class Metrics {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final Map<String, String> HELP = new ConcurrentHashMap<>();
+    private static final Map<String, Map<String, LatencyHistogram>> TIMERS = new ConcurrentHashMap<>();
+    private static final Map<String, Map<String, LongAdder>> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Map<String, LongSupplier>> GAUGES = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static void describe(String name, String help) {
+        HELP.put(name, help);
+    }
+
+    // labels - готовая строка меток, например command="/start"; пустая строка - без меток
+    public static LatencyHistogram timer(String name, String labels) {
+        return TIMERS.computeIfAbsent(name, key -> new ConcurrentHashMap<>())
+                .computeIfAbsent(labels, key -> new LatencyHistogram());
+    }
+
+    public static LongAdder counter(String name, String labels) {
+        return COUNTERS.computeIfAbsent(name, key -> new ConcurrentHashMap<>())
+                .computeIfAbsent(labels, key -> new LongAdder());
+    }
+
+    public static void gauge(String name, String labels, LongSupplier supplier) {
+        GAUGES.computeIfAbsent(name, key -> new ConcurrentHashMap<>()).put(labels, supplier);
+    }
+
+    public static String label(String name, String value) {
+        return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    public static String renderPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+
+        for (Map.Entry<String, Map<String, LatencyHistogram>> metric : new TreeMap<>(TIMERS).entrySet()) {
+            String name = metric.getKey();
+            header(out, name, "summary");
+            for (Map.Entry<String, LatencyHistogram> series : new TreeMap<>(metric.getValue()).entrySet()) {
+                String labels = series.getKey();
+                LatencyHistogram histogram = series.getValue();
+                for (double quantile : QUANTILES) {
+                    String quantileLabel = "quantile=\"" + quantile + "\"";
+                    out.append(name).append('{')
+                            .append(labels.isEmpty() ? quantileLabel : labels + "," + quantileLabel)
+                            .append("} ").append(histogram.quantileMicros(quantile) / 1_000_000d).append('\n');
+                }
+                line(out, name + "_sum", labels, String.valueOf(histogram.getSumMicros() / 1_000_000d));
+                line(out, name + "_count", labels, String.valueOf(histogram.getCount()));
+            }
+        }
+
+        for (Map.Entry<String, Map<String, LongAdder>> metric : new TreeMap<>(COUNTERS).entrySet()) {
+            header(out, metric.getKey(), "counter");
+            for (Map.Entry<String, LongAdder> series : new TreeMap<>(metric.getValue()).entrySet()) {
+                line(out, metric.getKey(), series.getKey(), String.valueOf(series.getValue().sum()));
+            }
+        }
+
+        for (Map.Entry<String, Map<String, LongSupplier>> metric : new TreeMap<>(GAUGES).entrySet()) {
+            header(out, metric.getKey(), "gauge");
+            for (Map.Entry<String, LongSupplier> series : new TreeMap<>(metric.getValue()).entrySet()) {
+                line(out, metric.getKey(), series.getKey(), String.valueOf(series.getValue().getAsLong()));
+            }
+        }
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type) {
+        String help = HELP.get(name);
+        if (help != null) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        }
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void line(StringBuilder out, String name, String labels, String value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+}
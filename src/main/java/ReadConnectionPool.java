@@ -0,0 +1,63 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Небольшой пул соединений только для чтения.
+// В режиме WAL читатели не блокируют друг друга и поток записи,
+// поэтому чтения распределяются по ядрам, а не ждут одно общее соединение.
+public class ReadConnectionPool implements AutoCloseable {
+
+    public interface ReadTask<T> {
+        T apply(CachedConnection connection) throws SQLException;
+    }
+
+    private static final long ACQUIRE_TIMEOUT_SECONDS = 5;
+
+    private final List<CachedConnection> all = new ArrayList<>();
+    private final BlockingQueue<CachedConnection> idle;
+
+    public ReadConnectionPool(String url, int size) throws SQLException {
+        this.idle = new ArrayBlockingQueue<>(Math.max(1, size));
+        for (int i = 0; i < Math.max(1, size); i++) {
+            CachedConnection connection = CachedConnection.open(url, true);
+            all.add(connection);
+            idle.add(connection);
+        }
+    }
+
+    public <T> T withConnection(ReadTask<T> task) throws SQLException {
+        CachedConnection connection;
+        try {
+            connection = idle.poll(ACQUIRE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Ожидание соединения прервано", e);
+        }
+        if (connection == null) {
+            throw new SQLException("Нет свободного соединения для чтения");
+        }
+        try {
+            return task.apply(connection);
+        } finally {
+            idle.add(connection);
+        }
+    }
+
+    public int getSize() {
+        return all.size();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    @Override
+    public void close() {
+        for (CachedConnection connection : all) {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+import java.util.Arrays;
+
+// Окно последних update_id для отбрасывания повторных доставок.
+// Telegram выдает update_id по возрастанию, но после недели без обновлений следующий id выбирается
+// случайно и может оказаться меньше прежних. Повторы приходят вскоре после оригинала, поэтому
+// достаточно кольцевой битовой карты на window идентификаторов ниже максимального увиденного:
+// бит id хранится в позиции id % window. При сдвиге максимума вперед освобождающиеся позиции
+// очищаются. id ниже окна считается началом новой последовательности: окно начинается заново с него.
+// 65536 идентификаторов занимают 8 КБ.
+public class RecentUpdateIds {
+
+    private final long[] bits;
+    private final int mask;
+    private long highest = Long.MIN_VALUE;
+
+    // window округляется вверх до степени двойки, не меньше 64
+    public RecentUpdateIds(int window) {
+        int size = Math.max(64, Integer.highestOneBit(Math.max(1, window - 1)) << 1);
+        this.bits = new long[size >>> 6];
+        this.mask = size - 1;
+    }
+
+    public int getWindow() {
+        return mask + 1;
+    }
+
+    // Запоминает id; false, если он уже встречался в окне
+    public synchronized boolean add(long updateId) {
+        if (highest == Long.MIN_VALUE) {
+            highest = updateId;
+            set(updateId);
+            return true;
+        }
+        if (updateId > highest) {
+            long gap = updateId - highest;
+            if (gap > mask) {
+                Arrays.fill(bits, 0L);
+            } else {
+                for (long id = highest + 1; id <= updateId; id++) {
+                    clear(id);
+                }
+            }
+            highest = updateId;
+            set(updateId);
+            return true;
+        }
+        if (highest - updateId > mask) {
+            // Новая последовательность после перерыва: прежнее окно к ней не относится
+            Arrays.fill(bits, 0L);
+            highest = updateId;
+            set(updateId);
+            return true;
+        }
+        int index = (int) (updateId & mask);
+        long bit = 1L << index;
+        if ((bits[index >>> 6] & bit) != 0) {
+            return false;
+        }
+        bits[index >>> 6] |= bit;
+        return true;
+    }
+
+    private void set(long id) {
+        int index = (int) (id & mask);
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    private void clear(long id) {
+        int index = (int) (id & mask);
+        bits[index >>> 6] &= ~(1L << index);
+    }
+}
@@ -0,0 +1,141 @@
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Планировщик ежедневных напоминаний.
+// В памяти держатся только напоминания на текущий и следующий час (ReminderWheel);
+// в начале каждого часа из SQLite постранично догружается следующий час.
+// Перед отправкой напоминание "забирается" в базе (reminder_sent_day), поэтому после
+// перезапуска в тот же день повторной отправки не будет.
+public class ReminderScheduler {
+
+    public interface Notifier {
+        void remind(long userId, int habitId, String habitName);
+    }
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final int LOAD_PAGE_SIZE = 5000;
+
+    private final HabitRepository dbManager;
+    private final Notifier notifier;
+    private final ScheduledExecutorService executor;
+    private ReminderWheel wheel;
+    // Напоминания с минутой меньше этой уже загружены в колесо
+    private long loadedUntilMinute;
+
+    public ReminderScheduler(HabitRepository dbManager, Notifier notifier) {
+        this.dbManager = dbManager;
+        this.notifier = notifier;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "reminder-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        executor.execute(() -> {
+            long now = currentMinute();
+            wheel = new ReminderWheel(now);
+            long nextHour = (now / 60 + 1) * 60;
+            // Остаток текущего часа и весь следующий час
+            load(now, nextHour);
+            load(nextHour, nextHour + 60);
+        });
+        executor.scheduleWithFixedDelay(this::tick, 1, 1, TimeUnit.SECONDS);
+    }
+
+    // Вызывается после изменения времени напоминания: если новое время попадает
+    // в уже загруженное окно, добавляем его в колесо сразу
+    public void onReminderChanged(int habitId, long userId, int minuteOfDay) {
+        if (minuteOfDay < 0) {
+            // Старые записи в колесе будут отброшены при попытке забрать напоминание
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                long now = currentMinute();
+                long due = nextOccurrence(now, minuteOfDay);
+                if (due < loadedUntilMinute) {
+                    wheel.schedule(due, habitId, userId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Планировщик остановлен
+        }
+    }
+
+    public long getPendingCount() {
+        ReminderWheel current = wheel;
+        return current != null ? current.size() : 0;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private void tick() {
+        try {
+            long now = currentMinute();
+            while (wheel.getCurrentMinute() <= now) {
+                long minute = wheel.getCurrentMinute();
+                // В начале часа догружаем час, который начнется через час
+                if (minute % 60 == 0 && loadedUntilMinute < minute + 120) {
+                    load(Math.max(loadedUntilMinute, minute + 60), minute + 120);
+                }
+                wheel.advanceTo(minute, this::fire);
+            }
+        } catch (Exception e) {
+            // Исключение в scheduleWithFixedDelay остановило бы все последующие запуски
+            e.printStackTrace();
+        }
+    }
+
+    private void fire(int habitId, long userId, long minute) {
+        int minuteOfDay = (int) (minute % MINUTES_PER_DAY);
+        long day = minute / MINUTES_PER_DAY;
+        dbManager.claimReminder(habitId, userId, minuteOfDay, day).whenComplete((habitName, error) -> {
+            if (error != null) {
+                error.printStackTrace();
+            } else if (habitName != null) {
+                notifier.remind(userId, habitId, habitName);
+            }
+        });
+    }
+
+    // Загружает напоминания с минутами [fromMinute, toMinute) постранично по ключу (минута, id)
+    private void load(long fromMinute, long toMinute) {
+        long minute = fromMinute;
+        while (minute < toMinute) {
+            long day = minute / MINUTES_PER_DAY;
+            long dayStart = day * MINUTES_PER_DAY;
+            long end = Math.min(toMinute, dayStart + MINUTES_PER_DAY);
+            int fromOfDay = (int) (minute - dayStart);
+            int toOfDay = (int) (end - dayStart);
+
+            int[] cursor = {fromOfDay, 0};
+            int loaded;
+            do {
+                loaded = dbManager.loadReminders(cursor[0], cursor[1], toOfDay, day, LOAD_PAGE_SIZE,
+                        (habitId, userId, minuteOfDay) -> {
+                            wheel.schedule(dayStart + minuteOfDay, habitId, userId);
+                            cursor[0] = minuteOfDay;
+                            cursor[1] = habitId;
+                        });
+            } while (loaded == LOAD_PAGE_SIZE);
+            minute = end;
+        }
+        loadedUntilMinute = Math.max(loadedUntilMinute, toMinute);
+    }
+
+    private static long nextOccurrence(long nowMinute, int minuteOfDay) {
+        long dayStart = nowMinute / MINUTES_PER_DAY * MINUTES_PER_DAY;
+        long due = dayStart + minuteOfDay;
+        return due >= nowMinute ? due : due + MINUTES_PER_DAY;
+    }
+
+    private static long currentMinute() {
+        return TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis());
+    }
+}
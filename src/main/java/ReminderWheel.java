@@ -0,0 +1,112 @@
+// Иерархическое колесо таймеров с шагом в одну минуту.
+// Нижний уровень - 60 минутных слотов текущего часа, верхний - 24 часовых слота.
+// При наступлении нового часа его слот переносится (cascade) в минутные слоты.
+// Напоминания хранятся в примитивных массивах слотов, без объекта на каждое напоминание,
+// массивы переиспользуются между оборотами колеса.
+// Класс не потокобезопасен: все вызовы идут из одного потока планировщика.
+public class ReminderWheel {
+
+    public interface Sink {
+        void fire(int habitId, long userId, long minute);
+    }
+
+    private final Slot[] minuteSlots = new Slot[60];
+    private final Slot[] hourSlots = new Slot[24];
+    // Следующая минута (от начала эпохи), которая еще не сработала
+    private long currentMinute;
+    private long size;
+
+    public ReminderWheel(long startMinute) {
+        for (int i = 0; i < minuteSlots.length; i++) {
+            minuteSlots[i] = new Slot();
+        }
+        for (int i = 0; i < hourSlots.length; i++) {
+            hourSlots[i] = new Slot();
+        }
+        this.currentMinute = startMinute;
+    }
+
+    // Добавляет напоминание на минуту dueMinute. Возвращает false, если минута уже прошла
+    // или лежит дальше, чем на сутки вперед
+    public boolean schedule(long dueMinute, int habitId, long userId) {
+        if (dueMinute < currentMinute) {
+            return false;
+        }
+        long dueHour = dueMinute / 60;
+        long currentHour = currentMinute / 60;
+        if (dueHour == currentHour) {
+            minuteSlots[(int) (dueMinute % 60)].add(habitId, userId, dueMinute);
+        } else if (dueHour - currentHour < hourSlots.length) {
+            hourSlots[(int) (dueHour % hourSlots.length)].add(habitId, userId, dueMinute);
+        } else {
+            return false;
+        }
+        size++;
+        return true;
+    }
+
+    // Срабатывают все минуты до nowMinute включительно (с догоном, если поток отставал)
+    public void advanceTo(long nowMinute, Sink sink) {
+        while (currentMinute <= nowMinute) {
+            if (currentMinute % 60 == 0) {
+                cascade(hourSlots[(int) ((currentMinute / 60) % hourSlots.length)]);
+            }
+            Slot slot = minuteSlots[(int) (currentMinute % 60)];
+            for (int i = 0; i < slot.size; i++) {
+                sink.fire(slot.habitIds[i], slot.userIds[i], currentMinute);
+            }
+            size -= slot.size;
+            slot.clear();
+            currentMinute++;
+        }
+    }
+
+    private void cascade(Slot hourSlot) {
+        for (int i = 0; i < hourSlot.size; i++) {
+            minuteSlots[(int) (hourSlot.dueMinutes[i] % 60)]
+                    .add(hourSlot.habitIds[i], hourSlot.userIds[i], hourSlot.dueMinutes[i]);
+        }
+        hourSlot.clear();
+    }
+
+    public long getCurrentMinute() {
+        return currentMinute;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    private static final class Slot {
+        private static final int INITIAL_CAPACITY = 16;
+        // Больше этого слот не держит после очистки, чтобы редкий всплеск не занимал память навсегда
+        private static final int RETAINED_CAPACITY = 4096;
+
+        int[] habitIds = new int[INITIAL_CAPACITY];
+        long[] userIds = new long[INITIAL_CAPACITY];
+        long[] dueMinutes = new long[INITIAL_CAPACITY];
+        int size;
+
+        void add(int habitId, long userId, long dueMinute) {
+            if (size == habitIds.length) {
+                int capacity = size * 2;
+                habitIds = java.util.Arrays.copyOf(habitIds, capacity);
+                userIds = java.util.Arrays.copyOf(userIds, capacity);
+                dueMinutes = java.util.Arrays.copyOf(dueMinutes, capacity);
+            }
+            habitIds[size] = habitId;
+            userIds[size] = userId;
+            dueMinutes[size] = dueMinute;
+            size++;
+        }
+
+        void clear() {
+            size = 0;
+            if (habitIds.length > RETAINED_CAPACITY) {
+                habitIds = new int[INITIAL_CAPACITY];
+                userIds = new long[INITIAL_CAPACITY];
+                dueMinutes = new long[INITIAL_CAPACITY];
+            }
+        }
+    }
+}
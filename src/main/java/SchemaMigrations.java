@@ -0,0 +1,261 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+// Версионированные миграции схемы базы.
+// Текущая версия хранится в PRAGMA user_version. При старте применяются по порядку
+// все шаги с номером больше текущей версии, каждый - в своей транзакции вместе
+// с обновлением user_version. Шаги написаны так, чтобы их можно было безопасно
+// повторить на уже существующем habits.db (IF NOT EXISTS, проверка колонок).
+public final class SchemaMigrations {
+
+    interface Step {
+        void apply(Statement stmt) throws SQLException;
+    }
+
+    private static final class Migration {
+        final int version;
+        final String description;
+        final Step step;
+
+        Migration(int version, String description, Step step) {
+            this.version = version;
+            this.description = description;
+            this.step = step;
+        }
+    }
+
+    private static final List<Migration> MIGRATIONS = new ArrayList<>();
+
+    static {
+        add(1, "таблица habits", stmt -> stmt.execute("CREATE TABLE IF NOT EXISTS habits (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "user_id INTEGER NOT NULL, " +
+                "name TEXT NOT NULL, " +
+                "description TEXT, " +
+                "created_date TEXT NOT NULL, " +
+                "completed_days INTEGER DEFAULT 0, " +
+                "total_days INTEGER DEFAULT 0)"));
+
+        // Индекс для всех запросов вида WHERE user_id = ? (и WHERE id = ? AND user_id = ?)
+        add(2, "индекс habits(user_id, id)", stmt ->
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_habits_user_id ON habits(user_id, id)"));
+
+        // Покрывающий индекс для прежнего getUserStats, который считал агрегат по habits.
+        // Статистика теперь читается из user_stats, индекс удаляется миграцией 13
+        add(3, "покрывающий индекс для статистики", stmt -> {
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_habits_user_stats " +
+                    "ON habits(user_id, completed_days, total_days)");
+            stmt.execute("ANALYZE habits");
+        });
+
+        // Журнал выполнений по дням: первичный ключ делает отметку идемпотентной в пределах дня
+        add(4, "журнал выполнений и серии", stmt -> {
+            stmt.execute("CREATE TABLE IF NOT EXISTS habit_completions (" +
+                    "habit_id INTEGER NOT NULL, " +
+                    "day INTEGER NOT NULL, " +
+                    "PRIMARY KEY (habit_id, day)) WITHOUT ROWID");
+            addColumnIfMissing(stmt, "habits", "current_streak", "INTEGER DEFAULT 0");
+            addColumnIfMissing(stmt, "habits", "best_streak", "INTEGER DEFAULT 0");
+            addColumnIfMissing(stmt, "habits", "last_completed_day", "INTEGER DEFAULT 0");
+        });
+
+        // Материализованная статистика пользователя, обновляется вместе с каждым изменением привычек
+        add(5, "таблица user_stats", stmt -> {
+            stmt.execute("CREATE TABLE IF NOT EXISTS user_stats (" +
+                    "user_id INTEGER PRIMARY KEY, " +
+                    "total_habits INTEGER NOT NULL DEFAULT 0, " +
+                    "total_completed INTEGER NOT NULL DEFAULT 0, " +
+                    "total_days INTEGER NOT NULL DEFAULT 0)");
+            stmt.execute(DatabaseManager.REBUILD_USER_STATS_SQL);
+        });
+
+        // Незавершенные диалоги, чтобы они переживали перезапуск бота
+        add(6, "таблица conversation_states", stmt -> {
+            stmt.execute("CREATE TABLE IF NOT EXISTS conversation_states (" +
+                    "user_id INTEGER PRIMARY KEY, " +
+                    "state TEXT NOT NULL, " +
+                    "temp_data TEXT, " +
+                    "temp_habit_id INTEGER NOT NULL DEFAULT 0, " +
+                    "updated_at INTEGER NOT NULL)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_conversation_states_updated " +
+                    "ON conversation_states(updated_at)");
+        });
+
+        // Время ежедневного напоминания (минута суток UTC) и день последней отправки
+        add(7, "напоминания", stmt -> {
+            addColumnIfMissing(stmt, "habits", "reminder_minute", "INTEGER");
+            addColumnIfMissing(stmt, "habits", "reminder_sent_day", "INTEGER NOT NULL DEFAULT 0");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_habits_reminder ON habits(reminder_minute, id) " +
+                    "WHERE reminder_minute IS NOT NULL");
+        });
+
+        // Компактная история выполнений: один бит на день (см. HabitHistory), заполняется из журнала
+        add(8, "битовая история выполнений", stmt -> {
+            stmt.execute("CREATE TABLE IF NOT EXISTS habit_history (" +
+                    "habit_id INTEGER PRIMARY KEY, " +
+                    "start_day INTEGER NOT NULL, " +
+                    "bits BLOB NOT NULL)");
+            backfillHistory(stmt.getConnection());
+        });
+
+        // Полнотекстовый поиск по названию и описанию (см. DatabaseManager.searchHabits).
+        // Индекс без хранения текста (content=''): каждое слово записывается как токен u<user_id>x<слово>,
+        // поэтому префиксный запрос читает только термы одного пользователя, а не общий список
+        // документов слова по всей базе. Индекс ведется в тех же транзакциях, что и изменения habits
+        add(9, "полнотекстовый поиск привычек", stmt -> {
+            stmt.execute("CREATE VIRTUAL TABLE IF NOT EXISTS habits_fts USING fts5(name, description, " +
+                    "content='', tokenize='unicode61 remove_diacritics 2')");
+            // Совпадение в названии весит больше, чем в описании
+            stmt.execute("INSERT INTO habits_fts (habits_fts, rank) VALUES ('rank', 'bm25(10.0, 3.0)')");
+            DatabaseManager.fillSearchIndex(stmt.getConnection());
+        });
+
+        // Курсор перевода дня (см. DayRollover). total_days раньше рос только при отметке и совпадал
+        // с completed_days; теперь это число дней с создания привычки по сегодня включительно
+        add(10, "перевод дня для total_days", stmt -> {
+            long today = Habit.currentDay();
+            stmt.execute("CREATE TABLE IF NOT EXISTS day_rollover (" +
+                    "id INTEGER PRIMARY KEY CHECK (id = 1), " +
+                    "rolled_day INTEGER NOT NULL, " +
+                    "target_day INTEGER NOT NULL, " +
+                    "last_id INTEGER NOT NULL DEFAULT 0)");
+            stmt.execute("INSERT OR IGNORE INTO day_rollover (id, rolled_day, target_day) " +
+                    "VALUES (1, " + today + ", " + today + ")");
+            stmt.execute("UPDATE habits SET total_days = MAX(completed_days, " + (today + 1) +
+                    " - CAST(julianday(substr(created_date, 1, 10)) - 2440587.5 AS INTEGER)) " +
+                    "WHERE julianday(substr(created_date, 1, 10)) IS NOT NULL");
+            stmt.execute("UPDATE user_stats SET total_habits = 0, total_completed = 0, total_days = 0");
+            stmt.execute(DatabaseManager.REBUILD_USER_STATS_SQL);
+        });
+
+        // Служебные снимки состояния в памяти, например лидербордов CommunityStats
+        add(11, "таблица snapshots", stmt -> stmt.execute("CREATE TABLE IF NOT EXISTS snapshots (" +
+                "name TEXT PRIMARY KEY, " +
+                "value TEXT NOT NULL, " +
+                "updated_at INTEGER NOT NULL)"));
+
+        // Хранение журнала (см. HistoryRetention): отметки старше горизонта удаляются из habit_completions,
+        // полная история по дням остается в habit_history. Курсор прохода - в history_retention,
+        // retained_from - с какого дня журнал хранит отметки у всех привычек
+        add(12, "срок хранения журнала", stmt -> {
+            stmt.execute("CREATE TABLE IF NOT EXISTS history_retention (" +
+                    "id INTEGER PRIMARY KEY CHECK (id = 1), " +
+                    "retained_from INTEGER NOT NULL, " +
+                    "target_from INTEGER NOT NULL, " +
+                    "last_id INTEGER NOT NULL DEFAULT 0)");
+            stmt.execute("INSERT OR IGNORE INTO history_retention (id, retained_from, target_from) VALUES (1, 0, 0)");
+        });
+
+        // getUserStats читает user_stats по первичному ключу; индекс (user_id, completed_days, total_days)
+        // нужен был только редким пересчету и сверке статистики, но переписывался при каждой отметке
+        // и при переводе дня - для каждой строки habits. Пересчет и сверка идут по idx_habits_user_id
+        add(13, "удаление индекса статистики", stmt ->
+                stmt.execute("DROP INDEX IF EXISTS idx_habits_user_stats"));
+    }
+
+    private static void backfillHistory(Connection connection) throws SQLException {
+        String selectSql = "SELECT habit_id, day FROM habit_completions ORDER BY habit_id, day";
+        String insertSql = "INSERT OR REPLACE INTO habit_history (habit_id, start_day, bits) VALUES (?, ?, ?)";
+        try (Statement select = connection.createStatement();
+             PreparedStatement insert = connection.prepareStatement(insertSql);
+             ResultSet rs = select.executeQuery(selectSql)) {
+            int habitId = -1;
+            int batched = 0;
+            HabitHistory history = null;
+            while (rs.next()) {
+                if (rs.getInt(1) != habitId) {
+                    addHistory(insert, habitId, history);
+                    if (history != null && ++batched % 1000 == 0) {
+                        insert.executeBatch();
+                    }
+                    habitId = rs.getInt(1);
+                    history = new HabitHistory(rs.getLong(2));
+                }
+                history.set(rs.getLong(2));
+            }
+            addHistory(insert, habitId, history);
+            insert.executeBatch();
+        }
+    }
+
+    private static void addHistory(PreparedStatement insert, int habitId, HabitHistory history) throws SQLException {
+        if (history == null) {
+            return;
+        }
+        insert.setInt(1, habitId);
+        insert.setLong(2, history.getStartDay());
+        insert.setBytes(3, history.toBytes());
+        insert.addBatch();
+    }
+
+    private SchemaMigrations() {
+    }
+
+    private static void add(int version, String description, Step step) {
+        MIGRATIONS.add(new Migration(version, description, step));
+    }
+
+    public static int latestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+    }
+
+    // Применяет недостающие миграции. Вызывается до запуска потока записи
+    public static void migrate(Connection connection) throws SQLException {
+        int current = currentVersion(connection);
+        if (current > latestVersion()) {
+            throw new SQLException("Версия схемы базы (" + current + ") новее, чем поддерживает бот (" +
+                    latestVersion() + ")");
+        }
+
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version <= current) {
+                continue;
+            }
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (Statement stmt = connection.createStatement()) {
+                migration.step.apply(stmt);
+                stmt.execute("PRAGMA user_version = " + migration.version);
+                connection.commit();
+                System.out.println("Миграция " + migration.version + " применена: " + migration.description);
+            } catch (SQLException e) {
+                connection.rollback();
+                throw new SQLException("Ошибка миграции " + migration.version + " (" +
+                        migration.description + ")", e);
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    public static int currentVersion(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    // ALTER TABLE ADD COLUMN не поддерживает IF NOT EXISTS, поэтому проверяем вручную
+    static void addColumnIfMissing(Statement stmt, String table, String column, String definition)
+            throws SQLException {
+        if (!hasColumn(stmt, table, column)) {
+            stmt.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+        }
+    }
+
+    static boolean hasColumn(Statement stmt, String table, String column) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,319 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+// Хранилище из N файлов SQLite: пользователь закреплен за файлом по хэшу userId, у каждого
+// файла свой поток записи и свой пул чтения. Записи разных пользователей не ждут одну
+// блокировку базы, поэтому пропускная способность записи растет с числом шардов.
+// Все операции пользователя идут в его шард; обходы всей базы (напоминания, экспорт,
+// пересчет статистики, загрузка диалогов) опрашивают шарды по очереди.
+// id привычек выдаются из непересекающихся диапазонов (см. DatabaseManager(String, int, int)).
+// Число шардов нельзя менять на существующих файлах: данные переносятся экспортом и импортом.
+public class ShardedHabitRepository implements HabitRepository {
+
+    private final DatabaseManager[] shards;
+
+    // pathPrefix - путь без номера, например habits: файлы habits-0.db ... habits-(N-1).db
+    public ShardedHabitRepository(String pathPrefix, int shardCount) {
+        shards = new DatabaseManager[shardCount];
+        int rangeSize = Integer.MAX_VALUE / shardCount;
+        int cacheShare = Math.max(1, BotConfig.habitCacheMaxHabits() / shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new DatabaseManager("jdbc:sqlite:" + pathPrefix + "-" + i + ".db", i * rangeSize,
+                    cacheShare);
+        }
+    }
+
+    // То же перемешивание, что и в UpdateDispatcher, чтобы последовательные id ложились равномерно
+    static int shardIndex(long userId, int shardCount) {
+        long h = userId * 0x9E3779B97F4A7C15L;
+        return (int) (((h ^ (h >>> 32)) & Integer.MAX_VALUE) % shardCount);
+    }
+
+    private DatabaseManager shard(long userId) {
+        return shards[shardIndex(userId, shards.length)];
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    @Override
+    public boolean addHabit(long userId, String name, String description) {
+        return shard(userId).addHabit(userId, name, description);
+    }
+
+    @Override
+    public List<Habit> getUserHabits(long userId) {
+        return shard(userId).getUserHabits(userId);
+    }
+
+    @Override
+    public HabitPage getHabitPage(long userId, int anchorId, boolean forward, int pageSize) {
+        return shard(userId).getHabitPage(userId, anchorId, forward, pageSize);
+    }
+
+    @Override
+    public Habit getHabitById(int habitId, long userId) {
+        return shard(userId).getHabitById(habitId, userId);
+    }
+
+    @Override
+    public CompletionResult completeHabit(int habitId, long userId) {
+        return shard(userId).completeHabit(habitId, userId);
+    }
+
+    @Override
+    public boolean deleteHabit(int habitId, long userId) {
+        return shard(userId).deleteHabit(habitId, userId);
+    }
+
+    @Override
+    public boolean updateHabitDescription(int habitId, long userId, String description) {
+        return shard(userId).updateHabitDescription(habitId, userId, description);
+    }
+
+    @Override
+    public HabitHistory getHabitHistory(int habitId, long userId) {
+        return shard(userId).getHabitHistory(habitId, userId);
+    }
+
+    @Override
+    public HabitPage searchHabits(long userId, String query, int offset, int limit) {
+        return shard(userId).searchHabits(userId, query, offset, limit);
+    }
+
+    @Override
+    public boolean rebuildSearchIndex() {
+        boolean rebuilt = true;
+        for (DatabaseManager shard : shards) {
+            rebuilt &= shard.rebuildSearchIndex();
+        }
+        return rebuilt;
+    }
+
+    @Override
+    public String getUserStats(long userId) {
+        return shard(userId).getUserStats(userId);
+    }
+
+    @Override
+    public boolean rebuildUserStats() {
+        boolean rebuilt = true;
+        for (DatabaseManager shard : shards) {
+            rebuilt &= shard.rebuildUserStats();
+        }
+        return rebuilt;
+    }
+
+    @Override
+    public int verifyUserStats() {
+        int mismatched = 0;
+        for (DatabaseManager shard : shards) {
+            int shardMismatched = shard.verifyUserStats();
+            if (shardMismatched < 0) {
+                return -1;
+            }
+            mismatched += shardMismatched;
+        }
+        return mismatched;
+    }
+
+    @Override
+    public void saveConversationState(long userId, UserState state) {
+        shard(userId).saveConversationState(userId, state);
+    }
+
+    @Override
+    public void deleteConversationState(long userId) {
+        shard(userId).deleteConversationState(userId);
+    }
+
+    @Override
+    public void deleteExpiredConversationStates(long updatedBeforeMillis) {
+        for (DatabaseManager shard : shards) {
+            shard.deleteExpiredConversationStates(updatedBeforeMillis);
+        }
+    }
+
+    @Override
+    public Map<Long, UserState> loadConversationStates(long updatedAfterMillis) {
+        Map<Long, UserState> states = new HashMap<>();
+        for (DatabaseManager shard : shards) {
+            states.putAll(shard.loadConversationStates(updatedAfterMillis));
+        }
+        return states;
+    }
+
+    @Override
+    public boolean setHabitReminder(int habitId, long userId, int minuteOfDay) {
+        return shard(userId).setHabitReminder(habitId, userId, minuteOfDay);
+    }
+
+    // Каждый шард отдает до limit строк после курсора, результаты сливаются по (минута, id)
+    // и в sink уходят первые limit. Следующая страница начинается с последней отданной строки,
+    // поэтому строки, не попавшие в limit, будут прочитаны снова, а не потеряны
+    @Override
+    public int loadReminders(int afterMinute, int afterId, int toMinute, long day, int limit, ReminderSink sink) {
+        if (shards.length == 1) {
+            return shards[0].loadReminders(afterMinute, afterId, toMinute, day, limit, sink);
+        }
+        List<long[]> due = new ArrayList<>();
+        for (DatabaseManager shard : shards) {
+            shard.loadReminders(afterMinute, afterId, toMinute, day, limit,
+                    (habitId, userId, minuteOfDay) -> due.add(new long[]{minuteOfDay, habitId, userId}));
+        }
+        due.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        int count = Math.min(limit, due.size());
+        for (int i = 0; i < count; i++) {
+            long[] row = due.get(i);
+            sink.accept((int) row[1], row[2], (int) row[0]);
+        }
+        return count;
+    }
+
+    @Override
+    public CompletableFuture<String> claimReminder(int habitId, long userId, int minuteOfDay, long day) {
+        return shard(userId).claimReminder(habitId, userId, minuteOfDay, day);
+    }
+
+    // Выгрузка одного пользователя читает только его шард, полная - все шарды по очереди
+    @Override
+    public long exportHabits(Long userId, HabitRecordSink sink) throws IOException {
+        if (userId != null) {
+            return shard(userId).exportHabits(userId, sink);
+        }
+        long total = 0;
+        for (DatabaseManager shard : shards) {
+            long count = shard.exportHabits(null, sink);
+            if (count < 0) {
+                return -1;
+            }
+            total += count;
+        }
+        return total;
+    }
+
+    // Пачка раскладывается по шардам владельцев; каждый шард применяет свою часть одной транзакцией.
+    // Общей транзакции на несколько файлов нет: при ошибке части, уже примененные в других шардах, остаются
+    @Override
+    public int importHabits(List<HabitRecord> records) {
+        List<List<HabitRecord>> byShard = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            byShard.add(new ArrayList<>());
+        }
+        for (HabitRecord record : records) {
+            byShard.get(shardIndex(record.getHabit().getUserId(), shards.length)).add(record);
+        }
+        int inserted = 0;
+        for (int i = 0; i < shards.length; i++) {
+            if (byShard.get(i).isEmpty()) {
+                continue;
+            }
+            int shardInserted = shards[i].importHabits(byShard.get(i));
+            if (shardInserted < 0) {
+                return -1;
+            }
+            inserted += shardInserted;
+        }
+        return inserted;
+    }
+
+    @Override
+    public long getRolledOverDay() {
+        long rolledOverDay = Long.MAX_VALUE;
+        for (DatabaseManager shard : shards) {
+            rolledOverDay = Math.min(rolledOverDay, shard.getRolledOverDay());
+        }
+        return rolledOverDay;
+    }
+
+    // Шарды переводятся по очереди: пачка уходит в первый шард, который еще не дошел до toDay
+    @Override
+    public int rollOverChunk(long toDay, int limit) {
+        for (DatabaseManager shard : shards) {
+            if (shard.getRolledOverDay() < toDay) {
+                return shard.rollOverChunk(toDay, limit);
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public long getRetainedFromDay() {
+        long retainedFrom = Long.MAX_VALUE;
+        for (DatabaseManager shard : shards) {
+            retainedFrom = Math.min(retainedFrom, shard.getRetainedFromDay());
+        }
+        return retainedFrom;
+    }
+
+    // Как и перевод дня, шарды очищаются по очереди
+    @Override
+    public int trimJournalChunk(long beforeDay, int limit) {
+        for (DatabaseManager shard : shards) {
+            if (shard.getRetainedFromDay() < beforeDay) {
+                return shard.trimJournalChunk(beforeDay, limit);
+            }
+        }
+        return 0;
+    }
+
+    // Шаг освобождает страницы первого шарда, где они есть, чтобы не держать все файлы разом
+    @Override
+    public int compactStorage(int maxPages) {
+        for (DatabaseManager shard : shards) {
+            int freed = shard.compactStorage(maxPages);
+            if (freed != 0) {
+                return freed;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void setChangeListener(ChangeListener listener) {
+        for (DatabaseManager shard : shards) {
+            shard.setChangeListener(listener);
+        }
+    }
+
+    // Пользователь целиком в одном шарде, поэтому его привычки идут подряд и при обходе по шардам
+    @Override
+    public boolean scanHabitScores(HabitScoreSink sink) {
+        for (DatabaseManager shard : shards) {
+            if (!shard.scanHabitScores(sink)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Снимки общие для всех пользователей и хранятся в первом шарде
+    @Override
+    public String loadSnapshot(String name) {
+        return shards[0].loadSnapshot(name);
+    }
+
+    @Override
+    public void saveSnapshot(String name, String value) {
+        shards[0].saveSnapshot(name, value);
+    }
+
+    @Override
+    public void registerMetrics() {
+        for (int i = 0; i < shards.length; i++) {
+            shards[i].registerMetrics(Metrics.label("shard", String.valueOf(i)));
+        }
+    }
+
+    @Override
+    public void close() {
+        for (DatabaseManager shard : shards) {
+            shard.close();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Шаблон текста с местами "{}" для значений. Разбирается один раз при загрузке класса;
+// заполнение - только append литералов и значений, без разбора формата и упаковки чисел,
+// как это делает String.format на каждом вызове.
+final class TextTemplate {
+
+    private static final String SLOT = "{}";
+
+    private final String[] literals;
+
+    private TextTemplate(String[] literals) {
+        this.literals = literals;
+    }
+
+    static TextTemplate compile(String pattern) {
+        List<String> parts = new ArrayList<>();
+        int from = 0;
+        int slot;
+        while ((slot = pattern.indexOf(SLOT, from)) >= 0) {
+            parts.add(pattern.substring(from, slot));
+            from = slot + SLOT.length();
+        }
+        parts.add(pattern.substring(from));
+        return new TextTemplate(parts.toArray(new String[0]));
+    }
+
+    // Литерал перед значением с номером index (и хвост шаблона при index == числу мест)
+    StringBuilder literal(StringBuilder out, int index) {
+        return out.append(literals[index]);
+    }
+
+    StringBuilder render(StringBuilder out, int first, String second) {
+        literal(out, 0).append(first);
+        literal(out, 1).append(second);
+        return literal(out, 2);
+    }
+
+    StringBuilder render(StringBuilder out, int first, String second, String third, String fourth) {
+        literal(out, 0).append(first);
+        literal(out, 1).append(second);
+        literal(out, 2).append(third);
+        literal(out, 3).append(fourth);
+        return literal(out, 4);
+    }
+}
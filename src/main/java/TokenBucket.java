@@ -0,0 +1,58 @@
+// Token bucket для ограничения частоты запросов.
+// Токены пополняются непрерывно со скоростью ratePerSecond, но не больше capacity.
+// pauseFor останавливает выдачу и пополнение токенов до конца паузы.
+public class TokenBucket {
+
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucket(double capacity, double ratePerSecond) {
+        this.capacity = capacity;
+        this.tokensPerNano = ratePerSecond / 1_000_000_000d;
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    // Пытается взять один токен. Возвращает 0 при успехе,
+    // иначе - сколько наносекунд нужно подождать до появления токена.
+    public synchronized long tryAcquire() {
+        long now = System.nanoTime();
+        if (now < lastRefillNanos) {
+            return lastRefillNanos - now;
+        }
+        refill();
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - tokens) / tokensPerNano));
+    }
+
+    // Возвращает токен, если запрос так и не был отправлен
+    public synchronized void refund() {
+        tokens = Math.min(capacity, tokens + 1);
+    }
+
+    // Обнуляет токены и не выдает новые nanos наносекунд (более длинная пауза не сокращается)
+    public synchronized void pauseFor(long nanos) {
+        refill();
+        tokens = 0;
+        lastRefillNanos = Math.max(lastRefillNanos, System.nanoTime() + nanos);
+    }
+
+    public synchronized boolean isFull() {
+        refill();
+        return tokens >= capacity;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (now < lastRefillNanos) {
+            return;
+        }
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,110 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+// Лучшие ключи по очкам с запасом: в памяти держится не больше capacity записей
+// (упорядоченное множество по (очки, ключ) + индекс ключ -> запись), изменение за O(log capacity).
+// Очки передаются абсолютным значением, поэтому ключ, вытесненный раньше, возвращается при
+// следующем изменении. floor - наибольшие очки среди вытесненных и не принятых ключей: записи
+// не ниже floor упорядочены верно, ниже - могут уступать ключам, которых нет в памяти.
+// Класс не потокобезопасен: доступ под монитором владельца (CommunityStats).
+class TopK {
+
+    static final class Entry {
+        final long key;
+        final long owner;
+        final long score;
+
+        Entry(long key, long owner, long score) {
+            this.key = key;
+            this.owner = owner;
+            this.score = score;
+        }
+    }
+
+    private static final Comparator<Entry> ORDER = Comparator.<Entry>comparingLong(entry -> entry.score)
+            .thenComparing(entry -> -entry.key);
+
+    private final int capacity;
+    private final TreeSet<Entry> ordered = new TreeSet<>(ORDER);
+    private final Map<Long, Entry> byKey = new HashMap<>();
+    private long floor;
+
+    TopK(int capacity) {
+        this.capacity = capacity;
+    }
+
+    // Новые очки ключа; очки <= 0 удаляют его
+    void put(long key, long owner, long score) {
+        remove(key);
+        if (score <= 0) {
+            return;
+        }
+        Entry entry = new Entry(key, owner, score);
+        if (ordered.size() >= capacity) {
+            Entry lowest = ordered.first();
+            if (ORDER.compare(entry, lowest) < 0) {
+                floor = Math.max(floor, score);
+                return;
+            }
+            ordered.pollFirst();
+            byKey.remove(lowest.key);
+            floor = Math.max(floor, lowest.score);
+        }
+        ordered.add(entry);
+        byKey.put(key, entry);
+    }
+
+    void remove(long key) {
+        Entry existing = byKey.remove(key);
+        if (existing != null) {
+            ordered.remove(existing);
+        }
+    }
+
+    void clear() {
+        ordered.clear();
+        byKey.clear();
+        floor = 0;
+    }
+
+    // До k лучших записей, порядок которых гарантирован (очки не ниже floor)
+    List<Entry> top(int k) {
+        List<Entry> result = new ArrayList<>(k);
+        Iterator<Entry> iterator = ordered.descendingIterator();
+        while (result.size() < k && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.score < floor) {
+                break;
+            }
+            result.add(entry);
+        }
+        return result;
+    }
+
+    // false, если верных записей меньше k, а за пределами памяти есть ключи: нужна пересборка
+    boolean isComplete(int k) {
+        return floor == 0 || top(k).size() >= k;
+    }
+
+    long getFloor() {
+        return floor;
+    }
+
+    // Восстановление из снимка: записи и floor как были сохранены
+    void restore(List<Entry> entries, long savedFloor) {
+        clear();
+        for (Entry entry : entries) {
+            put(entry.key, entry.owner, entry.score);
+        }
+        floor = Math.max(floor, savedFloor);
+    }
+
+    List<Entry> entries() {
+        return new ArrayList<>(ordered);
+    }
+}
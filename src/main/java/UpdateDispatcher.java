@@ -0,0 +1,93 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Распределяет обработку обновлений по шардам в зависимости от userId.
+// Каждый шард - один поток со своей ограниченной очередью, поэтому обновления
+// одного пользователя обрабатываются строго по порядку, а разные пользователи - параллельно.
+public class UpdateDispatcher {
+
+    private final ThreadPoolExecutor[] shards;
+    private final int queueCapacity;
+
+    public UpdateDispatcher(int shardCount, int queueCapacity) {
+        this.shards = new ThreadPoolExecutor[Math.max(1, shardCount)];
+        this.queueCapacity = queueCapacity;
+
+        for (int i = 0; i < shards.length; i++) {
+            String threadName = "update-shard-" + i;
+            shards[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, threadName);
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    new ThreadPoolExecutor.AbortPolicy());
+        }
+    }
+
+    // Ставит задачу в очередь шарда пользователя. Возвращает false, если очередь переполнена.
+    public boolean dispatch(long userId, Runnable task) {
+        ThreadPoolExecutor shard = shards[shardIndex(userId)];
+        try {
+            shard.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    // Ошибка одного обновления не должна останавливать поток шарда
+                    e.printStackTrace();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private int shardIndex(long userId) {
+        // Перемешиваем биты, чтобы последовательные id равномерно ложились по шардам
+        long h = userId * 0x9E3779B97F4A7C15L;
+        return (int) (((h ^ (h >>> 32)) & Integer.MAX_VALUE) % shards.length);
+    }
+
+    // Суммарное количество обновлений, ожидающих обработки во всех шардах
+    public int getQueueDepth() {
+        int depth = 0;
+        for (ThreadPoolExecutor shard : shards) {
+            depth += shard.getQueue().size();
+        }
+        return depth;
+    }
+
+    // Максимальная глубина очереди среди шардов - показывает перекос нагрузки
+    public int getMaxShardQueueDepth() {
+        int max = 0;
+        for (ThreadPoolExecutor shard : shards) {
+            max = Math.max(max, shard.getQueue().size());
+        }
+        return max;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity * shards.length;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public void shutdown() {
+        for (ThreadPoolExecutor shard : shards) {
+            shard.shutdown();
+        }
+        try {
+            for (ThreadPoolExecutor shard : shards) {
+                shard.awaitTermination(5, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Входной фильтр обновлений перед UpdateDispatcher: отбрасывает повторные доставки по update_id
+// и ограничивает число обновлений в обработке - на пользователя и всего. Лишнее не ставится в очередь,
+// а сразу отклоняется, чтобы при всплеске бот отвечал коротким отказом, а не отставал на минуты.
+// Каждое принятое обновление должно быть освобождено через release(userId) после обработки.
+public class UpdateIngest {
+
+    public enum Decision {
+        ACCEPTED,
+        DUPLICATE,
+        USER_BUSY,
+        OVERLOADED
+    }
+
+    private final RecentUpdateIds recentIds;
+    private final int maxPerUser;
+    private final int maxTotal;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // Значения малы, поэтому Integer берется из кэша и счетчик не выделяет память
+    private final ConcurrentHashMap<Long, Integer> inFlightByUser = new ConcurrentHashMap<>();
+
+    public UpdateIngest(int dedupWindow, int maxPerUser, int maxTotal) {
+        this.recentIds = new RecentUpdateIds(dedupWindow);
+        this.maxPerUser = maxPerUser;
+        this.maxTotal = maxTotal;
+    }
+
+    // updateId == null - обновление без идентификатора, повтор не проверяется
+    public Decision admit(Integer updateId, long userId) {
+        if (updateId != null && !recentIds.add(updateId)) {
+            return Decision.DUPLICATE;
+        }
+        if (inFlight.incrementAndGet() > maxTotal) {
+            inFlight.decrementAndGet();
+            return Decision.OVERLOADED;
+        }
+        boolean[] admitted = {false};
+        inFlightByUser.compute(userId, (key, count) -> {
+            int current = count == null ? 0 : count;
+            if (current >= maxPerUser) {
+                return count;
+            }
+            admitted[0] = true;
+            return current + 1;
+        });
+        if (!admitted[0]) {
+            inFlight.decrementAndGet();
+            return Decision.USER_BUSY;
+        }
+        return Decision.ACCEPTED;
+    }
+
+    public void release(long userId) {
+        inFlightByUser.computeIfPresent(userId, (key, count) -> count <= 1 ? null : count - 1);
+        inFlight.decrementAndGet();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getBusyUsers() {
+        return inFlightByUser.size();
+    }
+}
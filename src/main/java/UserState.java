@@ -0,0 +1,30 @@
+// Состояние незавершенного диалога пользователя. Объект неизменяемый:
+// при переходе на следующий шаг создается новый
+public final class UserState {
+
+    public static final int NO_HABIT = 0;
+
+    final ConversationState state;
+    final String tempData;
+    final int tempHabitId;
+    final long updatedAtMillis;
+
+    UserState(ConversationState state) {
+        this(state, null, NO_HABIT);
+    }
+
+    UserState(ConversationState state, String tempData) {
+        this(state, tempData, NO_HABIT);
+    }
+
+    UserState(ConversationState state, String tempData, int tempHabitId) {
+        this(state, tempData, tempHabitId, System.currentTimeMillis());
+    }
+
+    UserState(ConversationState state, String tempData, int tempHabitId, long updatedAtMillis) {
+        this.state = state;
+        this.tempData = tempData;
+        this.tempHabitId = tempHabitId;
+        this.updatedAtMillis = updatedAtMillis;
+    }
+}
@@ -0,0 +1,82 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Хранилище состояний диалогов.
+// Брошенные диалоги удаляются по истечении ttl, поэтому память зависит только от числа
+// активных диалогов. При включенной персистентности состояния пишутся в базу
+// (асинхронно, через поток записи) и восстанавливаются после перезапуска.
+public class UserStateStore {
+
+    private static final long SWEEP_INTERVAL_SECONDS = 60;
+
+    private final Map<Long, UserState> states = new ConcurrentHashMap<>();
+    private final long ttlMillis;
+    private final HabitRepository dbManager;
+    private final ScheduledExecutorService sweeper;
+
+    // dbManager == null - состояния хранятся только в памяти
+    public UserStateStore(long ttlMillis, HabitRepository dbManager) {
+        this.ttlMillis = ttlMillis;
+        this.dbManager = dbManager;
+        if (dbManager != null) {
+            states.putAll(dbManager.loadConversationStates(System.currentTimeMillis() - ttlMillis));
+        }
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "user-state-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::evictExpired, SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
+    public UserState get(long userId) {
+        UserState state = states.get(userId);
+        if (state != null && isExpired(state, System.currentTimeMillis())) {
+            remove(userId);
+            return null;
+        }
+        return state;
+    }
+
+    public void put(long userId, UserState state) {
+        states.put(userId, state);
+        if (dbManager != null) {
+            dbManager.saveConversationState(userId, state);
+        }
+    }
+
+    public void remove(long userId) {
+        if (states.remove(userId) != null && dbManager != null) {
+            dbManager.deleteConversationState(userId);
+        }
+    }
+
+    public int size() {
+        return states.size();
+    }
+
+    public void shutdown() {
+        sweeper.shutdown();
+    }
+
+    private boolean isExpired(UserState state, long now) {
+        return now - state.updatedAtMillis > ttlMillis;
+    }
+
+    private void evictExpired() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, UserState> entry : states.entrySet()) {
+            // remove(key, value) не удалит состояние, обновленное после проверки
+            if (isExpired(entry.getValue(), now)) {
+                states.remove(entry.getKey(), entry.getValue());
+            }
+        }
+        if (dbManager != null) {
+            dbManager.deleteExpiredConversationStates(now - ttlMillis);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Прием обновлений через webhook вместо long polling.
+// Встроенный HTTP-сервер JDK принимает POST с JSON объекта Update, сразу отвечает 200
+// и передает обновление в onUpdateReceived, то есть в ту же очередь шардов, что и при polling.
+// Для локальной проверки достаточно отправить JSON: curl -X POST -d @update.json localhost:8443/webhook
+// Без секрета сервер слушает только 127.0.0.1: иначе любой, кто нашел адрес, мог бы присылать
+// поддельные обновления от имени любого пользователя.
+public class WebhookServer {
+
+    private static final String SECRET_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+
+    private final HabitTrackerBot bot;
+    private final byte[] secretToken;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final HttpServer server;
+
+    public WebhookServer(HabitTrackerBot bot, int port, String path, String secretToken) throws IOException {
+        this.bot = bot;
+        this.secretToken = secretToken != null ? secretToken.getBytes(StandardCharsets.UTF_8) : null;
+        this.server = HttpServer.create(secretToken != null
+                ? new InetSocketAddress(port)
+                : new InetSocketAddress("127.0.0.1", port), 0);
+        server.createContext(path, this::handle);
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    // Случайный секрет для setWebhook, если HABIT_WEBHOOK_SECRET не задан (Telegram допускает A-Z, a-z, 0-9, _ и -)
+    public static String randomSecret() {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            if (secretToken != null && !hasSecret(exchange)) {
+                exchange.sendResponseHeaders(401, -1);
+                return;
+            }
+
+            Update update;
+            try (InputStream body = exchange.getRequestBody()) {
+                update = objectMapper.readValue(body, Update.class);
+            } catch (IOException e) {
+                System.out.println("Некорректный JSON во входящем webhook: " + e.getMessage());
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+
+            // Обработка идет асинхронно в шардах, Telegram не ждет ответа бота
+            bot.onUpdateReceived(update);
+            exchange.sendResponseHeaders(200, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Сравнение за постоянное время, чтобы секрет нельзя было подобрать по времени ответа
+    private boolean hasSecret(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst(SECRET_HEADER);
+        return header != null && MessageDigest.isEqual(secretToken, header.getBytes(StandardCharsets.UTF_8));
+    }
+}
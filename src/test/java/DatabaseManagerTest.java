@@ -0,0 +1,47 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Каждый тест работает со своим файлом SQLite во временном каталоге
+class DatabaseManagerTest extends HabitRepositoryContractTest {
+
+    @TempDir
+    Path directory;
+
+    @Override
+    protected HabitRepository createRepository() {
+        return new DatabaseManager(url());
+    }
+
+    private String url() {
+        return "jdbc:sqlite:" + directory.resolve("habits.db");
+    }
+
+    @Test
+    void importAfterMidnightBeforeRollover() throws Exception {
+        long today = Habit.currentDay();
+        // Перевод дня еще не прошел за вчерашний день (например, бот был остановлен в полночь)
+        try (Connection connection = DriverManager.getConnection(url());
+             Statement stmt = connection.createStatement()) {
+            stmt.execute("UPDATE day_rollover SET rolled_day = " + (today - 1) + ", target_day = " + (today - 1));
+        }
+        long createdDay = today - 10;
+        Habit source = new Habit(0, USER, "Импорт", null, LocalDate.ofEpochDay(createdDay) + " 00:00:00",
+                0, 11, 0, 0, 0, -1);
+        assertEquals(1, repository.importHabits(List.of(new HabitRecord(source, new long[0]))));
+        assertEquals(10, repository.getUserHabits(USER).get(0).getTotalDays());
+
+        assertEquals(1, repository.rollOverChunk(today, 100));
+        assertEquals(11, repository.getUserHabits(USER).get(0).getTotalDays());
+        assertEquals(DatabaseManager.formatUserStats(1, 0, 11), repository.getUserStats(USER));
+        assertEquals(0, repository.verifyUserStats());
+    }
+}
@@ -0,0 +1,144 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// HabitHistory сверяется с наивной моделью на TreeSet дней
+class HabitHistoryTest {
+
+    private static final long BASE_DAY = 20_000;
+
+    @Test
+    void randomizedAgainstTreeSet() {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            long start = BASE_DAY + random.nextInt(500);
+            HabitHistory history = new HabitHistory(start);
+            TreeSet<Long> model = new TreeSet<>();
+            int span = 1 + random.nextInt(400);
+            int density = 1 + random.nextInt(4);
+            for (int i = 0; i < span; i++) {
+                // Часть дней раньше startDay: история сдвигает начало (rebase)
+                long day = start - 130 + random.nextInt(span + 130);
+                if (random.nextInt(density + 1) != 0) {
+                    assertEquals(model.add(day), history.set(day), "set " + day);
+                }
+            }
+            for (int query = 0; query < 10; query++) {
+                long from = start - 200 + random.nextInt(span + 300);
+                long to = from + random.nextInt(300) - 20;
+                assertEquals(count(model, from, to), history.count(from, to), "count " + from + ".." + to);
+                assertEquals(longestRun(model, from, to), history.longestRun(from, to),
+                        "longestRun " + from + ".." + to);
+            }
+            assertModel(model, history);
+            assertModel(model, HabitHistory.fromBytes(history.getStartDay(), history.toBytes()));
+        }
+    }
+
+    @Test
+    void wordBoundaries() {
+        long start = BASE_DAY;
+        long[] days = {start, start + 62, start + 63, start + 64, start + 65, start + 127, start + 128};
+        HabitHistory history = HabitHistory.fromDays(days);
+        assertArrayEquals(days, history.days());
+        assertEquals(3, history.count(start + 63, start + 65));
+        assertEquals(1, history.count(start + 127, start + 127));
+        assertEquals(2, history.count(start + 127, start + 200));
+        assertEquals(4, history.longestRun(start, start + 200));
+        assertEquals(2, history.longestRun(start + 127, start + 128));
+        assertEquals(2, history.runEndingAt(start + 128));
+        assertEquals(4, history.runEndingAt(start + 65));
+        assertEquals(0, history.runEndingAt(start + 66));
+
+        // Полное слово единиц: серия переходит через границу слов
+        HabitHistory full = new HabitHistory(start);
+        for (long day = start + 10; day < start + 200; day++) {
+            full.set(day);
+        }
+        assertEquals(190, full.longestRun(start, start + 300));
+        assertEquals(190, full.count(start, start + 300));
+        assertEquals(64, full.count(start + 64, start + 127));
+        assertEquals(190, full.runEndingAt(start + 199));
+    }
+
+    @Test
+    void rebaseKeepsDays() {
+        HabitHistory history = new HabitHistory(BASE_DAY);
+        history.set(BASE_DAY + 5);
+        history.set(BASE_DAY - 1);
+        history.set(BASE_DAY - 200);
+        assertTrue(history.getStartDay() <= BASE_DAY - 200);
+        assertEquals(0, (BASE_DAY - history.getStartDay()) % 64);
+        assertArrayEquals(new long[]{BASE_DAY - 200, BASE_DAY - 1, BASE_DAY + 5}, history.days());
+        assertEquals(BASE_DAY - 200, history.firstDay());
+        assertEquals(BASE_DAY + 5, history.lastDay());
+        assertFalse(history.get(BASE_DAY));
+        assertFalse(history.set(BASE_DAY - 1));
+    }
+
+    @Test
+    void toBytesTrimsTrailingZeros() {
+        HabitHistory empty = new HabitHistory(BASE_DAY);
+        assertEquals(0, empty.toBytes().length);
+        assertEquals(-1, empty.firstDay());
+        assertEquals(-1, empty.lastDay());
+        assertEquals(0, HabitHistory.fromBytes(BASE_DAY, null).days().length);
+
+        HabitHistory history = new HabitHistory(BASE_DAY);
+        history.set(BASE_DAY + 9);
+        // Запас массива после роста не попадает в BLOB
+        history.set(BASE_DAY + 64 * 3);
+        assertEquals(3 * 8 + 1, history.toBytes().length);
+
+        // fromDays начинает историю с первого дня: один день - один байт
+        assertEquals(1, HabitHistory.fromDays(new long[]{BASE_DAY + 9}).toBytes().length);
+        HabitHistory one = new HabitHistory(BASE_DAY);
+        one.set(BASE_DAY + 9);
+        byte[] bytes = one.toBytes();
+        assertEquals(2, bytes.length);
+        assertArrayEquals(new long[]{BASE_DAY + 9}, HabitHistory.fromBytes(BASE_DAY, bytes).days());
+    }
+
+    private static void assertModel(TreeSet<Long> model, HabitHistory history) {
+        long[] expected = model.stream().mapToLong(Long::longValue).toArray();
+        assertArrayEquals(expected, history.days());
+        assertEquals(model.isEmpty() ? -1 : model.first(), history.firstDay());
+        assertEquals(model.isEmpty() ? -1 : model.last(), history.lastDay());
+        for (long day : Arrays.copyOf(expected, Math.min(expected.length, 20))) {
+            assertTrue(history.get(day));
+            assertEquals(runBack(model, day), history.runEndingAt(day), "runEndingAt " + day);
+            assertEquals(runBack(model, day + 1), history.runEndingAt(day + 1), "runEndingAt " + (day + 1));
+        }
+    }
+
+    private static int count(TreeSet<Long> model, long from, long to) {
+        return from > to ? 0 : model.subSet(from, true, to, true).size();
+    }
+
+    private static int longestRun(TreeSet<Long> model, long from, long to) {
+        int best = 0;
+        int run = 0;
+        long previous = Long.MIN_VALUE;
+        for (long day : from > to ? new TreeSet<Long>() : model.subSet(from, true, to, true)) {
+            run = day == previous + 1 ? run + 1 : 1;
+            best = Math.max(best, run);
+            previous = day;
+        }
+        return best;
+    }
+
+    private static int runBack(TreeSet<Long> model, long day) {
+        int run = 0;
+        while (model.contains(day - run)) {
+            run++;
+        }
+        return run;
+    }
+}
@@ -0,0 +1,227 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Общий контракт HabitRepository: одни и те же проверки выполняются для каждой реализации
+// (см. InMemoryHabitRepositoryTest, DatabaseManagerTest, ShardedHabitRepositoryTest)
+abstract class HabitRepositoryContractTest {
+
+    protected static final long USER = 1001;
+    protected static final long OTHER_USER = 2002;
+
+    protected HabitRepository repository;
+
+    protected abstract HabitRepository createRepository() throws Exception;
+
+    @BeforeEach
+    void open() throws Exception {
+        repository = createRepository();
+    }
+
+    @AfterEach
+    void close() {
+        repository.close();
+    }
+
+    @Test
+    void emptyUserHasZeroStats() {
+        assertEquals(DatabaseManager.formatUserStats(0, 0, 0), repository.getUserStats(USER));
+        assertTrue(repository.getUserHabits(USER).isEmpty());
+        assertTrue(repository.getHabitPage(USER, 0, true, 10).isEmpty());
+    }
+
+    @Test
+    void addAndCompleteAreIdempotentWithinDay() {
+        assertTrue(repository.addHabit(USER, "Бег", "по утрам"));
+        Habit habit = repository.getUserHabits(USER).get(0);
+        assertEquals("Бег", habit.getName());
+        assertEquals("по утрам", habit.getDescription());
+        assertEquals(0, habit.getCompletedDays());
+        assertEquals(1, habit.getTotalDays());
+
+        assertEquals(CompletionResult.COMPLETED, repository.completeHabit(habit.getId(), USER));
+        assertEquals(CompletionResult.ALREADY_COMPLETED, repository.completeHabit(habit.getId(), USER));
+        assertEquals(CompletionResult.NOT_FOUND, repository.completeHabit(habit.getId(), OTHER_USER));
+        assertEquals(CompletionResult.NOT_FOUND, repository.completeHabit(habit.getId() + 1000, USER));
+
+        Habit completed = repository.getHabitById(habit.getId(), USER);
+        assertEquals(1, completed.getCompletedDays());
+        assertEquals(1, completed.getBestStreak());
+        assertEquals(1, completed.getCurrentStreak());
+        assertEquals(Habit.currentDay(), completed.getLastCompletedDay());
+        assertNull(repository.getHabitById(habit.getId(), OTHER_USER));
+
+        HabitHistory history = repository.getHabitHistory(habit.getId(), USER);
+        assertNotNull(history);
+        assertEquals(1, history.days().length);
+        assertTrue(history.get(Habit.currentDay()));
+        assertStatsConsistent(USER);
+    }
+
+    @Test
+    void deleteRemovesHabitAndStats() {
+        repository.addHabit(USER, "Чтение", "");
+        repository.addHabit(USER, "Вода", "");
+        List<Habit> habits = repository.getUserHabits(USER);
+        int deletedId = habits.get(0).getId();
+        repository.completeHabit(deletedId, USER);
+        repository.completeHabit(habits.get(1).getId(), USER);
+
+        assertFalse(repository.deleteHabit(deletedId, OTHER_USER));
+        assertTrue(repository.deleteHabit(deletedId, USER));
+        assertFalse(repository.deleteHabit(deletedId, USER));
+        assertNull(repository.getHabitById(deletedId, USER));
+        assertEquals(CompletionResult.NOT_FOUND, repository.completeHabit(deletedId, USER));
+        assertEquals(1, repository.getUserHabits(USER).size());
+        assertEquals(DatabaseManager.formatUserStats(1, 1, 1), repository.getUserStats(USER));
+        assertStatsConsistent(USER);
+
+        assertTrue(repository.deleteHabit(habits.get(1).getId(), USER));
+        assertEquals(DatabaseManager.formatUserStats(0, 0, 0), repository.getUserStats(USER));
+    }
+
+    @Test
+    void pagesWalkForwardAndBack() {
+        for (int i = 0; i < 7; i++) {
+            repository.addHabit(USER, "Привычка " + i, "");
+            repository.addHabit(OTHER_USER, "Чужая " + i, "");
+        }
+        List<Integer> ids = new ArrayList<>();
+        for (Habit habit : repository.getUserHabits(USER)) {
+            ids.add(habit.getId());
+        }
+
+        HabitPage first = repository.getHabitPage(USER, 0, true, 3);
+        assertEquals(ids.subList(0, 3), idsOf(first));
+        assertFalse(first.hasPrevious());
+        assertTrue(first.hasNext());
+
+        HabitPage second = repository.getHabitPage(USER, first.getLastId(), true, 3);
+        assertEquals(ids.subList(3, 6), idsOf(second));
+        assertTrue(second.hasPrevious());
+        assertTrue(second.hasNext());
+
+        HabitPage last = repository.getHabitPage(USER, second.getLastId(), true, 3);
+        assertEquals(ids.subList(6, 7), idsOf(last));
+        assertTrue(last.hasPrevious());
+        assertFalse(last.hasNext());
+
+        HabitPage back = repository.getHabitPage(USER, last.getFirstId(), false, 3);
+        assertEquals(ids.subList(3, 6), idsOf(back));
+        assertTrue(back.hasPrevious());
+        assertTrue(back.hasNext());
+
+        HabitPage start = repository.getHabitPage(USER, back.getFirstId(), false, 3);
+        assertEquals(ids.subList(0, 3), idsOf(start));
+        assertFalse(start.hasPrevious());
+
+        // Якорь за последней привычкой (например, ее удалили) возвращает к первой странице
+        repository.deleteHabit(ids.get(6), USER);
+        assertEquals(ids.subList(0, 3), idsOf(repository.getHabitPage(USER, ids.get(5), true, 3)));
+    }
+
+    @Test
+    void statsFollowEveryChange() {
+        for (int i = 0; i < 5; i++) {
+            repository.addHabit(USER, "Привычка " + i, "");
+        }
+        repository.addHabit(OTHER_USER, "Чужая", "");
+        List<Habit> habits = repository.getUserHabits(USER);
+        for (int i = 0; i < 3; i++) {
+            repository.completeHabit(habits.get(i).getId(), USER);
+        }
+        repository.completeHabit(habits.get(0).getId(), USER);
+        repository.deleteHabit(habits.get(4).getId(), USER);
+        repository.updateHabitDescription(habits.get(1).getId(), USER, "новое описание");
+
+        assertEquals(DatabaseManager.formatUserStats(4, 3, 4), repository.getUserStats(USER));
+        assertEquals(DatabaseManager.formatUserStats(1, 0, 1), repository.getUserStats(OTHER_USER));
+        assertStatsConsistent(USER);
+        assertStatsConsistent(OTHER_USER);
+        assertEquals(0, repository.verifyUserStats());
+    }
+
+    @Test
+    void rolloverAddsDaysToEveryHabit() {
+        for (int i = 0; i < 5; i++) {
+            repository.addHabit(USER, "Привычка " + i, "");
+            repository.addHabit(OTHER_USER, "Чужая " + i, "");
+        }
+        long today = Habit.currentDay();
+        assertEquals(today, repository.getRolledOverDay());
+        assertEquals(0, repository.rollOverChunk(today, 3));
+
+        // Перевод на два дня вперед пачками меньше числа привычек
+        long toDay = today + 2;
+        int chunks = 0;
+        while (repository.getRolledOverDay() < toDay) {
+            assertTrue(repository.rollOverChunk(toDay, 3) >= 0);
+            assertTrue(++chunks < 100);
+        }
+        assertEquals(toDay, repository.getRolledOverDay());
+        assertEquals(0, repository.rollOverChunk(toDay, 3));
+
+        for (Habit habit : repository.getUserHabits(USER)) {
+            assertEquals(3, habit.getTotalDays());
+        }
+        assertEquals(DatabaseManager.formatUserStats(5, 0, 15), repository.getUserStats(USER));
+        assertStatsConsistent(USER);
+        assertStatsConsistent(OTHER_USER);
+        assertEquals(0, repository.verifyUserStats());
+    }
+
+    @Test
+    void importDuringRolloverCountsEachDayOnce() {
+        for (int i = 0; i < 3; i++) {
+            repository.addHabit(OTHER_USER, "Чужая " + i, "");
+        }
+        long today = Habit.currentDay();
+        long createdDay = today - 10;
+        long toDay = today + 2;
+        // Импорт между пачками перевода дня (в памяти проход завершается одним вызовом)
+        assertTrue(repository.rollOverChunk(toDay, 2) >= 0);
+        Habit source = new Habit(0, USER, "Импорт", null, LocalDate.ofEpochDay(createdDay) + " 00:00:00",
+                2, 11, 1, 1, today - 3, -1);
+        assertEquals(1, repository.importHabits(List.of(new HabitRecord(source, new long[]{today - 5, today - 3}))));
+        assertEquals(repository.getRolledOverDay() - createdDay + 1, repository.getUserHabits(USER).get(0).getTotalDays());
+
+        while (repository.getRolledOverDay() < toDay) {
+            assertTrue(repository.rollOverChunk(toDay, 2) >= 0);
+        }
+        int totalDays = (int) (toDay - createdDay + 1);
+        assertEquals(totalDays, repository.getUserHabits(USER).get(0).getTotalDays());
+        assertEquals(DatabaseManager.formatUserStats(1, 2, totalDays), repository.getUserStats(USER));
+        assertStatsConsistent(USER);
+        assertEquals(0, repository.verifyUserStats());
+    }
+
+    // Статистика пользователя совпадает с суммой по его привычкам
+    protected void assertStatsConsistent(long userId) {
+        List<Habit> habits = repository.getUserHabits(userId);
+        int completed = 0;
+        int days = 0;
+        for (Habit habit : habits) {
+            completed += habit.getCompletedDays();
+            days += habit.getTotalDays();
+        }
+        assertEquals(DatabaseManager.formatUserStats(habits.size(), completed, days), repository.getUserStats(userId));
+    }
+
+    private static List<Integer> idsOf(HabitPage page) {
+        List<Integer> ids = new ArrayList<>();
+        for (Habit habit : page.getHabits()) {
+            ids.add(habit.getId());
+        }
+        return ids;
+    }
+}
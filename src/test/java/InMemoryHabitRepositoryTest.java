@@ -0,0 +1,7 @@
+class InMemoryHabitRepositoryTest extends HabitRepositoryContractTest {
+
+    @Override
+    protected HabitRepository createRepository() {
+        return new InMemoryHabitRepository();
+    }
+}
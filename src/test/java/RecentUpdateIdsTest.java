@@ -0,0 +1,35 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecentUpdateIdsTest {
+
+    @Test
+    void rejectsRepeatsWithinWindow() {
+        RecentUpdateIds ids = new RecentUpdateIds(64);
+        assertTrue(ids.add(1000));
+        assertTrue(ids.add(1002));
+        assertFalse(ids.add(1000));
+        assertTrue(ids.add(1001));
+        assertFalse(ids.add(1002));
+        // Сдвиг максимума освобождает позиции старых id
+        assertTrue(ids.add(1060));
+        assertFalse(ids.add(1001));
+        assertTrue(ids.add(1003));
+    }
+
+    @Test
+    void idBelowWindowStartsNewSequence() {
+        RecentUpdateIds ids = new RecentUpdateIds(64);
+        for (long id = 500_000; id < 500_010; id++) {
+            assertTrue(ids.add(id));
+        }
+        // После недели тишины Telegram выбирает следующий update_id случайно
+        assertTrue(ids.add(1_000));
+        assertTrue(ids.add(1_001));
+        assertFalse(ids.add(1_000));
+        assertTrue(ids.add(1_002));
+        assertFalse(ids.add(1_001));
+    }
+}
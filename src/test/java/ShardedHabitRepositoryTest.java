@@ -0,0 +1,167 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Три файла SQLite во временном каталоге; кроме общего контракта проверяется то, что есть только
+// у шардов: диапазоны id, слияние напоминаний, раскладка импорта и проходы по шардам по очереди
+class ShardedHabitRepositoryTest extends HabitRepositoryContractTest {
+
+    private static final int SHARDS = 3;
+
+    @TempDir
+    Path directory;
+
+    @Override
+    protected HabitRepository createRepository() {
+        return new ShardedHabitRepository(directory.resolve("habits").toString(), SHARDS);
+    }
+
+    // Первый пользователь с id от start, который попадает в шард shard
+    private static long userInShard(int shard, long start) {
+        long userId = start;
+        while (ShardedHabitRepository.shardIndex(userId, SHARDS) != shard) {
+            userId++;
+        }
+        return userId;
+    }
+
+    @Test
+    void idRangesAreDisjointAcrossShards() {
+        int rangeSize = Integer.MAX_VALUE / SHARDS;
+        Set<Integer> ids = new HashSet<>();
+        for (int round = 0; round < 2; round++) {
+            for (int shard = 0; shard < SHARDS; shard++) {
+                long userId = userInShard(shard, 5000);
+                repository.addHabit(userId, "Привычка " + round, "");
+            }
+            // Курсор sqlite_sequence переживает переоткрытие файлов
+            repository.close();
+            repository = createRepository();
+        }
+        for (int shard = 0; shard < SHARDS; shard++) {
+            long userId = userInShard(shard, 5000);
+            List<Habit> habits = repository.getUserHabits(userId);
+            assertEquals(2, habits.size());
+            for (Habit habit : habits) {
+                assertTrue(habit.getId() > shard * rangeSize && habit.getId() <= (shard + 1) * rangeSize,
+                        "id " + habit.getId() + " вне диапазона шарда " + shard);
+                assertTrue(ids.add(habit.getId()));
+            }
+        }
+    }
+
+    @Test
+    void remindersMergeInOrderAcrossShards() {
+        List<long[]> expected = new ArrayList<>();
+        for (int shard = 0; shard < SHARDS; shard++) {
+            long userId = userInShard(shard, 7000);
+            for (int i = 0; i < 4; i++) {
+                repository.addHabit(userId, "Напоминание " + i, "");
+            }
+            List<Habit> habits = repository.getUserHabits(userId);
+            for (int i = 0; i < habits.size(); i++) {
+                // Одинаковые минуты в разных шардах: порядок внутри минуты задает id
+                int minute = 60 + (i % 2) * 30;
+                Habit habit = habits.get(i);
+                assertTrue(repository.setHabitReminder(habit.getId(), userId, minute));
+                expected.add(new long[]{minute, habit.getId(), userId});
+            }
+        }
+        expected.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+
+        // Страницы меньше числа напоминаний в одном шарде, как у ReminderScheduler
+        List<long[]> loaded = new ArrayList<>();
+        int[] cursor = {-1, 0};
+        int page;
+        do {
+            page = repository.loadReminders(cursor[0], cursor[1], 24 * 60, Habit.currentDay(), 5,
+                    (habitId, userId, minuteOfDay) -> {
+                        loaded.add(new long[]{minuteOfDay, habitId, userId});
+                        cursor[0] = minuteOfDay;
+                        cursor[1] = habitId;
+                    });
+        } while (page == 5);
+
+        assertEquals(expected.size(), loaded.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i)[0], loaded.get(i)[0]);
+            assertEquals(expected.get(i)[1], loaded.get(i)[1]);
+            assertEquals(expected.get(i)[2], loaded.get(i)[2]);
+        }
+        assertEquals(0, repository.loadReminders(-1, 0, 60, Habit.currentDay(), 5, (habitId, userId, minute) -> {
+        }));
+    }
+
+    @Test
+    void importSplitsRecordsByShard() throws Exception {
+        long today = Habit.currentDay();
+        List<HabitRecord> records = new ArrayList<>();
+        List<Long> users = new ArrayList<>();
+        for (int shard = 0; shard < SHARDS; shard++) {
+            long userId = userInShard(shard, 9000);
+            users.add(userId);
+            for (int i = 0; i <= shard; i++) {
+                Habit habit = new Habit(0, userId, "Импорт " + i, null,
+                        LocalDate.ofEpochDay(today - 3) + " 00:00:00", 1, 4, 1, 1, today - 1, -1);
+                records.add(new HabitRecord(habit, new long[]{today - 1}));
+            }
+        }
+        assertEquals(records.size(), repository.importHabits(records));
+
+        for (int shard = 0; shard < SHARDS; shard++) {
+            long userId = users.get(shard);
+            List<Habit> habits = repository.getUserHabits(userId);
+            assertEquals(shard + 1, habits.size());
+            HabitHistory history = repository.getHabitHistory(habits.get(0).getId(), userId);
+            assertNotNull(history);
+            assertTrue(history.get(today - 1));
+            assertStatsConsistent(userId);
+        }
+        assertEquals(records.size(), repository.exportHabits(null, record -> {
+        }));
+        assertEquals(0, repository.verifyUserStats());
+    }
+
+    @Test
+    void journalTrimWalksShardsInTurn() {
+        long today = Habit.currentDay();
+        List<HabitRecord> records = new ArrayList<>();
+        for (int shard = 0; shard < SHARDS; shard++) {
+            long userId = userInShard(shard, 11000);
+            for (int i = 0; i < 3; i++) {
+                Habit habit = new Habit(0, userId, "Старая " + i, null,
+                        LocalDate.ofEpochDay(today - 500) + " 00:00:00", 3, 0, 1, 2, today - 10, -1);
+                records.add(new HabitRecord(habit, new long[]{today - 450, today - 449, today - 10}));
+            }
+        }
+        repository.importHabits(records);
+
+        long cutoff = HistoryRetention.cutoffDay(today, 400);
+        int chunks = 0;
+        while (repository.getRetainedFromDay() < cutoff) {
+            assertTrue(repository.trimJournalChunk(cutoff, 2) >= 0);
+            assertTrue(++chunks < 100);
+        }
+        assertEquals(0, repository.trimJournalChunk(cutoff, 2));
+
+        // Битовая история после очистки журнала не меняется
+        for (int shard = 0; shard < SHARDS; shard++) {
+            long userId = userInShard(shard, 11000);
+            for (Habit habit : repository.getUserHabits(userId)) {
+                HabitHistory history = repository.getHabitHistory(habit.getId(), userId);
+                assertEquals(3, history.days().length);
+                assertEquals(2, habit.getBestStreak());
+            }
+        }
+    }
+}